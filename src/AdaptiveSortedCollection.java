@@ -0,0 +1,393 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SortedCollection that stores small collections in a sorted array and
+ * large ones in a RedBlackTree. While it holds at most threshold values, the
+ * values sit in one array that grows as needed, searched with binary search
+ * and shifted with System.arraycopy on insert, with no per value node
+ * objects. The first insert past the threshold moves the values into a tree
+ * with buildFromSorted in O(n), and once removals bring the size down to a
+ * quarter of the threshold the values move back into an array. The gap
+ * between the two sizes keeps a collection hovering around the threshold
+ * from converting on every operation.
+ * @param <T> type of the values
+ */
+public class AdaptiveSortedCollection<T extends Comparable<T>> implements SortedCollection<T>, Iterable<T> {
+
+	// default number of values kept in array form
+	public static final int DEFAULT_THRESHOLD = 64;
+	// capacity of the array when the first value is inserted
+	private static final int INITIAL_CAPACITY = 4;
+
+	// most values kept in array form
+	private final int threshold;
+	// sorted values in array form, null until the first insert or while in tree form
+	private Object[] array = null;
+	// values in tree form, null while in array form
+	private RedBlackTree<T> tree = null;
+	// number of values, including duplicates
+	private int size = 0;
+
+	/**
+	 * Creates an empty collection that switches to a tree above DEFAULT_THRESHOLD values.
+	 */
+	public AdaptiveSortedCollection() {
+		this(DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Creates an empty collection that switches to a tree above threshold values.
+	 * @param threshold most values kept in array form
+	 * @throws IllegalArgumentException if threshold is less than 1
+	 */
+	public AdaptiveSortedCollection(int threshold) throws IllegalArgumentException {
+		if (threshold < 1) {
+			throw new IllegalArgumentException("Threshold must be positive");
+		}
+		this.threshold = threshold;
+	}
+
+	/**
+	 * @return true while the values are stored in a RedBlackTree, false while
+	 * they are stored in an array
+	 */
+	public boolean isTree() {
+		return tree != null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T at(int index) {
+		return (T) array[index];
+	}
+
+	/**
+	 * @return the first index in the array whose value is greater than data
+	 * (or greater than or equal to data if not inclusive), or size
+	 */
+	private int search(Comparable<T> data, boolean inclusive) {
+		int lo = 0;
+		int hi = size;
+		while (lo < hi) {
+			int middle = (lo + hi) >>> 1;
+			int comp = data.compareTo(at(middle));
+			if (comp > 0 || (inclusive && comp == 0)) {
+				lo = middle + 1;
+			}
+			else {
+				hi = middle;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Inserts a new data value, after any equal values. Moves the values into
+	 * a tree when the array would hold more than threshold values.
+	 * @param data the new value being inserted
+	 * @throws NullPointerException if data argument is null, we do not allow
+	 * null values to be stored within a SortedCollection
+	 */
+	@Override
+	public void insert(T data) throws NullPointerException {
+		if (data == null) {
+			throw new NullPointerException("Data cannot be null.");
+		}
+
+		if (tree != null) {
+			tree.insert(data);
+			size++;
+			return;
+		}
+
+		if (size == threshold) {
+			toTree();
+			tree.insert(data);
+			size++;
+			return;
+		}
+
+		if (array == null) {
+			array = new Object[Math.min(INITIAL_CAPACITY, threshold)];
+		}
+		else if (size == array.length) {
+			array = Arrays.copyOf(array, Math.min(threshold, size * 2));
+		}
+		int index = search(data, true);
+		System.arraycopy(array, index, array, index + 1, size - index);
+		array[index] = data;
+		size++;
+	}
+
+	/**
+	 * Removes one copy of data. Moves the values back into an array once
+	 * only a quarter of threshold values are left.
+	 * @param data the value to remove
+	 * @return true if a copy of data was removed, false if there was none
+	 */
+	public boolean remove(Comparable<T> data) {
+		if (tree != null) {
+			BSTNode<T> node = tree.root;
+			while (node != null) {
+				int comp = data.compareTo(node.data);
+				if (comp == 0) {
+					break;
+				}
+				node = comp < 0 ? node.left : node.right;
+			}
+			if (node == null) {
+				return false;
+			}
+			tree.removeNode((RBTNode<T>) node);
+			size--;
+			if (size <= threshold / 4) {
+				toArray();
+			}
+			return true;
+		}
+
+		int index = search(data, false);
+		if (index == size || data.compareTo(at(index)) != 0) {
+			return false;
+		}
+		System.arraycopy(array, index + 1, array, index, size - index - 1);
+		array[--size] = null;
+		return true;
+	}
+
+	/**
+	 * Moves the values from the array into a new tree, built in O(n).
+	 */
+	private void toTree() {
+		List<T> sorted = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			sorted.add(at(i));
+		}
+		tree = new RedBlackTree<>();
+		tree.buildFromSorted(sorted);
+		array = null;
+	}
+
+	/**
+	 * Moves the values from the tree into a new array, in order.
+	 */
+	private void toArray() {
+		array = new Object[Math.max(size, Math.min(INITIAL_CAPACITY, threshold))];
+		int i = 0;
+		for (T value : tree) {
+			array[i++] = value;
+		}
+		tree = null;
+	}
+
+	@Override
+	public boolean contains(Comparable<T> data) {
+		if (tree != null) {
+			return tree.contains(data);
+		}
+		int index = search(data, false);
+		return index < size && data.compareTo(at(index)) == 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all values and duplicates, returning to array form.
+	 */
+	@Override
+	public void clear() {
+		array = null;
+		tree = null;
+		size = 0;
+	}
+
+	@Override
+	public T floor(Comparable<T> data) {
+		if (tree != null) {
+			return tree.floor(data);
+		}
+		int index = search(data, true);
+		return index == 0 ? null : at(index - 1);
+	}
+
+	@Override
+	public T ceiling(Comparable<T> data) {
+		if (tree != null) {
+			return tree.ceiling(data);
+		}
+		int index = search(data, false);
+		return index == size ? null : at(index);
+	}
+
+	@Override
+	public T lower(Comparable<T> data) {
+		if (tree != null) {
+			return tree.lower(data);
+		}
+		int index = search(data, false);
+		return index == 0 ? null : at(index - 1);
+	}
+
+	@Override
+	public T higher(Comparable<T> data) {
+		if (tree != null) {
+			return tree.higher(data);
+		}
+		int index = search(data, true);
+		return index == size ? null : at(index);
+	}
+
+	@Override
+	public T first() {
+		if (tree != null) {
+			return tree.first();
+		}
+		return size == 0 ? null : at(0);
+	}
+
+	@Override
+	public T last() {
+		if (tree != null) {
+			return tree.last();
+		}
+		return size == 0 ? null : at(size - 1);
+	}
+
+	/**
+	 * Iterates over the values in ascending order, including duplicates. The
+	 * iterator must not be used after the collection is modified.
+	 * @return an iterator over the values in order
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		if (tree != null) {
+			return tree.iterator();
+		}
+		return new Iterator<T>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public T next() {
+				if (next >= size) {
+					throw new NoSuchElementException();
+				}
+				return at(next++);
+			}
+		};
+	}
+
+	/**
+	 * JUnit tests, nested because AdaptiveSortedCollection declares two
+	 * constructors and JUnit needs a test class with exactly one
+	 */
+	static class AdaptiveSortedCollectionTest {
+
+		/**
+		 * Checks that every query agrees with a sorted list while the collection
+		 * grows into a tree and shrinks back into an array
+		 */
+		@Test
+		public void adaptiveTest1() {
+			AdaptiveSortedCollection<Integer> collection = new AdaptiveSortedCollection<>(16);
+			List<Integer> expected = new ArrayList<>();
+			Random random = new Random(44);
+			boolean wasTree = false;
+
+			for (int round = 0; round < 2; round++) {
+				for (int i = 0; i < 40; i++) {
+					int value = random.nextInt(30);
+					collection.insert(value);
+					int index = 0;
+					while (index < expected.size() && expected.get(index) <= value) {
+						index++;
+					}
+					expected.add(index, value);
+					wasTree |= collection.isTree();
+					check(expected, collection);
+				}
+				for (int i = 0; i < 40; i++) {
+					Integer value = random.nextInt(30);
+					assertEquals(expected.remove(value), collection.remove(value));
+					check(expected, collection);
+				}
+			}
+
+			while (!expected.isEmpty()) {
+				assertTrue(collection.remove(expected.remove(expected.size() - 1)));
+			}
+			check(expected, collection);
+			assertTrue(wasTree);
+			assertFalse(collection.isTree());
+		}
+
+		/**
+		 * Asserts that collection holds exactly the values of the sorted list expected.
+		 */
+		private static void check(List<Integer> expected, AdaptiveSortedCollection<Integer> collection) {
+			assertEquals(expected.size(), collection.size());
+			List<Integer> actual = new ArrayList<>();
+			collection.forEach(actual::add);
+			assertEquals(expected, actual);
+
+			for (int probe = -1; probe <= 31; probe += 4) {
+				assertEquals(expected.contains(probe), collection.contains(probe));
+				Integer floor = null;
+				Integer lower = null;
+				Integer ceiling = null;
+				Integer higher = null;
+				for (int value : expected) {
+					if (value <= probe) floor = value;
+					if (value < probe) lower = value;
+					if (value >= probe && ceiling == null) ceiling = value;
+					if (value > probe && higher == null) higher = value;
+				}
+				assertEquals(floor, collection.floor(probe));
+				assertEquals(lower, collection.lower(probe));
+				assertEquals(ceiling, collection.ceiling(probe));
+				assertEquals(higher, collection.higher(probe));
+			}
+		}
+
+		/**
+		 * Checks first, last and clear in both forms
+		 */
+		@Test
+		public void adaptiveTest2() {
+			AdaptiveSortedCollection<String> collection = new AdaptiveSortedCollection<>(2);
+			assertNull(collection.first());
+			collection.insert("b");
+			collection.insert("a");
+			assertFalse(collection.isTree());
+			assertEquals("a", collection.first());
+			collection.insert("c");
+			assertTrue(collection.isTree());
+			assertEquals("c", collection.last());
+
+			collection.clear();
+			assertTrue(collection.isEmpty());
+			assertFalse(collection.isTree());
+			assertNull(collection.last());
+		}
+	}
+
+}
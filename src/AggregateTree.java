@@ -0,0 +1,246 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Red black tree in which every node caches an aggregate, such as a sum, min
+ * or max, of a value extracted from each element in its subtree. The
+ * aggregate of any range of elements can then be found in O(log n) time.
+ * The combiner must be associative and identity must be its identity value,
+ * but the combiner does not need to be commutative: values are always
+ * combined in ascending element order.
+ * @param <T> type of the elements
+ * @param <A> type of the aggregated values
+ */
+public class AggregateTree<T extends Comparable<T>, A> extends RedBlackTree<T> {
+
+	/**
+	 * Red black tree node that also stores the aggregate of its subtree.
+	 */
+	protected static class AggregateNode<T, A> extends RBTNode<T> {
+
+		// aggregate of the values of every element in this node's subtree
+		protected A aggregate;
+
+		/**
+		 * Creates a new red node holding data.
+		 * @param data the value the new node stores
+		 * @param aggregate the value extracted from data
+		 */
+		public AggregateNode(T data, A aggregate) {
+			super(data);
+			this.aggregate = aggregate;
+		}
+
+		/**
+		 * @return the aggregate of the subtree rooted at this node
+		 */
+		public A getAggregate() { return this.aggregate; }
+	}
+
+	// extracts the value to aggregate from an element
+	protected final Function<? super T, ? extends A> extractor;
+	// associative operation that combines two aggregates
+	protected final BinaryOperator<A> combiner;
+	// aggregate of no elements
+	protected final A identity;
+
+	/**
+	 * Creates an empty tree that aggregates the values extracted from its
+	 * elements with combiner.
+	 * @param extractor extracts the value to aggregate from an element
+	 * @param combiner associative operation that combines two aggregates
+	 * @param identity aggregate of no elements, such as 0 for a sum
+	 * @throws NullPointerException if extractor or combiner is null
+	 */
+	public AggregateTree(Function<? super T, ? extends A> extractor, BinaryOperator<A> combiner,
+		A identity) throws NullPointerException {
+		if (extractor == null || combiner == null) {
+			throw new NullPointerException("Extractor and combiner cannot be null");
+		}
+		this.extractor = extractor;
+		this.combiner = combiner;
+		this.identity = identity;
+	}
+
+	/**
+	 * Creates an AggregateNode whose aggregate starts as the element's own value.
+	 */
+	@Override
+	protected RBTNode<T> createNode(T data) {
+		return new AggregateNode<>(data, extractor.apply(data));
+	}
+
+	/**
+	 * Recomputes node's aggregate from its children's aggregates and its own value.
+	 */
+	@Override
+	protected void refresh(BSTNode<T> node) {
+		aggregateNode(node).aggregate =
+			combiner.apply(combiner.apply(aggregateOf(node.left), extractor.apply(node.data)),
+				aggregateOf(node.right));
+	}
+
+	/**
+	 * @return a new tree with the same elements in the same node layout and
+	 * the same extractor, combiner and identity
+	 */
+	@Override
+	public AggregateTree<T, A> copy() {
+		AggregateTree<T, A> copy = new AggregateTree<T, A>(extractor, combiner, identity);
+		copyInto(copy);
+		return copy;
+	}
+
+	/**
+	 * @return the aggregate of every element in the tree
+	 */
+	public A aggregate() {
+		return aggregateOf(root);
+	}
+
+	/**
+	 * Computes the aggregate of every element between lo and hi, inclusive,
+	 * in O(log n) time.
+	 * @param lo the smallest element to include
+	 * @param hi the largest element to include
+	 * @return the aggregate of the elements in [lo, hi], or identity if there
+	 * are none
+	 * @throws NullPointerException if either bound is null
+	 */
+	public A aggregate(T lo, T hi) throws NullPointerException {
+		if (lo == null || hi == null) {
+			throw new NullPointerException("Range bounds cannot be null");
+		}
+
+		//find the highest node inside the range, where the search paths for lo and hi split
+		BSTNode<T> split = root;
+		while (split != null) {
+			if (split.data.compareTo(lo) < 0) {
+				split = split.right;
+			}
+			else if (split.data.compareTo(hi) > 0) {
+				split = split.left;
+			}
+			else {
+				break;
+			}
+		}
+
+		if (split == null) {
+			return identity;
+		}
+
+		//walk towards lo, adding each in-range node and its whole right subtree in front
+		A leftPart = identity;
+		BSTNode<T> node = split.left;
+		while (node != null) {
+			if (node.data.compareTo(lo) >= 0) {
+				leftPart = combiner.apply(
+					combiner.apply(extractor.apply(node.data), aggregateOf(node.right)), leftPart);
+				node = node.left;
+			}
+			else {
+				node = node.right;
+			}
+		}
+
+		//walk towards hi, adding each in-range node and its whole left subtree behind
+		A rightPart = identity;
+		node = split.right;
+		while (node != null) {
+			if (node.data.compareTo(hi) <= 0) {
+				rightPart = combiner.apply(rightPart,
+					combiner.apply(aggregateOf(node.left), extractor.apply(node.data)));
+				node = node.right;
+			}
+			else {
+				node = node.left;
+			}
+		}
+
+		return combiner.apply(combiner.apply(leftPart, extractor.apply(split.data)), rightPart);
+	}
+
+	/**
+	 * @return the cached aggregate of node's subtree, or identity for a null node
+	 */
+	private A aggregateOf(BSTNode<T> node) {
+		return node == null ? identity : aggregateNode(node).aggregate;
+	}
+
+	/**
+	 * @return node as the AggregateNode that every node of this tree is
+	 */
+	@SuppressWarnings("unchecked")
+	private AggregateNode<T, A> aggregateNode(BSTNode<T> node) {
+		return (AggregateNode<T, A>) node;
+	}
+
+	/**
+	 * JUnit tests, in a nested class since JUnit can only create test
+	 * instances through a no-argument constructor
+	 */
+	static class AggregateTreeTest {
+
+		/**
+		 * Checks range sums against a linear scan of the same values
+		 */
+		@Test
+		public void aggregateTest1() {
+			AggregateTree<Integer, Long> tree = new AggregateTree<>(i -> (long) i, Long::sum, 0L);
+			List<Integer> all = new ArrayList<>();
+			Random random = new Random(28);
+
+			assertEquals(0L, tree.aggregate(0, 100));
+
+			for (int i = 0; i < 1000; i++) {
+				int value = random.nextInt(500);
+				tree.insert(value);
+				all.add(value);
+			}
+
+			long total = 0;
+			for (int value : all) {
+				total += value;
+			}
+			assertEquals(total, tree.aggregate());
+
+			for (int i = 0; i < 200; i++) {
+				int lo = random.nextInt(520) - 10;
+				int hi = lo + random.nextInt(100);
+
+				long expected = 0;
+				for (int value : all) {
+					if (value >= lo && value <= hi) {
+						expected += value;
+					}
+				}
+				assertEquals(Long.valueOf(expected), tree.aggregate(lo, hi), "sum of [" + lo + ", " + hi + "]");
+			}
+		}
+
+		/**
+		 * Checks that a non-commutative aggregate combines values in order
+		 */
+		@Test
+		public void aggregateTest2() {
+			AggregateTree<String, String> tree = new AggregateTree<>(s -> s, String::concat, "");
+
+			for (String letter : "QWERTYUIOPASDFGHJKLZXCVBNM".split("")) {
+				tree.insert(letter);
+			}
+
+			assertEquals("ABCDEFGHIJKLMNOPQRSTUVWXYZ", tree.aggregate());
+			assertEquals("DEFGHIJ", tree.aggregate("D", "J"));
+			assertEquals("Z", tree.aggregate("Y1", "ZZ"));
+			assertEquals("", tree.aggregate("J1", "J2"));
+		}
+	}
+
+}
@@ -96,6 +96,30 @@ public class BSTRotation<T extends Comparable<T>> extends BinarySearchTree<T> {
     	else {
     		throw new IllegalArgumentException("Child must be direct child of parent node");
     	}
+    	
+    	//parent is now below child, so its subtree data must be recomputed first
+    	refresh(parent);
+    	refresh(child);
+    }
+    
+    /**
+     * Recomputes any data that a subclass caches about the subtree rooted at
+     * node from that node's own value and its children. This is called on both
+     * nodes after every rotation and on each node along the insertion path,
+     * children before parents. Nothing is cached here, so this does nothing.
+     * @param node the node whose cached subtree data may be out of date
+     */
+    protected void refresh(BSTNode<T> node) {
+    }
+    
+    /**
+     * Inserts newNode below subtree like BinarySearchTree does, then refreshes
+     * subtree once the recursive call below it has returned.
+     */
+    @Override
+    protected void insertHelper(BSTNode<T> newNode, BSTNode<T> subtree) {
+    	super.insertHelper(newNode, subtree);
+    	refresh(subtree);
     }
     
     /**
@@ -1,5 +1,9 @@
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
 
-public class BinarySearchTree<T extends Comparable<T>> implements SortedCollection<T>{
+public class BinarySearchTree<T extends Comparable<T>> implements SortedCollection<T>, Iterable<T>{
 	
 	BSTNode<T> root = null; //root node of tree
 	
@@ -65,13 +69,19 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
 		return false; //tree empty
 		}
 		
+		TreeOperationEvent event = new TreeOperationEvent();
+		event.begin();
 		BSTNode<T> currentNode = root;
+		boolean found = false;
+		int nodesCompared = 0;
 		
 		while (currentNode != null) {
 			int comp = data.compareTo(currentNode.getData());
+			nodesCompared++;
 			
 			if(comp == 0) {
-				return true;
+				found = true;
+				break;
 			}
 			//search left subtree if node is less than
 			else if (comp < 0) {
@@ -83,7 +93,14 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
 			}
 		}
 		
-		return false;
+		event.end();
+		if (event.shouldCommit()) {
+			event.operation = "contains";
+			event.pathLength = nodesCompared;
+			event.keyClass = data.getClass();
+			event.commit();
+		}
+		return found;
 	}
 	
 	/**
@@ -133,6 +150,274 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
 		root = null;
 	}
 	
+	/**
+	 * Iterates over the values in the collection in ascending order, including
+	 * duplicates. The iterator follows parent references instead of keeping a
+	 * stack, and must not be used after the tree is modified.
+	 * @return an iterator over the values in order
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			
+			// node holding the value returned by the next call to next()
+			private BSTNode<T> next = leftmost(root);
+			
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+			
+			@Override
+			public T next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				
+				BSTNode<T> current = next;
+				next = successor(current);
+				return current.getData();
+			}
+		};
+	}
+	
+	/**
+	 * @return the left-most node of the subtree rooted at node, or null if node is null
+	 */
+	protected BSTNode<T> leftmost(BSTNode<T> node) {
+		if (node != null) {
+			while (node.left != null) {
+				node = node.left;
+			}
+		}
+		return node;
+	}
+	
+	/**
+	 * Finds the node that follows node in order, using parent references.
+	 * @param node the node to start from
+	 * @return the in-order successor of node, or null if node is the last one
+	 */
+	protected BSTNode<T> successor(BSTNode<T> node) {
+		//successor is the left-most node of the right subtree
+		if (node.right != null) {
+			return leftmost(node.right);
+		}
+		
+		//otherwise it is the first ancestor reached from a left child
+		while (node.isRightChild()) {
+			node = node.up;
+		}
+		return node.up;
+	}
+	
+	/**
+     * Finds the greatest value in the collection that is less than or equal
+     * to data, walking down the tree once like contains.
+     * @param data the value to search around
+     * @return the greatest value less than or equal to data, or null if there
+     * is no such value
+     */
+	@Override
+	public T floor(Comparable<T> data) {
+		BSTNode<T> currentNode = root;
+		BSTNode<T> best = null;
+		
+		while (currentNode != null) {
+			int comp = data.compareTo(currentNode.getData());
+			
+			if (comp == 0) {
+				return currentNode.getData();
+			}
+			//current value is a candidate, but a closer one may be to its right
+			else if (comp > 0) {
+				best = currentNode;
+				currentNode = currentNode.right;
+			}
+			else {
+				currentNode = currentNode.left;
+			}
+		}
+		
+		return best == null ? null : best.getData();
+	}
+	
+	/**
+     * Finds the least value in the collection that is greater than or equal
+     * to data, walking down the tree once like contains.
+     * @param data the value to search around
+     * @return the least value greater than or equal to data, or null if there
+     * is no such value
+     */
+	@Override
+	public T ceiling(Comparable<T> data) {
+		BSTNode<T> currentNode = root;
+		BSTNode<T> best = null;
+		
+		while (currentNode != null) {
+			int comp = data.compareTo(currentNode.getData());
+			
+			if (comp == 0) {
+				return currentNode.getData();
+			}
+			//current value is a candidate, but a closer one may be to its left
+			else if (comp < 0) {
+				best = currentNode;
+				currentNode = currentNode.left;
+			}
+			else {
+				currentNode = currentNode.right;
+			}
+		}
+		
+		return best == null ? null : best.getData();
+	}
+	
+	/**
+     * Finds the greatest value in the collection that is strictly less than
+     * data, walking down the tree once like contains.
+     * @param data the value to search around
+     * @return the greatest value less than data, or null if there is no such
+     * value
+     */
+	@Override
+	public T lower(Comparable<T> data) {
+		BSTNode<T> currentNode = root;
+		BSTNode<T> best = null;
+		
+		while (currentNode != null) {
+			if (data.compareTo(currentNode.getData()) > 0) {
+				best = currentNode;
+				currentNode = currentNode.right;
+			}
+			else {
+				currentNode = currentNode.left;
+			}
+		}
+		
+		return best == null ? null : best.getData();
+	}
+	
+	/**
+     * Finds the least value in the collection that is strictly greater than
+     * data, walking down the tree once like contains.
+     * @param data the value to search around
+     * @return the least value greater than data, or null if there is no such
+     * value
+     */
+	@Override
+	public T higher(Comparable<T> data) {
+		BSTNode<T> currentNode = root;
+		BSTNode<T> best = null;
+		
+		while (currentNode != null) {
+			if (data.compareTo(currentNode.getData()) < 0) {
+				best = currentNode;
+				currentNode = currentNode.left;
+			}
+			else {
+				currentNode = currentNode.right;
+			}
+		}
+		
+		return best == null ? null : best.getData();
+	}
+	
+	/**
+     * Checks which of a sorted batch of values are stored in the tree. The
+     * whole batch walks down the tree together: at each node the keys are
+     * split around the node's value, the keys equal to it are marked found,
+     * and each half continues into one subtree only. Every node is visited at
+     * most once, however many keys pass through it.
+     * @param sortedKeys the values to look for, in ascending order
+     * @return a BitSet with bit i set if the tree contains sortedKeys[i]
+     * @throws NullPointerException if sortedKeys is or contains null
+     * @throws IllegalArgumentException if sortedKeys is not in ascending order
+     */
+	public BitSet containsBatch(T[] sortedKeys) throws NullPointerException, IllegalArgumentException {
+		for (int i = 0; i < sortedKeys.length; i++) {
+			if (sortedKeys[i] == null) {
+				throw new NullPointerException("Keys cannot be null");
+			}
+			if (i > 0 && sortedKeys[i - 1].compareTo(sortedKeys[i]) > 0) {
+				throw new IllegalArgumentException("Keys must be in ascending order");
+			}
+		}
+		
+		BitSet found = new BitSet(sortedKeys.length);
+		batchHelper(root, sortedKeys, 0, sortedKeys.length, found);
+		return found;
+	}
+	
+	/**
+	 * Marks which of sortedKeys[lo..hi) are stored in the subtree rooted at
+	 * node, recursing into the left subtree and looping into the right one.
+	 */
+	private void batchHelper(BSTNode<T> node, T[] sortedKeys, int lo, int hi, BitSet found) {
+		while (node != null && lo < hi) {
+			T data = node.getData();
+			int equalStart = search(sortedKeys, lo, hi, data, false);
+			int equalEnd = search(sortedKeys, equalStart, hi, data, true);
+			found.set(equalStart, equalEnd);
+			
+			batchHelper(node.left, sortedKeys, lo, equalStart, found);
+			node = node.right;
+			lo = equalEnd;
+		}
+	}
+	
+	/**
+	 * @return the first index in sortedKeys[lo..hi) whose key is greater than
+	 * data (or greater than or equal to data if not inclusive), or hi
+	 */
+	private int search(T[] sortedKeys, int lo, int hi, T data, boolean inclusive) {
+		while (lo < hi) {
+			int middle = (lo + hi) >>> 1;
+			int comp = sortedKeys[middle].compareTo(data);
+			if (comp < 0 || (inclusive && comp == 0)) {
+				lo = middle + 1;
+			}
+			else {
+				hi = middle;
+			}
+		}
+		return lo;
+	}
+	
+	/**
+     * @return the smallest value in the collection, or null if it is empty
+     */
+	@Override
+	public T first() {
+		if (root == null) {
+			return null; //tree empty
+		}
+		
+		BSTNode<T> currentNode = root;
+		while (currentNode.left != null) {
+			currentNode = currentNode.left;
+		}
+		
+		return currentNode.getData();
+	}
+	
+	/**
+     * @return the largest value in the collection, or null if it is empty
+     */
+	@Override
+	public T last() {
+		if (root == null) {
+			return null; //tree empty
+		}
+		
+		BSTNode<T> currentNode = root;
+		while (currentNode.right != null) {
+			currentNode = currentNode.right;
+		}
+		
+		return currentNode.getData();
+	}
+	
 	/**
 	 * Tests methods on two different integer binary search trees
 	 * @return true if tests pass, false otherwise
@@ -478,6 +763,131 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
 		return true;
 	}
 	
+	/**
+	 * tests floor, ceiling, lower, higher, first and last on an integer binary search tree
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test4() {
+		BinarySearchTree<Integer> bst4 = new BinarySearchTree<>();
+		
+		//empty bst has no neighbours
+		if(bst4.first() != null || bst4.last() != null || bst4.floor(5) != null || bst4.higher(5) != null) {
+			System.out.println("empty bst4 should return null");
+			return false;
+		}
+		
+		bst4.insert(40);//root node
+		bst4.insert(20);//40's left child
+		bst4.insert(60);//40's right child
+		bst4.insert(10);//20's left child
+		bst4.insert(30);//20's right child
+		bst4.insert(50);//60's left child
+		bst4.insert(70);//60's right child
+		
+		if(bst4.first() != 10 || bst4.last() != 70) {
+			System.out.println("Test 4 - Actual first and last: " + bst4.first() + ", " + bst4.last());
+			return false;
+		}
+		
+		if(bst4.floor(35) != 30 || bst4.floor(30) != 30 || bst4.floor(5) != null) {
+			System.out.println("Test 4 - Actual floor of 35, 30, 5: " + bst4.floor(35) + ", "
+				+ bst4.floor(30) + ", " + bst4.floor(5));
+			return false;
+		}
+		
+		if(bst4.ceiling(35) != 40 || bst4.ceiling(30) != 30 || bst4.ceiling(75) != null) {
+			System.out.println("Test 4 - Actual ceiling of 35, 30, 75: " + bst4.ceiling(35) + ", "
+				+ bst4.ceiling(30) + ", " + bst4.ceiling(75));
+			return false;
+		}
+		
+		if(bst4.lower(40) != 30 || bst4.lower(45) != 40 || bst4.lower(10) != null) {
+			System.out.println("Test 4 - Actual lower of 40, 45, 10: " + bst4.lower(40) + ", "
+				+ bst4.lower(45) + ", " + bst4.lower(10));
+			return false;
+		}
+		
+		if(bst4.higher(40) != 50 || bst4.higher(35) != 40 || bst4.higher(70) != null) {
+			System.out.println("Test 4 - Actual higher of 40, 35, 70: " + bst4.higher(40) + ", "
+				+ bst4.higher(35) + ", " + bst4.higher(70));
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * tests in-order iteration on an integer binary search tree with duplicates
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test5() {
+		BinarySearchTree<Integer> bst5 = new BinarySearchTree<>();
+		
+		if(bst5.iterator().hasNext()) {
+			System.out.println("empty bst5 should have no values to iterate over");
+			return false;
+		}
+		
+		bst5.insert(40);//root node
+		bst5.insert(20);//40's left child
+		bst5.insert(60);//40's right child
+		bst5.insert(40);//20's right child
+		bst5.insert(10);//20's left child
+		bst5.insert(70);//60's right child
+		
+		StringBuffer sb = new StringBuffer();
+		for (int value : bst5) {
+			sb.append(value).append(' ');
+		}
+		
+		if(!sb.toString().equals("10 20 40 40 60 70 ")) {
+			System.out.println("Test 5 - Actual order: " + sb);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * tests containsBatch against contains on a tree with duplicates
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test6() {
+		BinarySearchTree<Integer> bst6 = new BinarySearchTree<>();
+		
+		if(bst6.containsBatch(new Integer[] {1, 2}).cardinality() != 0) {
+			System.out.println("empty bst6 should contain no keys");
+			return false;
+		}
+		
+		Random random = new Random(40);
+		for (int i = 0; i < 500; i++) {
+			bst6.insert(random.nextInt(1000));
+		}
+		
+		Integer[] keys = new Integer[2000];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = i / 2; //every key twice
+		}
+		BitSet found = bst6.containsBatch(keys);
+		for (int i = 0; i < keys.length; i++) {
+			if(found.get(i) != bst6.contains(keys[i])) {
+				System.out.println("Test 6 - containsBatch and contains disagree on " + keys[i]);
+				return false;
+			}
+		}
+		
+		try {
+			bst6.containsBatch(new Integer[] {2, 1});
+			System.out.println("Test 6 - unsorted keys should be rejected");
+			return false;
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+		
+		return true;
+	}
+	
 	/**
 	 * calls test methods and prints results
 	 * @param args - unused
@@ -491,6 +901,9 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
 		System.out.println("Test 1 result: " + testTree1.test1());
 		System.out.println("Test 2 result: " + testTree2.test2());
 		System.out.println("Test 3 result: " + testTree3.test3());
+		System.out.println("Test 4 result: " + test4());
+		System.out.println("Test 5 result: " + test5());
+		System.out.println("Test 6 result: " + test6());
 	}
 	
 }
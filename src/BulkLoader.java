@@ -0,0 +1,473 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Loads large key files into a RedBlackTree. The file is memory mapped in
+ * chunks that are parsed in parallel, numeric keys are parsed straight from
+ * the mapped bytes without creating Strings, and the sorted keys are linked
+ * into the tree with RedBlackTree.buildFromSorted instead of being inserted
+ * one by one.
+ */
+public class BulkLoader {
+
+	/**
+	 * Layout of the records in a key file. In both layouts a key is stored as
+	 * its text in UTF-8, such as -42 for an integer key.
+	 */
+	public enum Format {
+		// one key per line, lines end with \n or \r\n, empty lines are skipped
+		NEWLINE,
+		// each key is preceded by its length in bytes as a 4 byte big-endian int
+		LENGTH_PREFIXED
+	}
+
+	// chunks are not made smaller than this, so small files aren't over-split
+	private static final long MIN_CHUNK_SIZE = 1 << 20;
+	// chunks are not made larger than this, well below the 2GB mapping limit
+	private static final long MAX_CHUNK_SIZE = 1 << 28;
+
+	/**
+	 * Receives the byte range of each record found in a chunk.
+	 */
+	private interface RecordVisitor {
+		void visit(ByteBuffer buffer, int offset, int length);
+	}
+
+	/**
+	 * Loads a file of int keys.
+	 * @param file the file to load
+	 * @param format the layout of the records in file
+	 * @return a tree holding every key in the file
+	 * @throws IOException if the file cannot be read
+	 * @throws NumberFormatException if a record is not a valid int
+	 */
+	public static RedBlackTree<Integer> loadInts(Path file, Format format)
+		throws IOException, NumberFormatException {
+		List<int[]> parts = parseChunks(file, format, (buffer, chunkStart) -> {
+			IntList keys = new IntList();
+			forEachRecord(buffer, format, (bytes, offset, length) -> {
+				long value = parseLong(bytes, offset, length, chunkStart);
+				if (value != (int) value) {
+					throw new NumberFormatException("Key at byte " + (chunkStart + offset) + " is out of int range");
+				}
+				keys.add((int) value);
+			});
+			return keys.toArray();
+		});
+
+		int total = 0;
+		for (int[] part : parts) {
+			total += part.length;
+		}
+		int[] keys = new int[total];
+		int position = 0;
+		for (int[] part : parts) {
+			System.arraycopy(part, 0, keys, position, part.length);
+			position += part.length;
+		}
+		Arrays.parallelSort(keys);
+
+		Integer[] boxed = new Integer[keys.length];
+		Arrays.parallelSetAll(boxed, i -> keys[i]);
+		RedBlackTree<Integer> tree = new RedBlackTree<>();
+		tree.buildFromSorted(Arrays.asList(boxed));
+		return tree;
+	}
+
+	/**
+	 * Loads a file of long keys.
+	 * @param file the file to load
+	 * @param format the layout of the records in file
+	 * @return a tree holding every key in the file
+	 * @throws IOException if the file cannot be read
+	 * @throws NumberFormatException if a record is not a valid long
+	 */
+	public static RedBlackTree<Long> loadLongs(Path file, Format format)
+		throws IOException, NumberFormatException {
+		List<long[]> parts = parseChunks(file, format, (buffer, chunkStart) -> {
+			LongList keys = new LongList();
+			forEachRecord(buffer, format,
+				(bytes, offset, length) -> keys.add(parseLong(bytes, offset, length, chunkStart)));
+			return keys.toArray();
+		});
+
+		int total = 0;
+		for (long[] part : parts) {
+			total += part.length;
+		}
+		long[] keys = new long[total];
+		int position = 0;
+		for (long[] part : parts) {
+			System.arraycopy(part, 0, keys, position, part.length);
+			position += part.length;
+		}
+		Arrays.parallelSort(keys);
+
+		Long[] boxed = new Long[keys.length];
+		Arrays.parallelSetAll(boxed, i -> keys[i]);
+		RedBlackTree<Long> tree = new RedBlackTree<>();
+		tree.buildFromSorted(Arrays.asList(boxed));
+		return tree;
+	}
+
+	/**
+	 * Loads a file of string keys.
+	 * @param file the file to load
+	 * @param format the layout of the records in file
+	 * @return a tree holding every key in the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public static RedBlackTree<String> loadStrings(Path file, Format format) throws IOException {
+		List<List<String>> parts = parseChunks(file, format, (buffer, chunkStart) -> {
+			List<String> keys = new ArrayList<>();
+			byte[][] scratch = { new byte[64] };
+			forEachRecord(buffer, format, (bytes, offset, length) -> {
+				if (scratch[0].length < length) {
+					scratch[0] = new byte[Math.max(length, scratch[0].length * 2)];
+				}
+				bytes.get(offset, scratch[0], 0, length);
+				keys.add(new String(scratch[0], 0, length, StandardCharsets.UTF_8));
+			});
+			return keys;
+		});
+
+		String[] keys = parts.stream().flatMap(List::stream).toArray(String[]::new);
+		Arrays.parallelSort(keys);
+
+		RedBlackTree<String> tree = new RedBlackTree<>();
+		tree.buildFromSorted(Arrays.asList(keys));
+		return tree;
+	}
+
+	/**
+	 * Parses one mapped chunk of a file.
+	 */
+	private interface ChunkParser<R> {
+		R parse(ByteBuffer chunk, long chunkStart);
+	}
+
+	/**
+	 * Splits file into chunks that start and end on record boundaries, maps
+	 * each chunk and parses them in parallel.
+	 * @return the result of parsing each chunk, in file order
+	 */
+	private static <R> List<R> parseChunks(Path file, Format format, ChunkParser<R> parser) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			List<long[]> chunks = format == Format.NEWLINE ? newlineChunks(channel) : lengthPrefixedChunks(channel);
+
+			try {
+				return chunks.parallelStream().map(chunk -> {
+					try {
+						MappedByteBuffer buffer =
+							channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1] - chunk[0]);
+						return parser.parse(buffer, chunk[0]);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}).collect(Collectors.toList());
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	/**
+	 * @return a chunk size that gives every processor several chunks to parse
+	 */
+	private static long chunkSize(long fileSize) {
+		long size = fileSize / (Runtime.getRuntime().availableProcessors() * 4L);
+		return Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, size));
+	}
+
+	/**
+	 * Finds chunk boundaries for a newline separated file by moving each
+	 * evenly spaced boundary forward to just after the next newline.
+	 * @return the [start, end) byte range of each chunk
+	 */
+	private static List<long[]> newlineChunks(FileChannel channel) throws IOException {
+		long fileSize = channel.size();
+		long chunkSize = chunkSize(fileSize);
+		List<long[]> chunks = new ArrayList<>();
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+
+		long start = 0;
+		while (start < fileSize) {
+			long end = Math.min(fileSize, start + chunkSize);
+
+			//read ahead until the end of the line the boundary falls in
+			boolean found = end == fileSize;
+			while (!found) {
+				probe.clear();
+				int read = channel.read(probe, end);
+				if (read <= 0) {
+					end = fileSize;
+					break;
+				}
+				for (int i = 0; i < read; i++) {
+					if (probe.get(i) == '\n') {
+						end += i + 1;
+						found = true;
+						break;
+					}
+				}
+				if (!found) {
+					end += read;
+				}
+			}
+
+			chunks.add(new long[] { start, end });
+			start = end;
+		}
+		return chunks;
+	}
+
+	/**
+	 * Finds chunk boundaries for a length prefixed file by stepping over the
+	 * records' length headers, which only touches 4 bytes per record.
+	 * @return the [start, end) byte range of each chunk
+	 */
+	private static List<long[]> lengthPrefixedChunks(FileChannel channel) throws IOException {
+		long fileSize = channel.size();
+		long chunkSize = chunkSize(fileSize);
+		List<long[]> chunks = new ArrayList<>();
+
+		long start = 0;
+		long position = 0;
+		long windowStart = 0;
+		MappedByteBuffer window = null;
+		while (position < fileSize) {
+			if (position + 4 > fileSize) {
+				throw new IOException("Truncated length header at byte " + position);
+			}
+			//headers are read through a window mapping that is moved forward as needed
+			if (window == null || position + 4 > windowStart + window.capacity()) {
+				windowStart = position;
+				window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+					Math.min(MAX_CHUNK_SIZE, fileSize - windowStart));
+			}
+			int length = window.getInt((int) (position - windowStart));
+			if (length < 0 || position + 4 + length > fileSize) {
+				throw new IOException("Invalid record length " + length + " at byte " + position);
+			}
+			position += 4 + length;
+
+			if (position - start >= chunkSize) {
+				chunks.add(new long[] { start, position });
+				start = position;
+			}
+		}
+		if (start < fileSize) {
+			chunks.add(new long[] { start, fileSize });
+		}
+		return chunks;
+	}
+
+	/**
+	 * Passes the byte range of every record in chunk to visitor.
+	 */
+	private static void forEachRecord(ByteBuffer chunk, Format format, RecordVisitor visitor) {
+		int limit = chunk.limit();
+		int position = 0;
+
+		if (format == Format.NEWLINE) {
+			while (position < limit) {
+				int end = position;
+				while (end < limit && chunk.get(end) != '\n') {
+					end++;
+				}
+				int length = end - position;
+				if (length > 0 && chunk.get(end - 1) == '\r') {
+					length--;
+				}
+				if (length > 0) {
+					visitor.visit(chunk, position, length);
+				}
+				position = end + 1;
+			}
+		}
+		else {
+			while (position < limit) {
+				int length = chunk.getInt(position);
+				visitor.visit(chunk, position + 4, length);
+				position += 4 + length;
+			}
+		}
+	}
+
+	/**
+	 * Parses the decimal number stored in bytes[offset, offset + length)
+	 * without creating a String.
+	 * @param chunkStart position of the chunk in the file, for error messages
+	 * @throws NumberFormatException if the bytes are not a valid long
+	 */
+	private static long parseLong(ByteBuffer bytes, int offset, int length, long chunkStart)
+		throws NumberFormatException {
+		if (length == 0) {
+			throw new NumberFormatException("Key at byte " + (chunkStart + offset) + " is empty");
+		}
+		int end = offset + length;
+		int position = offset;
+		boolean negative = bytes.get(position) == '-';
+		if (negative || bytes.get(position) == '+') {
+			position++;
+		}
+		if (position == end) {
+			throw new NumberFormatException("Key at byte " + (chunkStart + offset) + " has no digits");
+		}
+
+		//accumulate negatively so that Long.MIN_VALUE can be parsed
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long result = 0;
+		while (position < end) {
+			int digit = bytes.get(position++) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("Key at byte " + (chunkStart + offset) + " is not a number");
+			}
+			if (result < (limit + digit) / 10) {
+				throw new NumberFormatException("Key at byte " + (chunkStart + offset) + " is out of long range");
+			}
+			result = result * 10 - digit;
+		}
+		return negative ? result : -result;
+	}
+
+	/**
+	 * Growable array of ints, so parsed keys are not boxed.
+	 */
+	private static class IntList {
+		private int[] values = new int[1024];
+		private int size = 0;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Growable array of longs, so parsed keys are not boxed.
+	 */
+	private static class LongList {
+		private long[] values = new long[1024];
+		private int size = 0;
+
+		void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		long[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Tests loading int and long keys from a newline separated file
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test1() {
+		try {
+			Path file = Files.createTempFile("keys", ".txt");
+			try {
+				StringBuffer sb = new StringBuffer();
+				for (int i = 0; i < 50000; i++) {
+					sb.append((i * 7919) % 50000 - 25000).append(i % 2 == 0 ? "\n" : "\r\n");
+				}
+				sb.append("\n").append(Integer.MIN_VALUE).append("\n").append(Integer.MAX_VALUE);
+				Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+
+				RedBlackTree<Integer> ints = loadInts(file, Format.NEWLINE);
+				if (ints.size() != 50002 || ints.first() != Integer.MIN_VALUE || ints.last() != Integer.MAX_VALUE
+					|| !ints.contains(-25000) || !ints.contains(24999) || !ints.validate().isValid()) {
+					System.out.println("Test 1 - Actual int tree: " + ints.validate());
+					return false;
+				}
+
+				RedBlackTree<Long> longs = loadLongs(file, Format.NEWLINE);
+				if (longs.size() != 50002 || longs.first() != Integer.MIN_VALUE || !longs.contains(0L)) {
+					System.out.println("Test 1 - Actual long tree size: " + longs.size());
+					return false;
+				}
+
+				Files.write(file, "12\nabc\n".getBytes(StandardCharsets.UTF_8));
+				try {
+					loadInts(file, Format.NEWLINE);
+					System.out.println("Test 1 - abc should not parse as an int");
+					return false;
+				} catch (NumberFormatException e) {
+					//expected
+				}
+			} finally {
+				Files.delete(file);
+			}
+		} catch (IOException e) {
+			System.out.println("Test 1 - " + e);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Tests loading UTF-8 string keys from a length prefixed file
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test2() {
+		try {
+			Path file = Files.createTempFile("keys", ".bin");
+			try {
+				String[] words = { "pear", "\u00e4pfel", "banana", "", "cherry", "banana" };
+				ByteBuffer buffer = ByteBuffer.allocate(1024);
+				for (String word : words) {
+					byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+					buffer.putInt(bytes.length).put(bytes);
+				}
+				Files.write(file, Arrays.copyOf(buffer.array(), buffer.position()));
+
+				RedBlackTree<String> tree = loadStrings(file, Format.LENGTH_PREFIXED);
+				StringBuffer sb = new StringBuffer();
+				for (String word : tree) {
+					sb.append('[').append(word).append(']');
+				}
+				if (!sb.toString().equals("[][banana][banana][cherry][pear][\u00e4pfel]")) {
+					System.out.println("Test 2 - Actual keys: " + sb);
+					return false;
+				}
+			} finally {
+				Files.delete(file);
+			}
+		} catch (IOException e) {
+			System.out.println("Test 2 - " + e);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * calls test methods and prints results
+	 * @param args - unused
+	 */
+	public static void main(String[] args) {
+		System.out.println("Test 1 result: " + test1());
+		System.out.println("Test 2 result: " + test2());
+	}
+
+}
@@ -0,0 +1,403 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Red black tree of byte[] keys in unsigned lexicographic order, the order of
+ * serialized composite keys. Keys are stored directly in RBTNodes and compared
+ * with Arrays.compareUnsigned, which finds the first differing byte with the
+ * JIT's vectorized mismatch intrinsic instead of a byte at a time loop. Every
+ * query also accepts a range of a larger array, so a key can be looked up
+ * where it sits in a buffer without copying or wrapping it.
+ *
+ * byte[] is not Comparable, so this class offers the SortedCollection methods
+ * without implementing that interface. Keys are stored as given and must not
+ * be modified after they are inserted.
+ */
+public class ByteArrayRedBlackTree implements Iterable<byte[]> {
+
+	// root node of tree
+	protected RBTNode<byte[]> root = null;
+	// number of keys in the tree, including duplicates
+	protected int size = 0;
+
+	/**
+	 * Compares key[from..to) with the key stored in node.
+	 * @return a negative number, zero or a positive number if the range is
+	 * less than, equal to or greater than node's key
+	 */
+	private static int compare(byte[] key, int from, int to, RBTNode<byte[]> node) {
+		byte[] other = node.data;
+		return Arrays.compareUnsigned(key, from, to, other, 0, other.length);
+	}
+
+	/**
+	 * Inserts key into the tree. Duplicates are kept, to the left of equal keys.
+	 * @param key the key being inserted, which the tree keeps a reference to
+	 * @throws NullPointerException if key is null
+	 */
+	public void insert(byte[] key) throws NullPointerException {
+		if (key == null) {
+			throw new NullPointerException("Data cannot be null.");
+		}
+
+		RBTNode<byte[]> node = new RBTNode<>(key);
+		size++;
+		if (root == null) {
+			node.flipColor();
+			root = node;
+			return;
+		}
+
+		RBTNode<byte[]> parent = root;
+		while (true) {
+			if (compare(key, 0, key.length, parent) <= 0) {
+				if (parent.left == null) {
+					parent.left = node;
+					break;
+				}
+				parent = parent.getLeft();
+			}
+			else {
+				if (parent.right == null) {
+					parent.right = node;
+					break;
+				}
+				parent = parent.getRight();
+			}
+		}
+		node.up = parent;
+
+		ensureRedProperty(node);
+	}
+
+	/**
+	 * Repairs red property violations caused by the red node newRedNode,
+	 * recoloring up the tree while the aunt is red and rotating once it is
+	 * black, with the same cases as RedBlackTree.ensureRedProperty.
+	 */
+	protected void ensureRedProperty(RBTNode<byte[]> newRedNode) {
+		RBTNode<byte[]> node = newRedNode;
+		while (node != root && node.getUp().isRed()) {
+			RBTNode<byte[]> parent = node.getUp();
+			RBTNode<byte[]> grandparent = parent.getUp(); //exists, the root is black
+			boolean parentIsLeft = parent == grandparent.left;
+			RBTNode<byte[]> aunt = parentIsLeft ? grandparent.getRight() : grandparent.getLeft();
+
+			if (aunt != null && aunt.isRed()) {
+				aunt.flipColor();
+				parent.flipColor();
+				grandparent.flipColor();
+				node = grandparent;
+				continue;
+			}
+
+			//new node on the inside of its grandparent: rotate it up to the parent's spot first
+			if (parentIsLeft != (node == parent.left)) {
+				rotate(node, parent);
+				parent = node;
+			}
+			rotate(parent, grandparent);
+			parent.flipColor();
+			grandparent.flipColor();
+			break;
+		}
+
+		if (root.isRed()) {
+			root.flipColor();
+		}
+	}
+
+	/**
+	 * Rotates child up into parent's position, like BSTRotation.rotate.
+	 */
+	private void rotate(RBTNode<byte[]> child, RBTNode<byte[]> parent) {
+		BSTNode<byte[]> grandparent = parent.up;
+		if (child == parent.left) {
+			parent.left = child.right;
+			if (child.right != null) {
+				child.right.up = parent;
+			}
+			child.right = parent;
+		}
+		else {
+			parent.right = child.left;
+			if (child.left != null) {
+				child.left.up = parent;
+			}
+			child.left = parent;
+		}
+		parent.up = child;
+		child.up = grandparent;
+
+		if (grandparent == null) {
+			root = child;
+		}
+		else if (grandparent.left == parent) {
+			grandparent.left = child;
+		}
+		else {
+			grandparent.right = child;
+		}
+	}
+
+	/**
+	 * Check whether key is stored in the tree.
+	 * @return true if the tree contains key one or more times, false otherwise
+	 */
+	public boolean contains(byte[] key) {
+		return contains(key, 0, key.length);
+	}
+
+	/**
+	 * Check whether the key key[from..to) is stored in the tree, without
+	 * copying it out of key.
+	 * @return true if the tree contains the key one or more times, false otherwise
+	 * @throws ArrayIndexOutOfBoundsException if from or to is out of bounds
+	 */
+	public boolean contains(byte[] key, int from, int to) {
+		RBTNode<byte[]> node = root;
+		while (node != null) {
+			int comp = compare(key, from, to, node);
+			if (comp == 0) {
+				return true;
+			}
+			node = comp < 0 ? node.getLeft() : node.getRight();
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of keys in the tree, including duplicates
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if the tree contains 0 keys, false otherwise
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all keys and duplicates from the tree.
+	 */
+	public void clear() {
+		root = null;
+		size = 0;
+	}
+
+	/**
+	 * @return the greatest key less than or equal to key, or null
+	 */
+	public byte[] floor(byte[] key) {
+		return search(key, 0, key.length, true, true);
+	}
+
+	/**
+	 * @return the least key greater than or equal to key, or null
+	 */
+	public byte[] ceiling(byte[] key) {
+		return search(key, 0, key.length, false, true);
+	}
+
+	/**
+	 * @return the greatest key strictly less than key, or null
+	 */
+	public byte[] lower(byte[] key) {
+		return search(key, 0, key.length, true, false);
+	}
+
+	/**
+	 * @return the least key strictly greater than key, or null
+	 */
+	public byte[] higher(byte[] key) {
+		return search(key, 0, key.length, false, false);
+	}
+
+	/**
+	 * Walks down the tree once, remembering the closest qualifying key seen.
+	 * @param below true to search for keys below key[from..to), false for above
+	 * @param inclusive true if a key equal to key[from..to) qualifies
+	 * @return the closest qualifying key, or null if there is none
+	 */
+	public byte[] search(byte[] key, int from, int to, boolean below, boolean inclusive) {
+		byte[] best = null;
+		RBTNode<byte[]> node = root;
+		while (node != null) {
+			int comp = compare(key, from, to, node);
+			if (comp == 0 && inclusive) {
+				return node.data;
+			}
+			if (below ? comp > 0 : comp < 0) {
+				best = node.data;
+				node = below ? node.getRight() : node.getLeft();
+			}
+			else {
+				node = below ? node.getLeft() : node.getRight();
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the smallest key in the tree, or null if it is empty
+	 */
+	public byte[] first() {
+		if (root == null) {
+			return null;
+		}
+		RBTNode<byte[]> node = root;
+		while (node.left != null) {
+			node = node.getLeft();
+		}
+		return node.data;
+	}
+
+	/**
+	 * @return the largest key in the tree, or null if it is empty
+	 */
+	public byte[] last() {
+		if (root == null) {
+			return null;
+		}
+		RBTNode<byte[]> node = root;
+		while (node.right != null) {
+			node = node.getRight();
+		}
+		return node.data;
+	}
+
+	/**
+	 * Iterates over the keys in ascending order by following parent references,
+	 * without a stack.
+	 */
+	@Override
+	public Iterator<byte[]> iterator() {
+		return new Iterator<byte[]>() {
+			private BSTNode<byte[]> next = leftmost(root);
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public byte[] next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				BSTNode<byte[]> current = next;
+				if (current.right != null) {
+					next = leftmost(current.right);
+				}
+				else {
+					BSTNode<byte[]> child = current;
+					next = current.up;
+					while (next != null && next.right == child) {
+						child = next;
+						next = next.up;
+					}
+				}
+				return current.data;
+			}
+		};
+	}
+
+	/**
+	 * @return the leftmost node of the subtree rooted at node, or null if node is null
+	 */
+	private static BSTNode<byte[]> leftmost(BSTNode<byte[]> node) {
+		while (node != null && node.left != null) {
+			node = node.left;
+		}
+		return node;
+	}
+
+	/**
+	 * @return the keys of the tree in level order, as ASCII text with colors
+	 */
+	private String toLevelOrderString() {
+		List<String> nodes = new ArrayList<>();
+		List<BSTNode<byte[]>> level = new ArrayList<>();
+		if (root != null) {
+			level.add(root);
+		}
+		for (int i = 0; i < level.size(); i++) {
+			BSTNode<byte[]> node = level.get(i);
+			nodes.add(new String(node.data, StandardCharsets.US_ASCII) + (((RBTNode<byte[]>) node).isRed() ? "(r)" : "(b)"));
+			if (node.left != null) {
+				level.add(node.left);
+			}
+			if (node.right != null) {
+				level.add(node.right);
+			}
+		}
+		return "[ " + String.join(", ", nodes) + " ]";
+	}
+
+	/**
+	 * Checks that inserts build the same tree as RedBlackTree does for the
+	 * equivalent String keys
+	 */
+	@Test
+	public void byteArrayTest1() {
+		ByteArrayRedBlackTree bytes = new ByteArrayRedBlackTree();
+		RedBlackTree<String> tree = new RedBlackTree<>();
+		Random random = new Random(37);
+
+		for (int i = 0; i < 2000; i++) {
+			String key = Integer.toString(random.nextInt(1000), 36);
+			bytes.insert(key.getBytes(StandardCharsets.US_ASCII));
+			tree.insert(key);
+		}
+
+		assertEquals(tree.root.toLevelOrderString(), bytes.toLevelOrderString());
+		assertEquals(2000, bytes.size());
+	}
+
+	/**
+	 * Checks unsigned ordering, range lookups and navigation
+	 */
+	@Test
+	public void byteArrayTest2() {
+		ByteArrayRedBlackTree tree = new ByteArrayRedBlackTree();
+		assertNull(tree.first());
+
+		byte[][] keys = { {}, {0}, {0, 0}, {1, 2}, {(byte) 0x7f}, {(byte) 0x80}, {(byte) 0xff, 1} };
+		for (int i = keys.length - 1; i >= 0; i--) {
+			tree.insert(keys[i]);
+		}
+
+		//0x80 sorts after 0x7f, unlike a signed comparison
+		int i = 0;
+		for (byte[] key : tree) {
+			assertArrayEquals(keys[i++], key);
+		}
+		assertEquals(keys.length, i);
+
+		byte[] buffer = {9, 9, 1, 2, 9};
+		assertTrue(tree.contains(buffer, 2, 4));
+		assertFalse(tree.contains(buffer, 2, 5));
+		assertTrue(tree.contains(buffer, 0, 0));
+
+		assertArrayEquals(keys[3], tree.floor(new byte[] {1, 3}));
+		assertArrayEquals(keys[4], tree.ceiling(new byte[] {1, 3}));
+		assertArrayEquals(keys[4], tree.lower(new byte[] {(byte) 0x80}));
+		assertArrayEquals(keys[6], tree.higher(new byte[] {(byte) 0x80}));
+		assertNull(tree.lower(keys[0]));
+		assertNull(tree.higher(keys[6]));
+		assertArrayEquals(keys[0], tree.first());
+		assertArrayEquals(keys[6], tree.last());
+	}
+
+}
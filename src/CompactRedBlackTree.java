@@ -0,0 +1,516 @@
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Red black tree whose nodes only hold a value and two child references.
+ * Nodes have no parent reference; instead, insert records the path from the
+ * root on an explicit stack and the fix-up walks back along that stack. A
+ * node's color is given by its class (RedNode or BlackNode) rather than a
+ * field, so recoloring a node replaces it with a copy of the other class.
+ * Without the parent reference and color flag each node is 8 bytes smaller
+ * than an RBTNode with compressed references.
+ * @param <T> type of the values
+ */
+public class CompactRedBlackTree<T extends Comparable<T>> implements SortedCollection<T> {
+
+	/**
+	 * Node holding a value and references to its two children. Subclasses
+	 * decide the node's color.
+	 */
+	protected static abstract class CompactNode<T> {
+
+		// stores the data value for the node
+		protected final T data;
+		// reference to the node's left child
+		protected CompactNode<T> left;
+		// reference to the node's right child
+		protected CompactNode<T> right;
+
+		/**
+		 * Creates a node with the value data and the given children.
+		 */
+		protected CompactNode(T data, CompactNode<T> left, CompactNode<T> right) {
+			this.data = data;
+			this.left = left;
+			this.right = right;
+		}
+
+		/**
+		 * @return true if the node is red, false if it is black
+		 */
+		public abstract boolean isRed();
+
+		/**
+		 * @return a string representation of the node's value and color
+		 */
+		@Override
+		public String toString() {
+			return this.data.toString() + (this.isRed() ? "(r)" : "(b)");
+		}
+	}
+
+	/**
+	 * Red node.
+	 */
+	protected static final class RedNode<T> extends CompactNode<T> {
+		protected RedNode(T data, CompactNode<T> left, CompactNode<T> right) {
+			super(data, left, right);
+		}
+
+		@Override
+		public boolean isRed() { return true; }
+	}
+
+	/**
+	 * Black node.
+	 */
+	protected static final class BlackNode<T> extends CompactNode<T> {
+		protected BlackNode(T data, CompactNode<T> left, CompactNode<T> right) {
+			super(data, left, right);
+		}
+
+		@Override
+		public boolean isRed() { return false; }
+	}
+
+	// root node of tree
+	protected CompactNode<T> root = null;
+	// number of values in the tree
+	private int size = 0;
+	// path from the root to the node being inserted, reused by every insert
+	private CompactNode<T>[] path = newPath(32);
+
+	/**
+	 * Inserts a new data value into the sorted collection, recording the path
+	 * from the root so the fix-up can walk back up without parent references.
+	 * @param data the new value being inserted
+	 * @throws NullPointerException if data argument is null, we do not allow
+	 * null values to be stored within a SortedCollection
+	 */
+	@Override
+	public void insert(T data) throws NullPointerException {
+		if (data == null) {
+			throw new NullPointerException("Data cannot be null.");
+		}
+
+		size++;
+
+		if (root == null) {
+			root = new BlackNode<>(data, null, null);
+			return;
+		}
+
+		//walk down to the insertion point, pushing every node passed on the way
+		CompactNode<T> newNode = new RedNode<>(data, null, null);
+		CompactNode<T> current = root;
+		int depth = 0;
+		while (true) {
+			push(depth++, current);
+			if (data.compareTo(current.data) <= 0) {
+				if (current.left == null) {
+					current.left = newNode;
+					break;
+				}
+				current = current.left;
+			}
+			else {
+				if (current.right == null) {
+					current.right = newNode;
+					break;
+				}
+				current = current.right;
+			}
+		}
+		push(depth, newNode);
+
+		ensureRedProperty(depth);
+
+		//release references to nodes so they can be collected later
+		for (int i = 0; i <= depth; i++) {
+			path[i] = null;
+		}
+	}
+
+	/**
+	 * Repairs red property violations caused by the red node at path[depth],
+	 * working up the recorded path.
+	 * @param depth position on the path of the newly inserted red node
+	 */
+	protected void ensureRedProperty(int depth) {
+		while (depth >= 2 && path[depth - 1].isRed()) {
+			CompactNode<T> node = path[depth];
+			CompactNode<T> parent = path[depth - 1];
+			CompactNode<T> grandparent = path[depth - 2];
+			CompactNode<T> greatGrandparent = depth >= 3 ? path[depth - 3] : null;
+			CompactNode<T> aunt = grandparent.left == parent ? grandparent.right : grandparent.left;
+
+			//red aunt: push the grandparent's blackness down to parent and aunt
+			if (aunt != null && aunt.isRed()) {
+				CompactNode<T> blackParent = recolor(parent, false);
+				CompactNode<T> blackAunt = recolor(aunt, false);
+				CompactNode<T> redGrandparent = grandparent.left == parent
+					? new RedNode<>(grandparent.data, blackParent, blackAunt)
+					: new RedNode<>(grandparent.data, blackAunt, blackParent);
+				replaceChild(greatGrandparent, grandparent, redGrandparent);
+
+				//grandparent is now red and may conflict with its own parent
+				path[depth - 2] = redGrandparent;
+				depth -= 2;
+				continue;
+			}
+
+			//black or missing aunt: restructure node, parent and grandparent into
+			//a black middle value with two red children, a < b < c
+			CompactNode<T> a, b, c, t0, t1, t2, t3;
+			if (parent == grandparent.left) {
+				if (node == parent.left) {
+					a = node; b = parent; c = grandparent;
+					t0 = node.left; t1 = node.right; t2 = parent.right; t3 = grandparent.right;
+				}
+				else {
+					a = parent; b = node; c = grandparent;
+					t0 = parent.left; t1 = node.left; t2 = node.right; t3 = grandparent.right;
+				}
+			}
+			else {
+				if (node == parent.left) {
+					a = grandparent; b = node; c = parent;
+					t0 = grandparent.left; t1 = node.left; t2 = node.right; t3 = parent.right;
+				}
+				else {
+					a = grandparent; b = parent; c = node;
+					t0 = grandparent.left; t1 = parent.left; t2 = node.left; t3 = node.right;
+				}
+			}
+
+			//only the black grandparent needs a red copy, the other two are red already
+			CompactNode<T> redA = a.isRed() ? a : new RedNode<>(a.data, null, null);
+			CompactNode<T> redC = c.isRed() ? c : new RedNode<>(c.data, null, null);
+			redA.left = t0;
+			redA.right = t1;
+			redC.left = t2;
+			redC.right = t3;
+			replaceChild(greatGrandparent, grandparent, new BlackNode<>(b.data, redA, redC));
+			break;
+		}
+
+		//make root black
+		if (root.isRed()) {
+			root = recolor(root, false);
+		}
+	}
+
+	/**
+	 * Creates a copy of node with the given color and the same children. The
+	 * caller must link the copy in place of node.
+	 */
+	private CompactNode<T> recolor(CompactNode<T> node, boolean red) {
+		return red ? new RedNode<>(node.data, node.left, node.right)
+			: new BlackNode<>(node.data, node.left, node.right);
+	}
+
+	/**
+	 * Replaces oldChild with newChild below parent, or at the root when parent is null.
+	 */
+	private void replaceChild(CompactNode<T> parent, CompactNode<T> oldChild, CompactNode<T> newChild) {
+		if (parent == null) {
+			root = newChild;
+		}
+		else if (parent.left == oldChild) {
+			parent.left = newChild;
+		}
+		else {
+			parent.right = newChild;
+		}
+	}
+
+	/**
+	 * Stores node at position depth of the path, growing the path if needed.
+	 */
+	private void push(int depth, CompactNode<T> node) {
+		if (depth == path.length) {
+			CompactNode<T>[] longer = newPath(path.length * 2);
+			System.arraycopy(path, 0, longer, 0, path.length);
+			path = longer;
+		}
+		path[depth] = node;
+	}
+
+	/**
+	 * @return a new empty path that can hold length nodes
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> CompactNode<T>[] newPath(int length) {
+		return (CompactNode<T>[]) new CompactNode<?>[length];
+	}
+
+	/**
+	 * Check whether data is stored in the tree.
+	 * @param data the value to check for in the collection
+	 * @return true if the collection contains data one or more times,
+	 * and false otherwise
+	 */
+	@Override
+	public boolean contains(Comparable<T> data) {
+		CompactNode<T> currentNode = root;
+
+		while (currentNode != null) {
+			int comp = data.compareTo(currentNode.data);
+
+			if (comp == 0) {
+				return true;
+			}
+			currentNode = comp < 0 ? currentNode.left : currentNode.right;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Counts the number of values in the collection, with each duplicate value
+	 * being counted separately within the value returned.
+	 * @return the number of values in the collection, including duplicates
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the collection is empty.
+	 * @return true if the collection contains 0 values, false otherwise
+	 */
+	@Override
+	public boolean isEmpty() {
+		return root == null;
+	}
+
+	/**
+	 * Removes all values and duplicates from the collection.
+	 */
+	@Override
+	public void clear() {
+		root = null;
+		size = 0;
+	}
+
+	/**
+	 * Finds the greatest value in the collection that is less than or equal
+	 * to data.
+	 */
+	@Override
+	public T floor(Comparable<T> data) {
+		CompactNode<T> currentNode = root;
+		CompactNode<T> best = null;
+
+		while (currentNode != null) {
+			int comp = data.compareTo(currentNode.data);
+
+			if (comp == 0) {
+				return currentNode.data;
+			}
+			else if (comp > 0) {
+				best = currentNode;
+				currentNode = currentNode.right;
+			}
+			else {
+				currentNode = currentNode.left;
+			}
+		}
+
+		return best == null ? null : best.data;
+	}
+
+	/**
+	 * Finds the least value in the collection that is greater than or equal
+	 * to data.
+	 */
+	@Override
+	public T ceiling(Comparable<T> data) {
+		CompactNode<T> currentNode = root;
+		CompactNode<T> best = null;
+
+		while (currentNode != null) {
+			int comp = data.compareTo(currentNode.data);
+
+			if (comp == 0) {
+				return currentNode.data;
+			}
+			else if (comp < 0) {
+				best = currentNode;
+				currentNode = currentNode.left;
+			}
+			else {
+				currentNode = currentNode.right;
+			}
+		}
+
+		return best == null ? null : best.data;
+	}
+
+	/**
+	 * Finds the greatest value in the collection that is strictly less than data.
+	 */
+	@Override
+	public T lower(Comparable<T> data) {
+		CompactNode<T> currentNode = root;
+		CompactNode<T> best = null;
+
+		while (currentNode != null) {
+			if (data.compareTo(currentNode.data) > 0) {
+				best = currentNode;
+				currentNode = currentNode.right;
+			}
+			else {
+				currentNode = currentNode.left;
+			}
+		}
+
+		return best == null ? null : best.data;
+	}
+
+	/**
+	 * Finds the least value in the collection that is strictly greater than data.
+	 */
+	@Override
+	public T higher(Comparable<T> data) {
+		CompactNode<T> currentNode = root;
+		CompactNode<T> best = null;
+
+		while (currentNode != null) {
+			if (data.compareTo(currentNode.data) < 0) {
+				best = currentNode;
+				currentNode = currentNode.left;
+			}
+			else {
+				currentNode = currentNode.right;
+			}
+		}
+
+		return best == null ? null : best.data;
+	}
+
+	/**
+	 * @return the smallest value in the collection, or null if it is empty
+	 */
+	@Override
+	public T first() {
+		if (root == null) {
+			return null;
+		}
+
+		CompactNode<T> currentNode = root;
+		while (currentNode.left != null) {
+			currentNode = currentNode.left;
+		}
+		return currentNode.data;
+	}
+
+	/**
+	 * @return the largest value in the collection, or null if it is empty
+	 */
+	@Override
+	public T last() {
+		if (root == null) {
+			return null;
+		}
+
+		CompactNode<T> currentNode = root;
+		while (currentNode.right != null) {
+			currentNode = currentNode.right;
+		}
+		return currentNode.data;
+	}
+
+	/**
+	 * Performs a level-order traversal of the tree and generates a string
+	 * representation of its nodes, in the same format as BSTNode.
+	 * @return a string of node values and colors in level-order
+	 */
+	public String toLevelOrderString() {
+		if (root == null) {
+			return "[ ]";
+		}
+
+		Queue<CompactNode<T>> nodeList = new LinkedList<>();
+		nodeList.add(root);
+		StringBuffer sb = new StringBuffer();
+		sb.append("[ ");
+		while (!nodeList.isEmpty()) {
+			CompactNode<T> node = nodeList.poll();
+			if (node.left != null) {
+				nodeList.add(node.left);
+			}
+			if (node.right != null) {
+				nodeList.add(node.right);
+			}
+			sb.append(node.toString());
+			sb.append(nodeList.isEmpty() ? " ]" : ", ");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Checks that the compact tree ends up with the same shape and colors
+	 * as a RedBlackTree given the same inserts
+	 */
+	@Test
+	public void compactTest1() {
+		CompactRedBlackTree<String> compact = new CompactRedBlackTree<>();
+		RedBlackTree<String> tree = new RedBlackTree<>();
+
+		for (String letter : new String[] { "N", "H", "S", "E", "K", "Q", "Y", "W", "Z", "M" }) {
+			compact.insert(letter);
+			tree.insert(letter);
+		}
+
+		assertEquals("[ N(b), H(r), S(r), E(b), K(b), Q(b), Y(b), M(r), W(r), Z(r) ]",
+			compact.toLevelOrderString());
+		assertEquals(tree.root.toLevelOrderString(), compact.toLevelOrderString());
+
+		CompactRedBlackTree<Integer> compactInts = new CompactRedBlackTree<>();
+		RedBlackTree<Integer> treeInts = new RedBlackTree<>();
+		Random random = new Random(30);
+		for (int i = 0; i < 2000; i++) {
+			int value = random.nextInt(500);
+			compactInts.insert(value);
+			treeInts.insert(value);
+		}
+		assertEquals(treeInts.root.toLevelOrderString(), compactInts.toLevelOrderString());
+	}
+
+	/**
+	 * Checks contains, size and the navigation queries on ascending inserts
+	 */
+	@Test
+	public void compactTest2() {
+		CompactRedBlackTree<Integer> tree = new CompactRedBlackTree<>();
+
+		assertTrue(tree.isEmpty());
+		assertNull(tree.first());
+
+		for (int i = 1; i <= 1000; i++) {
+			tree.insert(i * 2);
+		}
+
+		assertEquals(1000, tree.size());
+		assertTrue(tree.contains(500));
+		assertFalse(tree.contains(501));
+		assertEquals(2, tree.first());
+		assertEquals(2000, tree.last());
+		assertEquals(500, tree.floor(501));
+		assertEquals(502, tree.ceiling(501));
+		assertEquals(498, tree.lower(500));
+		assertEquals(502, tree.higher(500));
+		assertNull(tree.higher(2000));
+
+		tree.clear();
+		assertTrue(tree.isEmpty());
+		assertEquals(0, tree.size());
+	}
+
+}
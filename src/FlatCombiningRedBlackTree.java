@@ -0,0 +1,391 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Thread safe front-end for a RedBlackTree that uses flat combining for
+ * inserts. A thread publishes its insert in a free slot of a fixed array.
+ * Whichever thread gets the combiner lock gathers every pending insert,
+ * sorts them and applies the whole batch before releasing the lock, while
+ * the other threads simply wait for their slot to be cleared. Under
+ * contention this replaces many lock handoffs, each for a single insert,
+ * with a few handoffs for large batches whose sorted order keeps consecutive
+ * inserts on nearby paths of the tree. A thread that finds every slot taken
+ * inserts under the combiner lock itself. Queries take the combiner lock
+ * directly.
+ *
+ * If comparing a value throws, only that value's insert fails, and the
+ * exception is thrown by the insert call that published it.
+ * @param <T> type of the values
+ */
+public class FlatCombiningRedBlackTree<T extends Comparable<T>> implements SortedCollection<T> {
+
+	/**
+	 * Publication slot, held by one inserting thread at a time.
+	 */
+	private static final class Slot<T> {
+		// true while a thread is using the slot for an insert
+		final AtomicBoolean taken = new AtomicBoolean();
+		// value waiting to be inserted, or null once it has been applied
+		volatile T request = null;
+		// what inserting request threw, set before request is cleared
+		Throwable failure = null;
+	}
+
+	// spins on a pending request before a waiting thread starts yielding
+	private static final int SPINS_BEFORE_YIELD = 64;
+
+	// the tree that every operation is applied to
+	protected final RedBlackTree<T> tree;
+	// held by the thread applying a batch, and by queries
+	private final ReentrantLock combinerLock = new ReentrantLock();
+	// publication slots, enough for two inserting threads per processor
+	private final Slot<?>[] slots = new Slot<?>[Math.max(4, 2 * Runtime.getRuntime().availableProcessors())];
+
+	// slots of the pending inserts, only used while holding combinerLock
+	private final List<Slot<T>> batchSlots = new ArrayList<>();
+	private final Comparator<Slot<T>> byRequest = (a, b) -> a.request.compareTo(b.request);
+
+	/**
+	 * Creates an empty tree.
+	 */
+	public FlatCombiningRedBlackTree() {
+		this(new RedBlackTree<>());
+	}
+
+	/**
+	 * Creates a front-end for tree. The tree must not be used directly afterwards.
+	 * @param tree the tree to apply operations to
+	 * @throws NullPointerException if tree is null
+	 */
+	public FlatCombiningRedBlackTree(RedBlackTree<T> tree) throws NullPointerException {
+		if (tree == null) {
+			throw new NullPointerException("Tree cannot be null");
+		}
+		this.tree = tree;
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = new Slot<>();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Slot<T> slot(int i) {
+		return (Slot<T>) slots[i];
+	}
+
+	/**
+	 * Takes a free slot, starting the search at a position that depends on
+	 * the calling thread so that threads rarely compete for the same slot.
+	 * @return the slot, or null if every slot is taken
+	 */
+	private Slot<T> takeSlot() {
+		int start = (int) (Thread.currentThread().getId() % slots.length);
+		for (int i = 0; i < slots.length; i++) {
+			Slot<T> slot = slot((start + i) % slots.length);
+			if (!slot.taken.get() && slot.taken.compareAndSet(false, true)) {
+				return slot;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Inserts a new data value by publishing it and waiting until a combining
+	 * thread, possibly this one, has applied it.
+	 * @param data the new value being inserted
+	 * @throws NullPointerException if data argument is null, we do not allow
+	 * null values to be stored within a SortedCollection
+	 * @throws RuntimeException whatever comparing data with the stored values threw
+	 */
+	@Override
+	public void insert(T data) throws NullPointerException {
+		if (data == null) {
+			throw new NullPointerException("Data cannot be null.");
+		}
+
+		Slot<T> slot = takeSlot();
+		if (slot == null) {
+			combinerLock.lock();
+			try {
+				tree.insert(data);
+			} finally {
+				combinerLock.unlock();
+			}
+			return;
+		}
+
+		Throwable failure;
+		try {
+			slot.failure = null;
+			slot.request = data;
+
+			int spins = 0;
+			while (slot.request != null) {
+				if (combinerLock.tryLock()) {
+					try {
+						combine();
+					} finally {
+						combinerLock.unlock();
+					}
+				}
+				else if (++spins < SPINS_BEFORE_YIELD) {
+					Thread.onSpinWait();
+				}
+				else {
+					Thread.yield();
+				}
+			}
+			failure = slot.failure;
+		} finally {
+			slot.taken.set(false);
+		}
+
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+	}
+
+	/**
+	 * Applies every published insert as one sorted batch, recording in each
+	 * slot whether its insert threw before clearing it. The caller must hold
+	 * combinerLock.
+	 */
+	private void combine() {
+		for (int i = 0; i < slots.length; i++) {
+			Slot<T> slot = slot(i);
+			if (slot.request != null) {
+				batchSlots.add(slot);
+			}
+		}
+
+		//sort a copy, a compareTo that throws can leave a half sorted array with values missing
+		@SuppressWarnings("unchecked")
+		Slot<T>[] sorted = (Slot<T>[]) batchSlots.toArray(new Slot<?>[0]);
+		try {
+			Arrays.sort(sorted, byRequest);
+		} catch (RuntimeException e) {
+			batchSlots.toArray(sorted);
+		}
+
+		for (Slot<T> slot : sorted) {
+			try {
+				tree.insert(slot.request);
+			} catch (RuntimeException | Error e) {
+				slot.failure = e;
+			}
+			//clearing the request tells the slot's thread that the insert is done, and publishes failure
+			slot.request = null;
+		}
+		batchSlots.clear();
+	}
+
+	@Override
+	public boolean contains(Comparable<T> data) {
+		combinerLock.lock();
+		try {
+			return tree.contains(data);
+		} finally {
+			combinerLock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		combinerLock.lock();
+		try {
+			return tree.size();
+		} finally {
+			combinerLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		combinerLock.lock();
+		try {
+			return tree.isEmpty();
+		} finally {
+			combinerLock.unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+		combinerLock.lock();
+		try {
+			tree.clear();
+		} finally {
+			combinerLock.unlock();
+		}
+	}
+
+	@Override
+	public T floor(Comparable<T> data) {
+		combinerLock.lock();
+		try {
+			return tree.floor(data);
+		} finally {
+			combinerLock.unlock();
+		}
+	}
+
+	@Override
+	public T ceiling(Comparable<T> data) {
+		combinerLock.lock();
+		try {
+			return tree.ceiling(data);
+		} finally {
+			combinerLock.unlock();
+		}
+	}
+
+	@Override
+	public T lower(Comparable<T> data) {
+		combinerLock.lock();
+		try {
+			return tree.lower(data);
+		} finally {
+			combinerLock.unlock();
+		}
+	}
+
+	@Override
+	public T higher(Comparable<T> data) {
+		combinerLock.lock();
+		try {
+			return tree.higher(data);
+		} finally {
+			combinerLock.unlock();
+		}
+	}
+
+	@Override
+	public T first() {
+		combinerLock.lock();
+		try {
+			return tree.first();
+		} finally {
+			combinerLock.unlock();
+		}
+	}
+
+	@Override
+	public T last() {
+		combinerLock.lock();
+		try {
+			return tree.last();
+		} finally {
+			combinerLock.unlock();
+		}
+	}
+
+	/**
+	 * JUnit tests, nested because JUnit needs a class with a single
+	 * no-argument constructor
+	 */
+	static class FlatCombiningRedBlackTreeTest {
+
+		/**
+		 * Checks that concurrent inserts from more threads than slots are all
+		 * applied and leave a valid red black tree
+		 */
+		@Test
+		public void flatCombiningTest1() throws InterruptedException {
+			FlatCombiningRedBlackTree<Integer> tree = new FlatCombiningRedBlackTree<>();
+			Thread[] threads = new Thread[tree.slots.length + 4];
+			int perThread = 5000;
+
+			for (int t = 0; t < threads.length; t++) {
+				int offset = t;
+				threads[t] = new Thread(() -> {
+					for (int i = 0; i < perThread; i++) {
+						tree.insert(i * threads.length + offset);
+					}
+				});
+				threads[t].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			int total = threads.length * perThread;
+			assertEquals(total, tree.size());
+			assertTrue(tree.contains(0));
+			assertTrue(tree.contains(total - 1));
+			assertEquals(0, tree.first());
+			assertEquals(total - 1, tree.last());
+			assertTrue(tree.tree.validate().isValid());
+			for (int i = 0; i < tree.slots.length; i++) {
+				assertFalse(tree.slot(i).taken.get());
+			}
+		}
+
+		/**
+		 * Checks that a value whose compareTo throws fails only its own insert,
+		 * in the thread that made it, while batched inserts from other threads
+		 * are still applied
+		 */
+		@Test
+		public void flatCombiningTest2() throws InterruptedException {
+			FlatCombiningRedBlackTree<Key> tree = new FlatCombiningRedBlackTree<>();
+			tree.insert(new Key(-1)); //so the first failing key is never stored without a comparison
+			Thread[] threads = new Thread[4];
+			int[] failures = new int[threads.length];
+
+			for (int t = 0; t < threads.length; t++) {
+				int offset = t;
+				threads[t] = new Thread(() -> {
+					for (int i = 0; i < 2000; i++) {
+						int value = i * threads.length + offset;
+						try {
+							tree.insert(new Key(value));
+						} catch (IllegalStateException e) {
+							failures[offset]++;
+						}
+					}
+				});
+				threads[t].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			//the 79 positive multiples of 100 below 8000 all belong to thread 0, and only they failed
+			for (int t = 0; t < threads.length; t++) {
+				assertEquals(t == 0 ? 79 : 0, failures[t], "thread " + t);
+			}
+			assertEquals(1 + 8000 - 79, tree.size());
+			assertTrue(tree.contains(new Key(7999)));
+			assertTrue(tree.tree.validate().isValid());
+		}
+
+		/**
+		 * Value whose compareTo throws for multiples of 100.
+		 */
+		private static final class Key implements Comparable<Key> {
+			final int value;
+
+			Key(int value) {
+				this.value = value;
+			}
+
+			@Override
+			public int compareTo(Key other) {
+				if ((value % 100 == 0 && value > 0) || (other.value % 100 == 0 && other.value > 0)) {
+					throw new IllegalStateException("cannot compare " + value);
+				}
+				return Integer.compare(value, other.value);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,534 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sorted multiset of int keys stored in buckets of up to 64 distinct keys,
+ * held in a RedBlackTree ordered by each bucket's smallest key. A bucket keeps
+ * its keys in one sorted int[] with a parallel array of duplicate counts, so
+ * the tree has about one node per 32 to 64 keys and is five to six levels
+ * shorter than a tree of single keys. The tree search ends at a bucket, and
+ * the bucket is searched by counting the keys less than the probe in a loop
+ * without branches over one or two cache lines, which the JIT can unroll and
+ * vectorize, instead of following more node references.
+ *
+ * A full bucket splits in two, and a bucket that falls below a quarter full
+ * merges with or borrows keys from its neighbor. The buckets are also linked
+ * in order, so scans and successor queries move between neighbors directly.
+ */
+public class IntBucketTree implements Iterable<Integer> {
+
+	// most distinct keys a bucket holds
+	private static final int CAPACITY = 64;
+	// a bucket with fewer keys than this merges with or borrows from a neighbor
+	private static final int MIN_KEYS = CAPACITY / 4;
+	// neighbors whose keys fit in this many slots merge, others share their keys evenly
+	private static final int MERGE_KEYS = CAPACITY * 3 / 4;
+
+	/**
+	 * Sorted distinct keys with the number of copies of each. Buckets are
+	 * ordered by their smallest key, and every key of a bucket is less than
+	 * every key of the next bucket.
+	 */
+	private static final class Bucket implements Comparable<Bucket> {
+		// the keys in ascending order, only the first size are in use
+		final int[] keys = new int[CAPACITY];
+		// number of copies of each key
+		final int[] counts = new int[CAPACITY];
+		// number of distinct keys
+		int size = 0;
+		// neighboring buckets in key order, or null at either end
+		Bucket prev = null;
+		Bucket next = null;
+		// the tree node that holds this bucket
+		RBTNode<Bucket> node = null;
+
+		/**
+		 * @return the number of keys in this bucket less than key, or less than
+		 * or equal to key if inclusive
+		 */
+		int rank(int key, boolean inclusive) {
+			int rank = 0;
+			if (inclusive) {
+				for (int i = 0; i < size; i++) {
+					rank += keys[i] <= key ? 1 : 0;
+				}
+			}
+			else {
+				for (int i = 0; i < size; i++) {
+					rank += keys[i] < key ? 1 : 0;
+				}
+			}
+			return rank;
+		}
+
+		/**
+		 * Moves count keys, starting at index from, to the end of other.
+		 */
+		void moveTo(Bucket other, int from, int count) {
+			System.arraycopy(keys, from, other.keys, other.size, count);
+			System.arraycopy(counts, from, other.counts, other.size, count);
+			other.size += count;
+		}
+
+		/**
+		 * Removes count keys starting at index from.
+		 */
+		void delete(int from, int count) {
+			System.arraycopy(keys, from + count, keys, from, size - from - count);
+			System.arraycopy(counts, from + count, counts, from, size - from - count);
+			size -= count;
+		}
+
+		@Override
+		public int compareTo(Bucket other) {
+			return Integer.compare(keys[0], other.keys[0]);
+		}
+
+		@Override
+		public String toString() {
+			return size == 0 ? "[]" : "[" + keys[0] + ".." + keys[size - 1] + "]";
+		}
+	}
+
+	// the buckets, ordered by smallest key
+	private final RedBlackTree<Bucket> tree = new RedBlackTree<>() {
+		@Override
+		protected RBTNode<Bucket> createNode(Bucket bucket) {
+			bucket.node = super.createNode(bucket);
+			return bucket.node;
+		}
+	};
+	// the buckets with the smallest and largest keys, or null if there are none
+	private Bucket head = null;
+	private Bucket tail = null;
+	// number of keys, including duplicates
+	private int size = 0;
+
+	/**
+	 * Finds the last bucket whose smallest key is less than key, or less than
+	 * or equal to key if inclusive.
+	 * @return the bucket, or null if there is none
+	 */
+	private Bucket bucketBefore(int key, boolean inclusive) {
+		BSTNode<Bucket> node = tree.root;
+		Bucket best = null;
+		while (node != null) {
+			int first = node.data.keys[0];
+			if (first < key || (inclusive && first == key)) {
+				best = node.data;
+				node = node.right;
+			}
+			else {
+				node = node.left;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Inserts a copy of key, splitting its bucket if it is full.
+	 * @param key the key being inserted
+	 */
+	public void insert(int key) {
+		size++;
+		if (head == null) {
+			Bucket bucket = new Bucket();
+			bucket.keys[0] = key;
+			bucket.counts[0] = 1;
+			bucket.size = 1;
+			head = tail = bucket;
+			tree.insert(bucket);
+			return;
+		}
+
+		//a key below every bucket goes to the front of the first one
+		Bucket bucket = bucketBefore(key, true);
+		if (bucket == null) {
+			bucket = head;
+		}
+		int index = bucket.rank(key, false);
+		if (index < bucket.size && bucket.keys[index] == key) {
+			bucket.counts[index]++;
+			return;
+		}
+
+		if (bucket.size == CAPACITY) {
+			Bucket upper = split(bucket);
+			if (index > bucket.size) {
+				index -= bucket.size;
+				bucket = upper;
+			}
+		}
+		System.arraycopy(bucket.keys, index, bucket.keys, index + 1, bucket.size - index);
+		System.arraycopy(bucket.counts, index, bucket.counts, index + 1, bucket.size - index);
+		bucket.keys[index] = key;
+		bucket.counts[index] = 1;
+		bucket.size++;
+	}
+
+	/**
+	 * Moves the upper half of bucket's keys into a new bucket after it.
+	 * @return the new bucket
+	 */
+	private Bucket split(Bucket bucket) {
+		Bucket upper = new Bucket();
+		int half = bucket.size / 2;
+		bucket.moveTo(upper, half, bucket.size - half);
+		bucket.size = half;
+		link(bucket, upper);
+		tree.insert(upper);
+		return upper;
+	}
+
+	/**
+	 * Links bucket into the list of buckets after prev.
+	 */
+	private void link(Bucket prev, Bucket bucket) {
+		bucket.prev = prev;
+		bucket.next = prev.next;
+		if (prev.next == null) {
+			tail = bucket;
+		}
+		else {
+			prev.next.prev = bucket;
+		}
+		prev.next = bucket;
+	}
+
+	/**
+	 * Removes bucket from the list of buckets and from the tree.
+	 */
+	private void unlink(Bucket bucket) {
+		if (bucket.prev == null) {
+			head = bucket.next;
+		}
+		else {
+			bucket.prev.next = bucket.next;
+		}
+		if (bucket.next == null) {
+			tail = bucket.prev;
+		}
+		else {
+			bucket.next.prev = bucket.prev;
+		}
+		tree.removeNode(bucket.node);
+	}
+
+	/**
+	 * Removes one copy of key. A bucket left less than a quarter full merges
+	 * with a neighbor, or takes some of its keys if they do not fit together.
+	 * @param key the key to remove
+	 * @return true if a copy of key was removed, false if there was none
+	 */
+	public boolean remove(int key) {
+		Bucket bucket = bucketBefore(key, true);
+		if (bucket == null) {
+			return false;
+		}
+		int index = bucket.rank(key, false);
+		if (index == bucket.size || bucket.keys[index] != key) {
+			return false;
+		}
+
+		size--;
+		if (--bucket.counts[index] > 0) {
+			return true;
+		}
+		bucket.delete(index, 1);
+		if (bucket.size < MIN_KEYS) {
+			rebalance(bucket);
+		}
+		return true;
+	}
+
+	/**
+	 * Merges the underfull bucket with a neighbor, or evens out their keys.
+	 */
+	private void rebalance(Bucket bucket) {
+		if (bucket.prev == null && bucket.next == null) {
+			if (bucket.size == 0) {
+				unlink(bucket);
+			}
+			return;
+		}
+
+		Bucket left = bucket.next != null ? bucket : bucket.prev;
+		Bucket right = left.next;
+		if (left.size + right.size <= MERGE_KEYS) {
+			right.moveTo(left, 0, right.size);
+			unlink(right);
+		}
+		else if (left.size < right.size) {
+			int count = (right.size - left.size) / 2;
+			right.moveTo(left, 0, count);
+			right.delete(0, count);
+		}
+		else {
+			//shift right's keys up to make room for the end of left's
+			int count = (left.size - right.size) / 2;
+			System.arraycopy(right.keys, 0, right.keys, count, right.size);
+			System.arraycopy(right.counts, 0, right.counts, count, right.size);
+			System.arraycopy(left.keys, left.size - count, right.keys, 0, count);
+			System.arraycopy(left.counts, left.size - count, right.counts, 0, count);
+			right.size += count;
+			left.size -= count;
+		}
+	}
+
+	/**
+	 * @param key the key to look for
+	 * @return true if the tree holds one or more copies of key
+	 */
+	public boolean contains(int key) {
+		Bucket bucket = bucketBefore(key, true);
+		if (bucket == null) {
+			return false;
+		}
+		int index = bucket.rank(key, false);
+		return index < bucket.size && bucket.keys[index] == key;
+	}
+
+	/**
+	 * @return the number of keys in the tree, including duplicates
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if the tree holds no keys
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all keys and duplicates.
+	 */
+	public void clear() {
+		tree.clear();
+		head = tail = null;
+		size = 0;
+	}
+
+	/**
+	 * @return the number of buckets the keys are stored in
+	 */
+	public int bucketCount() {
+		int count = 0;
+		for (Bucket bucket = head; bucket != null; bucket = bucket.next) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the greatest key less than or equal to key, or null if there is none
+	 */
+	public Integer floor(int key) {
+		return below(key, true);
+	}
+
+	/**
+	 * @return the greatest key strictly less than key, or null if there is none
+	 */
+	public Integer lower(int key) {
+		return below(key, false);
+	}
+
+	/**
+	 * @return the least key greater than or equal to key, or null if there is none
+	 */
+	public Integer ceiling(int key) {
+		return above(key, true);
+	}
+
+	/**
+	 * @return the least key strictly greater than key, or null if there is none
+	 */
+	public Integer higher(int key) {
+		return above(key, false);
+	}
+
+	/**
+	 * @return the greatest key less than key (or equal to it if inclusive), or null
+	 */
+	private Integer below(int key, boolean inclusive) {
+		//the bucket starts with a key that qualifies, and later buckets start with keys that don't
+		Bucket bucket = bucketBefore(key, inclusive);
+		if (bucket == null) {
+			return null;
+		}
+		return bucket.keys[bucket.rank(key, inclusive) - 1];
+	}
+
+	/**
+	 * @return the least key greater than key (or equal to it if inclusive), or null
+	 */
+	private Integer above(int key, boolean inclusive) {
+		//every bucket after this one holds only keys that qualify
+		Bucket bucket = bucketBefore(key, !inclusive);
+		if (bucket == null) {
+			bucket = head;
+		}
+		else {
+			int index = bucket.rank(key, !inclusive);
+			if (index < bucket.size) {
+				return bucket.keys[index];
+			}
+			bucket = bucket.next;
+		}
+		return bucket == null ? null : bucket.keys[0];
+	}
+
+	/**
+	 * @return the smallest key, or null if the tree is empty
+	 */
+	public Integer first() {
+		return head == null ? null : head.keys[0];
+	}
+
+	/**
+	 * @return the largest key, or null if the tree is empty
+	 */
+	public Integer last() {
+		return tail == null ? null : tail.keys[tail.size - 1];
+	}
+
+	/**
+	 * Iterates over the keys in ascending order, including duplicates. The
+	 * iterator must not be used after the tree is modified.
+	 * @return an iterator over the keys in order
+	 */
+	@Override
+	public Iterator<Integer> iterator() {
+		return new Iterator<Integer>() {
+			private Bucket bucket = head;
+			private int index = 0;
+			private int copy = 0;
+
+			@Override
+			public boolean hasNext() {
+				return bucket != null;
+			}
+
+			@Override
+			public Integer next() {
+				if (bucket == null) {
+					throw new NoSuchElementException();
+				}
+				int key = bucket.keys[index];
+				if (++copy == bucket.counts[index]) {
+					copy = 0;
+					if (++index == bucket.size) {
+						index = 0;
+						bucket = bucket.next;
+					}
+				}
+				return key;
+			}
+		};
+	}
+
+	/**
+	 * Checks that random inserts and removes, with many duplicates, agree
+	 * with a TreeMap of counts, and that buckets split and merge
+	 */
+	@Test
+	public void bucketTest1() {
+		IntBucketTree tree = new IntBucketTree();
+		TreeMap<Integer, Integer> expected = new TreeMap<>();
+		Random random = new Random(48);
+
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 5000; i++) {
+				int key = random.nextInt(4000) - 2000;
+				tree.insert(key);
+				expected.merge(key, 1, Integer::sum);
+			}
+			assertTrue(tree.bucketCount() > 4000 / CAPACITY);
+			check(expected, tree, random);
+
+			for (int i = 0; i < 6000; i++) {
+				int key = random.nextInt(4000) - 2000;
+				assertEquals(expected.containsKey(key), tree.remove(key));
+				expected.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
+			}
+			check(expected, tree, random);
+		}
+
+		for (int key : expected.keySet().toArray(new Integer[0])) {
+			while (tree.remove(key)) {
+				expected.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
+			}
+		}
+		assertTrue(expected.isEmpty());
+		assertTrue(tree.isEmpty());
+		assertEquals(0, tree.bucketCount());
+		assertNull(tree.first());
+		assertNull(tree.ceiling(0));
+	}
+
+	/**
+	 * Asserts that tree holds exactly the keys counted in expected, and that
+	 * its bucket tree is a valid red black tree.
+	 */
+	private static void check(TreeMap<Integer, Integer> expected, IntBucketTree tree, Random random) {
+		assertEquals(expected.values().stream().mapToInt(Integer::intValue).sum(), tree.size());
+		Iterator<Integer> keys = tree.iterator();
+		for (var entry : expected.entrySet()) {
+			for (int i = 0; i < entry.getValue(); i++) {
+				assertEquals(entry.getKey(), keys.next());
+			}
+		}
+		assertFalse(keys.hasNext());
+		assertTrue(tree.tree.validate().isValid(), tree.tree.validate().toString());
+
+		for (int i = 0; i < 500; i++) {
+			int probe = random.nextInt(4400) - 2200;
+			assertEquals(expected.containsKey(probe), tree.contains(probe));
+			assertEquals(expected.floorKey(probe), tree.floor(probe));
+			assertEquals(expected.lowerKey(probe), tree.lower(probe));
+			assertEquals(expected.ceilingKey(probe), tree.ceiling(probe));
+			assertEquals(expected.higherKey(probe), tree.higher(probe));
+		}
+		assertEquals(expected.isEmpty() ? null : expected.firstKey(), tree.first());
+		assertEquals(expected.isEmpty() ? null : expected.lastKey(), tree.last());
+	}
+
+	/**
+	 * Checks ascending inserts, the extreme int values and clear
+	 */
+	@Test
+	public void bucketTest2() {
+		IntBucketTree tree = new IntBucketTree();
+		for (int i = 0; i < 10000; i++) {
+			tree.insert(i);
+		}
+		assertEquals(10000, tree.size());
+		assertTrue(tree.bucketCount() <= 10000 / (CAPACITY / 2) + 1);
+		assertEquals(4999, tree.floor(4999));
+		assertEquals(5000, tree.higher(4999));
+
+		tree.insert(Integer.MAX_VALUE);
+		tree.insert(Integer.MIN_VALUE);
+		assertTrue(tree.contains(Integer.MAX_VALUE));
+		assertEquals(Integer.MIN_VALUE, tree.first());
+		assertEquals(Integer.MAX_VALUE, tree.last());
+		assertEquals(Integer.MAX_VALUE, tree.floor(Integer.MAX_VALUE));
+		assertEquals(9999, tree.lower(Integer.MAX_VALUE));
+		assertNull(tree.higher(Integer.MAX_VALUE));
+		assertNull(tree.lower(Integer.MIN_VALUE));
+
+		tree.clear();
+		assertTrue(tree.isEmpty());
+		assertFalse(tree.contains(0));
+		assertFalse(tree.iterator().hasNext());
+	}
+
+}
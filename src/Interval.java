@@ -0,0 +1,82 @@
+/**
+ * This class represents a closed interval [lo, hi] of comparable values.
+ * Intervals are ordered by their lower endpoint first and their upper
+ * endpoint second, which is the order an IntervalTree stores them in.
+ */
+public class Interval<T extends Comparable<T>> implements Comparable<Interval<T>> {
+
+	// lower endpoint, included in the interval
+	protected final T lo;
+	// upper endpoint, included in the interval
+	protected final T hi;
+
+	/**
+	 * Creates the interval [lo, hi].
+	 * @param lo the lower endpoint
+	 * @param hi the upper endpoint
+	 * @throws NullPointerException if either endpoint is null
+	 * @throws IllegalArgumentException if lo is greater than hi
+	 */
+	public Interval(T lo, T hi) throws NullPointerException, IllegalArgumentException {
+		if (lo == null || hi == null) {
+			throw new NullPointerException("Interval endpoints cannot be null");
+		}
+		if (lo.compareTo(hi) > 0) {
+			throw new IllegalArgumentException("Lower endpoint cannot be greater than upper endpoint");
+		}
+		this.lo = lo;
+		this.hi = hi;
+	}
+
+	/**
+	 * @return the lower endpoint of this interval
+	 */
+	public T getLo() { return this.lo; }
+
+	/**
+	 * @return the upper endpoint of this interval
+	 */
+	public T getHi() { return this.hi; }
+
+	/**
+	 * Checks whether this interval shares at least one value with [lo, hi].
+	 * @param lo the lower endpoint of the other interval
+	 * @param hi the upper endpoint of the other interval
+	 * @return true if the intervals overlap, false otherwise
+	 */
+	public boolean overlaps(T lo, T hi) {
+		return this.lo.compareTo(hi) <= 0 && lo.compareTo(this.hi) <= 0;
+	}
+
+	/**
+	 * Orders intervals by lower endpoint, then by upper endpoint.
+	 */
+	@Override
+	public int compareTo(Interval<T> other) {
+		int comp = this.lo.compareTo(other.lo);
+		return comp != 0 ? comp : this.hi.compareTo(other.hi);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof Interval)) {
+			return false;
+		}
+		Interval<?> interval = (Interval<?>) other;
+		return this.lo.equals(interval.lo) && this.hi.equals(interval.hi);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * this.lo.hashCode() + this.hi.hashCode();
+	}
+
+	/**
+	 * @return a string representation of this interval, like [lo, hi]
+	 */
+	@Override
+	public String toString() {
+		return "[" + this.lo + ", " + this.hi + "]";
+	}
+
+}
@@ -0,0 +1,198 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Red black tree of intervals that can report every stored interval
+ * overlapping a point or a range. Each node caches the largest upper endpoint
+ * in its subtree, so whole subtrees that end too early are skipped.
+ * @param <T> type of the interval endpoints
+ */
+public class IntervalTree<T extends Comparable<T>> extends RedBlackTree<Interval<T>> {
+
+	/**
+	 * Red black tree node that also stores the largest upper endpoint of any
+	 * interval in its subtree.
+	 */
+	protected static class IntervalNode<T extends Comparable<T>> extends RBTNode<Interval<T>> {
+
+		// largest upper endpoint in the subtree rooted at this node
+		protected T maxHi;
+
+		/**
+		 * Creates a new red node holding interval.
+		 * @param interval the interval the new node stores
+		 */
+		public IntervalNode(Interval<T> interval) {
+			super(interval);
+			this.maxHi = interval.hi;
+		}
+
+		/**
+		 * @return the largest upper endpoint in the subtree rooted at this node
+		 */
+		public T getMaxHi() { return this.maxHi; }
+	}
+
+	/**
+	 * Creates an IntervalNode so that every node can cache its subtree maximum.
+	 */
+	@Override
+	protected RBTNode<Interval<T>> createNode(Interval<T> data) {
+		return new IntervalNode<>(data);
+	}
+
+	/**
+	 * @return a new interval tree with the same intervals in the same node
+	 * layout, whose subtree maximums are recomputed as it is built
+	 */
+	@Override
+	public IntervalTree<T> copy() {
+		IntervalTree<T> copy = new IntervalTree<>();
+		copyInto(copy);
+		return copy;
+	}
+
+	/**
+	 * Recomputes the largest upper endpoint of node's subtree from its own
+	 * interval and its children's cached maximums.
+	 */
+	@Override
+	protected void refresh(BSTNode<Interval<T>> node) {
+		IntervalNode<T> intervalNode = (IntervalNode<T>) node;
+		T max = node.data.hi;
+
+		if (node.left != null && ((IntervalNode<T>) node.left).maxHi.compareTo(max) > 0) {
+			max = ((IntervalNode<T>) node.left).maxHi;
+		}
+		if (node.right != null && ((IntervalNode<T>) node.right).maxHi.compareTo(max) > 0) {
+			max = ((IntervalNode<T>) node.right).maxHi;
+		}
+
+		intervalNode.maxHi = max;
+	}
+
+	/**
+	 * Inserts the interval [lo, hi] into the tree.
+	 * @param lo the lower endpoint
+	 * @param hi the upper endpoint
+	 * @throws NullPointerException if either endpoint is null
+	 * @throws IllegalArgumentException if lo is greater than hi
+	 */
+	public void insert(T lo, T hi) throws NullPointerException, IllegalArgumentException {
+		insert(new Interval<>(lo, hi));
+	}
+
+	/**
+	 * Finds every stored interval that contains point.
+	 * @param point the value to look up
+	 * @return the intervals containing point, in ascending order
+	 */
+	public List<Interval<T>> overlaps(T point) {
+		return overlapping(point, point);
+	}
+
+	/**
+	 * Finds every stored interval that shares at least one value with [lo, hi],
+	 * in O(min(n, (k + 1) log n)) time for k results: a subtree is only entered if
+	 * some interval in it reaches lo, and each result can cost a walk down one
+	 * path of the tree.
+	 * @param lo the lower endpoint of the query range
+	 * @param hi the upper endpoint of the query range
+	 * @return the overlapping intervals, in ascending order
+	 * @throws NullPointerException if either endpoint is null
+	 */
+	public List<Interval<T>> overlapping(T lo, T hi) throws NullPointerException {
+		if (lo == null || hi == null) {
+			throw new NullPointerException("Query endpoints cannot be null");
+		}
+
+		List<Interval<T>> result = new ArrayList<>();
+		overlappingHelper((IntervalNode<T>) root, lo, hi, result);
+		return result;
+	}
+
+	/**
+	 * Adds every interval in the subtree rooted at node that overlaps [lo, hi]
+	 * to result, in order.
+	 */
+	private void overlappingHelper(IntervalNode<T> node, T lo, T hi, List<Interval<T>> result) {
+		//nothing in this subtree ends at or after lo
+		if (node == null || node.maxHi.compareTo(lo) < 0) {
+			return;
+		}
+
+		overlappingHelper((IntervalNode<T>) node.left, lo, hi, result);
+
+		//this interval and everything to its right starts after hi
+		if (node.data.lo.compareTo(hi) > 0) {
+			return;
+		}
+
+		if (node.data.overlaps(lo, hi)) {
+			result.add(node.data);
+		}
+
+		overlappingHelper((IntervalNode<T>) node.right, lo, hi, result);
+	}
+
+	/**
+	 * Checks overlap queries against a linear scan of the same intervals
+	 */
+	@Test
+	public void intervalTest1() {
+		IntervalTree<Integer> tree = new IntervalTree<>();
+		List<Interval<Integer>> all = new ArrayList<>();
+		Random random = new Random(27);
+
+		for (int i = 0; i < 500; i++) {
+			int lo = random.nextInt(1000);
+			Interval<Integer> interval = new Interval<>(lo, lo + random.nextInt(50));
+			tree.insert(interval);
+			all.add(interval);
+		}
+
+		all.sort(null);
+		for (int i = 0; i < 200; i++) {
+			int lo = random.nextInt(1100) - 50;
+			int hi = lo + random.nextInt(20);
+
+			List<Interval<Integer>> expected = new ArrayList<>();
+			for (Interval<Integer> interval : all) {
+				if (interval.overlaps(lo, hi)) {
+					expected.add(interval);
+				}
+			}
+
+			assertEquals(expected, tree.overlapping(lo, hi));
+		}
+	}
+
+	/**
+	 * Checks that the cached maximums stay correct through the rotations
+	 * caused by inserting intervals in ascending order
+	 */
+	@Test
+	public void intervalTest2() {
+		IntervalTree<Integer> tree = new IntervalTree<>();
+
+		tree.insert(10, 100);
+		tree.insert(20, 30);
+		tree.insert(30, 40);//rotates 20 to the root
+		tree.insert(40, 50);
+		tree.insert(50, 60);
+
+		assertEquals("[ [20, 30](b), [10, 100](b), [40, 50](b), [30, 40](r), [50, 60](r) ]",
+			tree.root.toLevelOrderString());
+		assertEquals(100, ((IntervalNode<Integer>) tree.root).getMaxHi());
+		assertEquals(60, ((IntervalNode<Integer>) tree.root.getRight()).getMaxHi());
+
+		assertEquals("[[10, 100], [50, 60]]", tree.overlaps(55).toString());
+		assertEquals("[[10, 100]]", tree.overlapping(5, 15).toString());
+		assertTrue(tree.overlaps(101).isEmpty());
+	}
+
+}
@@ -0,0 +1,192 @@
+/**
+ * Histogram of latencies in nanoseconds with a relative error below 1%.
+ * Values below 256 get a bucket each; above that, every power of two is
+ * split into 128 equal buckets, each 1/128 of the range's lower end wide, so
+ * a value is reported at most 0.8% above its true value. Recording is a
+ * couple of shifts and an array increment, and the histogram has a fixed
+ * size of about 57KB however many values it records. Not thread safe.
+ */
+public class LatencyHistogram {
+
+	// values below this get a bucket each
+	private static final int LINEAR_BUCKETS = 256;
+	// buckets per power of two above LINEAR_BUCKETS
+	private static final int SUB_BUCKETS = 128;
+	// log2(SUB_BUCKETS)
+	private static final int SUB_BUCKET_BITS = 7;
+
+	// number of values recorded in each bucket, up to the power of two range of Long.MAX_VALUE
+	private final long[] counts = new long[LINEAR_BUCKETS + (62 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+	// number of values recorded
+	private long totalCount = 0;
+	// largest value recorded
+	private long max = 0;
+	// sum of the values recorded, for the mean
+	private double sum = 0;
+
+	/**
+	 * @return the bucket that holds value
+	 */
+	private static int index(long value) {
+		if (value < LINEAR_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int top = (int) (value >>> shift); //between SUB_BUCKETS and 2 * SUB_BUCKETS
+		return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (top - SUB_BUCKETS);
+	}
+
+	/**
+	 * @return the largest value that falls into bucket index
+	 */
+	private static long highestValue(int index) {
+		if (index < LINEAR_BUCKETS) {
+			return index;
+		}
+		int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+		long top = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		return (top << shift) + (1L << shift) - 1;
+	}
+
+	/**
+	 * Records one latency.
+	 * @param nanos the latency in nanoseconds, negative values count as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts[index(value)]++;
+		totalCount++;
+		max = Math.max(max, value);
+		sum += value;
+	}
+
+	/**
+	 * @return the number of latencies recorded
+	 */
+	public long getCount() {
+		return totalCount;
+	}
+
+	/**
+	 * @return the largest latency recorded, or 0 if there is none
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @return the mean latency, or 0 if nothing was recorded
+	 */
+	public double getMean() {
+		return totalCount == 0 ? 0 : sum / totalCount;
+	}
+
+	/**
+	 * Finds the latency that percentile percent of the recorded latencies are
+	 * at or below, rounded up to the top of its bucket.
+	 * @param percentile between 0 and 100, such as 99.9
+	 * @return the latency at percentile, or 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		if (totalCount == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Adds every latency recorded by other to this histogram.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		totalCount += other.totalCount;
+		max = Math.max(max, other.max);
+		sum += other.sum;
+	}
+
+	/**
+	 * @return the count and the p50, p99, p99.9 and max latencies in microseconds
+	 */
+	@Override
+	public String toString() {
+		return String.format("count=%d p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus", totalCount,
+			getPercentile(50) / 1000.0, getPercentile(99) / 1000.0, getPercentile(99.9) / 1000.0, max / 1000.0);
+	}
+
+	/**
+	 * tests percentiles of evenly spread values, and values past the linear buckets
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test1() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 100000; i++) {
+			histogram.record(i * 1000L);
+		}
+
+		//every percentile must be within 1% above the exact value
+		double[] percentiles = { 50, 99, 99.9 };
+		long[] exact = { 50000000L, 99000000L, 99900000L };
+		for (int i = 0; i < percentiles.length; i++) {
+			long actual = histogram.getPercentile(percentiles[i]);
+			if (actual < exact[i] || actual > exact[i] * 1.01) {
+				System.out.println("Test 1 - p" + percentiles[i] + " was " + actual + " instead of " + exact[i]);
+				return false;
+			}
+		}
+
+		if (histogram.getMax() != 100000000L || histogram.getPercentile(100) != 100000000L
+			|| histogram.getCount() != 100000) {
+			System.out.println("Test 1 - Actual max and count: " + histogram.getMax() + ", " + histogram.getCount());
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * tests small values, huge values and adding histograms
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test2() {
+		LatencyHistogram small = new LatencyHistogram();
+		small.record(-5);
+		small.record(3);
+		small.record(Long.MAX_VALUE);
+
+		if (small.getPercentile(1) != 0 || small.getPercentile(50) != 3
+			|| small.getPercentile(100) != Long.MAX_VALUE) {
+			System.out.println("Test 2 - Actual percentiles: " + small);
+			return false;
+		}
+
+		LatencyHistogram other = new LatencyHistogram();
+		other.record(7);
+		small.add(other);
+		if (small.getCount() != 4 || small.getPercentile(75) != 7) {
+			System.out.println("Test 2 - Actual count after add: " + small.getCount());
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * calls test methods and prints results
+	 * @param args - unused
+	 */
+	public static void main(String[] args) {
+		System.out.println("Test 1 result: " + test1());
+		System.out.println("Test 2 result: " + test2());
+	}
+
+}
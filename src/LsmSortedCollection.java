@@ -0,0 +1,1355 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Log structured sorted collection for data sets larger than memory. New
+ * values go into an in-memory RedBlackTree, the memtable, so inserts keep
+ * their O(log n) cost. Once the memtable holds memtableThreshold values it
+ * is frozen and a background thread writes it to an immutable sorted run
+ * file. Runs are compacted by size tier: once more than maxRuns adjacent
+ * runs have a similar size, the background thread merges them into one run
+ * of the next tier, so every value is rewritten about once per tier,
+ * O(log n) times in all, instead of once per compaction. Queries look at the
+ * memtable, any frozen memtables still being written, and every run, and
+ * in-order iteration merges all of them with a k-way merging iterator.
+ *
+ * There is no write-ahead log: values still in the memtable are only saved
+ * by close(). Run files left in the directory are opened again by the next
+ * collection created on it. Each run file is named after the range of
+ * memtable flushes it holds, so runs that a merged run replaced but that a
+ * crash left behind are recognized and deleted then.
+ * @param <T> type of the values
+ */
+public class LsmSortedCollection<T extends Comparable<T>> implements SortedCollection<T>, Iterable<T>, Closeable {
+
+	/**
+	 * Converts values to and from the bytes stored in run files.
+	 */
+	public interface Codec<T> {
+
+		/**
+		 * Writes value to out.
+		 */
+		void write(DataOutput out, T value) throws IOException;
+
+		/**
+		 * Reads a value written by write from in.
+		 */
+		T read(DataInput in) throws IOException;
+
+		// codec for Integer values
+		Codec<Integer> INTEGERS = new Codec<>() {
+			public void write(DataOutput out, Integer value) throws IOException { out.writeInt(value); }
+			public Integer read(DataInput in) throws IOException { return in.readInt(); }
+		};
+
+		// codec for Long values
+		Codec<Long> LONGS = new Codec<>() {
+			public void write(DataOutput out, Long value) throws IOException { out.writeLong(value); }
+			public Long read(DataInput in) throws IOException { return in.readLong(); }
+		};
+
+		// codec for String values of up to 65535 UTF-8 bytes
+		Codec<String> STRINGS = new Codec<>() {
+			public void write(DataOutput out, String value) throws IOException { out.writeUTF(value); }
+			public String read(DataInput in) throws IOException { return in.readUTF(); }
+		};
+	}
+
+	// values per block of a run file, every block's first value is kept in memory
+	private static final int BLOCK_SIZE = 64;
+	private static final String RUN_PREFIX = "run-";
+	private static final String RUN_SUFFIX = ".dat";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	// releases the runs held by iterators that are dropped before their end
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	/**
+	 * Immutable file of sorted values, split into blocks of BLOCK_SIZE values.
+	 * Each block is an int count, an int byte length and the encoded values.
+	 * The first value of each block is kept in memory, so a lookup reads a
+	 * single block. The run holds the values of the memtables flushed with
+	 * sequence numbers firstSequence to lastSequence.
+	 */
+	protected static class SortedRun<T extends Comparable<T>> {
+
+		final Path path;
+		final long firstSequence;
+		final long lastSequence;
+		final Codec<T> codec;
+		final FileChannel channel;
+		// number of values in the run
+		final long count;
+		// first value of each block
+		final List<T> firstValues;
+		// file offset of each block, followed by the file size
+		final long[] blockOffsets;
+		// largest value in the run
+		final T lastValue;
+		// one for the collection while the run is in use, plus one per reader
+		private int references = 1;
+		// true once the run was replaced or cleared, so its file goes when it is closed
+		private boolean discarded = false;
+
+		private SortedRun(Path path, long firstSequence, long lastSequence, Codec<T> codec, FileChannel channel,
+			long count, List<T> firstValues, long[] blockOffsets, T lastValue) {
+			this.path = path;
+			this.firstSequence = firstSequence;
+			this.lastSequence = lastSequence;
+			this.codec = codec;
+			this.channel = channel;
+			this.count = count;
+			this.firstValues = firstValues;
+			this.blockOffsets = blockOffsets;
+			this.lastValue = lastValue;
+		}
+
+		/**
+		 * Writes values, which must be in ascending order, to a new run file.
+		 * The file is written under a temporary name and renamed once complete,
+		 * so a crash never leaves a partial run behind.
+		 * @return the new run, open for reading, or null if values was empty
+		 */
+		static <T extends Comparable<T>> SortedRun<T> write(Path directory, long firstSequence, long lastSequence,
+			Iterator<T> values, Codec<T> codec) throws IOException {
+			if (!values.hasNext()) {
+				return null;
+			}
+
+			String name = RUN_PREFIX + firstSequence + (lastSequence == firstSequence ? "" : "-" + lastSequence);
+			Path path = directory.resolve(name + RUN_SUFFIX);
+			Path tempPath = directory.resolve(name + RUN_SUFFIX + TEMP_SUFFIX);
+			List<T> firstValues = new ArrayList<>();
+			List<Long> offsets = new ArrayList<>();
+			long count = 0;
+			long offset = 0;
+			T last = null;
+
+			try (FileChannel out = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				ByteArrayOutputStream block = new ByteArrayOutputStream();
+				DataOutputStream blockOut = new DataOutputStream(block);
+				while (values.hasNext()) {
+					block.reset();
+					int blockCount = 0;
+					while (blockCount < BLOCK_SIZE && values.hasNext()) {
+						T value = values.next();
+						if (blockCount == 0) {
+							firstValues.add(value);
+						}
+						codec.write(blockOut, value);
+						last = value;
+						blockCount++;
+					}
+					blockOut.flush();
+
+					ByteBuffer buffer = ByteBuffer.allocate(8 + block.size());
+					buffer.putInt(blockCount).putInt(block.size()).put(block.toByteArray()).flip();
+					while (buffer.hasRemaining()) {
+						out.write(buffer);
+					}
+					offsets.add(offset);
+					offset += 8 + block.size();
+					count += blockCount;
+				}
+				out.force(false);
+			}
+			Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+
+			offsets.add(offset);
+			long[] blockOffsets = new long[offsets.size()];
+			for (int i = 0; i < blockOffsets.length; i++) {
+				blockOffsets[i] = offsets.get(i);
+			}
+			return new SortedRun<>(path, firstSequence, lastSequence, codec,
+				FileChannel.open(path, StandardOpenOption.READ), count, firstValues, blockOffsets, last);
+		}
+
+		/**
+		 * @return the first and last flush sequence numbers in the name of the
+		 * run file at path, which is either run-first.dat or run-first-last.dat
+		 * @throws NumberFormatException if the name has neither form
+		 */
+		static long[] sequences(Path path) throws NumberFormatException {
+			String name = path.getFileName().toString();
+			String[] parts = name.substring(RUN_PREFIX.length(), name.length() - RUN_SUFFIX.length()).split("-");
+			long first = Long.parseLong(parts[0]);
+			if (parts.length > 2) {
+				throw new NumberFormatException("Malformed run file name " + name);
+			}
+			return new long[] { first, parts.length == 2 ? Long.parseLong(parts[1]) : first };
+		}
+
+		/**
+		 * Opens an existing run file, reading it once to rebuild the block index.
+		 */
+		static <T extends Comparable<T>> SortedRun<T> open(Path path, long firstSequence, long lastSequence,
+			Codec<T> codec) throws IOException {
+			FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+			try {
+				List<T> firstValues = new ArrayList<>();
+				List<Long> offsets = new ArrayList<>();
+				long size = channel.size();
+				long offset = 0;
+				long count = 0;
+				List<T> block = null;
+				while (offset < size) {
+					offsets.add(offset);
+					block = readBlock(channel, offset, codec);
+					firstValues.add(block.get(0));
+					count += block.size();
+					offset += 8 + readInt(channel, offset + 4);
+				}
+				if (block == null) {
+					throw new IOException("Run file " + path + " is empty");
+				}
+
+				offsets.add(offset);
+				long[] blockOffsets = new long[offsets.size()];
+				for (int i = 0; i < blockOffsets.length; i++) {
+					blockOffsets[i] = offsets.get(i);
+				}
+				return new SortedRun<>(path, firstSequence, lastSequence, codec, channel, count, firstValues,
+					blockOffsets, block.get(block.size() - 1));
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Reads the int stored at position of channel.
+		 */
+		private static int readInt(FileChannel channel, long position) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(4);
+			readFully(channel, buffer, position);
+			return buffer.getInt(0);
+		}
+
+		/**
+		 * Fills buffer from channel starting at position.
+		 */
+		private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+			while (buffer.hasRemaining()) {
+				int read = channel.read(buffer, position + buffer.position());
+				if (read < 0) {
+					throw new IOException("Unexpected end of run file");
+				}
+			}
+		}
+
+		/**
+		 * Reads and decodes the block starting at offset.
+		 */
+		private static <T> List<T> readBlock(FileChannel channel, long offset, Codec<T> codec) throws IOException {
+			ByteBuffer header = ByteBuffer.allocate(8);
+			readFully(channel, header, offset);
+			int blockCount = header.getInt(0);
+			int length = header.getInt(4);
+			if (blockCount <= 0 || length < 0) {
+				throw new IOException("Corrupt block at byte " + offset);
+			}
+
+			ByteBuffer body = ByteBuffer.allocate(length);
+			readFully(channel, body, offset + 8);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(body.array()));
+			List<T> values = new ArrayList<>(blockCount);
+			for (int i = 0; i < blockCount; i++) {
+				values.add(codec.read(in));
+			}
+			return values;
+		}
+
+		/**
+		 * Reads and decodes block i.
+		 */
+		List<T> block(int i) throws IOException {
+			return readBlock(channel, blockOffsets[i], codec);
+		}
+
+		/**
+		 * @return the largest i whose block starts with a value that compares to
+		 * data as allowed by inclusive (at most data, or below data), or -1
+		 */
+		private int lastBlockStartingBefore(Comparable<T> data, boolean inclusive) {
+			int lo = 0;
+			int hi = firstValues.size();
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				int comp = data.compareTo(firstValues.get(mid));
+				if (comp > 0 || (inclusive && comp == 0)) {
+					lo = mid + 1;
+				}
+				else {
+					hi = mid;
+				}
+			}
+			return lo - 1;
+		}
+
+		boolean contains(Comparable<T> data) throws IOException {
+			//later blocks start after data, so only block i can hold it
+			int i = lastBlockStartingBefore(data, true);
+			if (i < 0) {
+				return false;
+			}
+			if (data.compareTo(firstValues.get(i)) == 0) {
+				return true;
+			}
+			for (T value : block(i)) {
+				if (data.compareTo(value) == 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Finds the greatest value at most data (inclusive) or below data.
+		 */
+		T floor(Comparable<T> data, boolean inclusive) throws IOException {
+			int i = lastBlockStartingBefore(data, inclusive);
+			if (i < 0) {
+				return null;
+			}
+			T result = null;
+			for (T value : block(i)) {
+				int comp = data.compareTo(value);
+				if (comp > 0 || (inclusive && comp == 0)) {
+					result = value;
+				}
+				else {
+					break;
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Finds the least value at least data (inclusive) or above data.
+		 */
+		T ceiling(Comparable<T> data, boolean inclusive) throws IOException {
+			//every block after i starts with a value that qualifies
+			int i = lastBlockStartingBefore(data, !inclusive);
+			if (i >= 0) {
+				for (T value : block(i)) {
+					int comp = data.compareTo(value);
+					if (comp < 0 || (inclusive && comp == 0)) {
+						return value;
+					}
+				}
+			}
+			return i + 1 < firstValues.size() ? firstValues.get(i + 1) : null;
+		}
+
+		/**
+		 * Iterates over the run's values in order, reading blocks with
+		 * positional reads on the run's channel, so any number of iterators
+		 * share it without opening the file again.
+		 * @param finished run once the last block has been read
+		 */
+		Iterator<T> iterator(Runnable finished) {
+			return new Iterator<T>() {
+				private int nextBlock = 0;
+				private Iterator<T> current = null;
+
+				@Override
+				public boolean hasNext() {
+					while ((current == null || !current.hasNext()) && nextBlock < firstValues.size()) {
+						try {
+							current = block(nextBlock++).iterator();
+							if (nextBlock == firstValues.size()) {
+								finished.run();
+							}
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+					return current != null && current.hasNext();
+				}
+
+				@Override
+				public T next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					return current.next();
+				}
+			};
+		}
+
+		/**
+		 * Adds a reference to the run for a reader, so that the run stays
+		 * open after the collection releases it until the reader is done.
+		 * @return releases the reader's reference the first time it is run
+		 */
+		synchronized Runnable acquire() {
+			references++;
+			AtomicBoolean released = new AtomicBoolean();
+			return () -> {
+				if (released.compareAndSet(false, true)) {
+					try {
+						release();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			};
+		}
+
+		/**
+		 * Drops a reference to the run. Once the collection and every reader
+		 * have released it, the run is closed, and its file is deleted if the
+		 * run was discarded.
+		 */
+		synchronized void release() throws IOException {
+			if (--references == 0) {
+				channel.close();
+				if (discarded) {
+					Files.deleteIfExists(path);
+				}
+			}
+		}
+
+		/**
+		 * Drops the collection's reference to a run it no longer uses, deleting
+		 * the run's file once no reader holds the run either.
+		 */
+		synchronized void discard() throws IOException {
+			discarded = true;
+			release();
+		}
+	}
+
+	/**
+	 * Merges several sorted iterators into one, keeping duplicates.
+	 */
+	protected static class MergingIterator<T extends Comparable<T>> implements Iterator<T> {
+
+		/**
+		 * An iterator and the value it will return next.
+		 */
+		private static class Source<T> {
+			final Iterator<T> iterator;
+			T head;
+
+			Source(Iterator<T> iterator) {
+				this.iterator = iterator;
+				this.head = iterator.next();
+			}
+		}
+
+		private final PriorityQueue<Source<T>> queue = new PriorityQueue<>((a, b) -> a.head.compareTo(b.head));
+
+		/**
+		 * Creates an iterator over every value of sources, in ascending order.
+		 * @param sources iterators that each return values in ascending order
+		 */
+		MergingIterator(List<Iterator<T>> sources) {
+			for (Iterator<T> source : sources) {
+				if (source.hasNext()) {
+					queue.add(new Source<>(source));
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		@Override
+		public T next() {
+			Source<T> source = queue.poll();
+			if (source == null) {
+				throw new NoSuchElementException();
+			}
+			T value = source.head;
+			if (source.iterator.hasNext()) {
+				source.head = source.iterator.next();
+				queue.add(source);
+			}
+			return value;
+		}
+	}
+
+	private final Path directory;
+	private final Codec<T> codec;
+	private final int memtableThreshold;
+	private final int maxRuns;
+
+	// guards every field below, write locked by inserts and background swaps
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private RedBlackTree<T> memtable = new RedBlackTree<>();
+	private int memtableCount = 0;
+	// full memtables waiting to be written, never modified again
+	private List<RedBlackTree<T>> frozen = new ArrayList<>();
+	private List<Integer> frozenCounts = new ArrayList<>();
+	private List<SortedRun<T>> runs = new ArrayList<>();
+	private long nextSequence = 0;
+	// changed by clear(), so background work started before it is discarded
+	private long generation = 0;
+	private boolean closed = false;
+	// first failure of a background flush or compaction
+	private volatile IOException backgroundFailure = null;
+
+	// runs flushes and compactions one at a time
+	private final ExecutorService background = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "lsm-background");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Creates a collection stored in directory, opening any run files that a
+	 * previous collection left there.
+	 * @param directory the directory holding the run files
+	 * @param codec converts values to and from bytes
+	 * @param memtableThreshold number of values the memtable holds before it is written to a run
+	 * @param maxRuns number of adjacent runs of a similar size allowed before they are merged into one
+	 * @throws IOException if the directory or its run files cannot be read
+	 * @throws IllegalArgumentException if memtableThreshold or maxRuns is less than 1
+	 */
+	public LsmSortedCollection(Path directory, Codec<T> codec, int memtableThreshold, int maxRuns)
+		throws IOException, IllegalArgumentException {
+		if (memtableThreshold < 1 || maxRuns < 1) {
+			throw new IllegalArgumentException("Memtable threshold and maximum runs must be positive");
+		}
+		this.directory = directory;
+		this.codec = codec;
+		this.memtableThreshold = memtableThreshold;
+		this.maxRuns = maxRuns;
+
+		Files.createDirectories(directory);
+		List<Path> runFiles = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, RUN_PREFIX + "*")) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				if (name.endsWith(TEMP_SUFFIX)) {
+					Files.delete(file); //left over from an interrupted write
+				}
+				else if (name.endsWith(RUN_SUFFIX)) {
+					runFiles.add(file);
+				}
+			}
+		}
+
+		//a run whose flushes lie within another run's range was merged into
+		//it, and was left behind by a crash before it could be deleted
+		runFiles.sort(Comparator.<Path>comparingLong(file -> SortedRun.sequences(file)[0])
+			.thenComparing(Comparator.<Path>comparingLong(file -> SortedRun.sequences(file)[1]).reversed()));
+		long covered = -1;
+		for (Path file : runFiles) {
+			long[] sequences = SortedRun.sequences(file);
+			if (sequences[1] <= covered) {
+				Files.delete(file);
+				continue;
+			}
+			runs.add(SortedRun.open(file, sequences[0], sequences[1], codec));
+			covered = sequences[1];
+			nextSequence = covered + 1;
+		}
+	}
+
+	/**
+	 * Inserts a new data value into the memtable, freezing the memtable and
+	 * scheduling it to be written once it is full.
+	 * @param data the new value being inserted
+	 * @throws NullPointerException if data argument is null, we do not allow
+	 * null values to be stored within a SortedCollection
+	 * @throws UncheckedIOException if an earlier background write failed
+	 */
+	@Override
+	public void insert(T data) throws NullPointerException {
+		if (data == null) {
+			throw new NullPointerException("Data cannot be null.");
+		}
+		if (backgroundFailure != null) {
+			throw new UncheckedIOException("Background write failed", backgroundFailure);
+		}
+
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			memtable.insert(data);
+			memtableCount++;
+
+			if (memtableCount >= memtableThreshold) {
+				RedBlackTree<T> full = memtable;
+				long sequence = nextSequence++;
+				long flushGeneration = generation;
+				freeze();
+				background.execute(() -> flush(full, sequence, flushGeneration));
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Moves the memtable to the frozen list and starts a new one. The caller
+	 * must hold the write lock.
+	 */
+	private void freeze() {
+		List<RedBlackTree<T>> newFrozen = new ArrayList<>(frozen);
+		List<Integer> newCounts = new ArrayList<>(frozenCounts);
+		newFrozen.add(memtable);
+		newCounts.add(memtableCount);
+		frozen = newFrozen;
+		frozenCounts = newCounts;
+		memtable = new RedBlackTree<>();
+		memtableCount = 0;
+	}
+
+	/**
+	 * Writes a frozen memtable to a run file and replaces it with that run,
+	 * then merges runs of a similar size while there are too many. Runs on
+	 * the background thread, which flushes memtables in sequence order, so
+	 * every run already holds an earlier sequence than the memtables still
+	 * waiting to be flushed.
+	 */
+	private void flush(RedBlackTree<T> full, long sequence, long flushGeneration) {
+		try {
+			SortedRun<T> run = SortedRun.write(directory, sequence, sequence, full.iterator(), codec);
+
+			lock.writeLock().lock();
+			try {
+				if (generation != flushGeneration) {
+					if (run != null) {
+						run.discard();
+					}
+					return;
+				}
+				int index = frozen.indexOf(full);
+				List<RedBlackTree<T>> newFrozen = new ArrayList<>(frozen);
+				List<Integer> newCounts = new ArrayList<>(frozenCounts);
+				newFrozen.remove(index);
+				newCounts.remove(index);
+				List<SortedRun<T>> newRuns = new ArrayList<>(runs);
+				if (run != null) {
+					newRuns.add(run);
+				}
+				frozen = newFrozen;
+				frozenCounts = newCounts;
+				runs = newRuns;
+			} finally {
+				lock.writeLock().unlock();
+			}
+
+			compact();
+		} catch (IOException e) {
+			failed(e, flushGeneration);
+		}
+	}
+
+	/**
+	 * Merges adjacent runs of the same size tier into one run while some tier
+	 * has more than maxRuns adjacent runs. The merged run is named after the
+	 * range of flushes it holds and replaces the runs it was made from in the
+	 * same position. Readers keep using the old runs until it replaces them.
+	 */
+	private void compact() throws IOException {
+		while (true) {
+			List<SortedRun<T>> merging;
+			List<Runnable> releases = new ArrayList<>();
+			long compactGeneration;
+			lock.readLock().lock();
+			try {
+				merging = similarRuns();
+				if (merging == null) {
+					return;
+				}
+				for (SortedRun<T> run : merging) {
+					releases.add(run.acquire());
+				}
+				compactGeneration = generation;
+			} finally {
+				lock.readLock().unlock();
+			}
+
+			try {
+				List<Iterator<T>> sources = new ArrayList<>();
+				for (SortedRun<T> run : merging) {
+					sources.add(run.iterator(() -> { }));
+				}
+				SortedRun<T> merged = SortedRun.write(directory, merging.get(0).firstSequence,
+					merging.get(merging.size() - 1).lastSequence, new MergingIterator<>(sources), codec);
+
+				lock.writeLock().lock();
+				try {
+					if (generation != compactGeneration) {
+						merged.discard();
+						return;
+					}
+					List<SortedRun<T>> newRuns = new ArrayList<>(runs);
+					int index = newRuns.indexOf(merging.get(0));
+					newRuns.removeAll(merging);
+					newRuns.add(index, merged);
+					runs = newRuns;
+					for (SortedRun<T> run : merging) {
+						run.discard();
+					}
+				} finally {
+					lock.writeLock().unlock();
+				}
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			} finally {
+				for (Runnable release : releases) {
+					release.run();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the first group of adjacent runs, in flush order, that share a
+	 * size tier and are too many. The caller must hold the lock.
+	 * @return the runs to merge, or null if no tier has more than maxRuns
+	 * adjacent runs
+	 */
+	private List<SortedRun<T>> similarRuns() {
+		int start = 0;
+		for (int i = 1; i <= runs.size(); i++) {
+			if (i == runs.size() || tier(runs.get(i).count) != tier(runs.get(start).count)) {
+				if (i - start > maxRuns) {
+					return new ArrayList<>(runs.subList(start, i));
+				}
+				start = i;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the size tier of a run of count values: tier 0 holds fewer than
+	 * memtableThreshold * (maxRuns + 1) values, and each tier after it holds
+	 * maxRuns + 1 times as many as the one before, so merging the maxRuns + 1
+	 * runs of a full tier gives a run of the next tier
+	 */
+	private int tier(long count) {
+		long fanout = maxRuns + 1L;
+		long bound = memtableThreshold * fanout;
+		int tier = 0;
+		while (count >= bound) {
+			tier++;
+			if (bound > Long.MAX_VALUE / fanout) {
+				break;
+			}
+			bound *= fanout;
+		}
+		return tier;
+	}
+
+	/**
+	 * Records a background failure, unless clear() made the work obsolete.
+	 */
+	private void failed(IOException e, long workGeneration) {
+		lock.readLock().lock();
+		try {
+			if (generation == workGeneration && backgroundFailure == null) {
+				backgroundFailure = e;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @throws IllegalStateException if the collection has been closed
+	 */
+	private void checkOpen() throws IllegalStateException {
+		if (closed) {
+			throw new IllegalStateException("Collection is closed");
+		}
+	}
+
+	/**
+	 * Check whether data is stored in the memtable, a frozen memtable or a run.
+	 * @param data the value to check for in the collection
+	 * @return true if the collection contains data one or more times,
+	 * and false otherwise
+	 * @throws UncheckedIOException if a run file cannot be read
+	 */
+	@Override
+	public boolean contains(Comparable<T> data) {
+		List<RedBlackTree<T>> frozenTrees;
+		List<SortedRun<T>> runList;
+		List<Runnable> releases;
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			if (memtable.contains(data)) {
+				return true;
+			}
+			frozenTrees = frozen;
+			runList = runs;
+			releases = acquire(runList);
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		try {
+			for (RedBlackTree<T> tree : frozenTrees) {
+				if (tree.contains(data)) {
+					return true;
+				}
+			}
+			for (SortedRun<T> run : runList) {
+				if (run.contains(data)) {
+					return true;
+				}
+			}
+			return false;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			releases.forEach(Runnable::run);
+		}
+	}
+
+	/**
+	 * Takes a reader's reference to every run of runList, so that queries can
+	 * read them after letting go of the lock, which the caller holds, without
+	 * holding up inserts. Frozen memtables are never modified, and the frozen
+	 * and run lists are replaced rather than changed, so both can be read
+	 * unlocked as well.
+	 * @return the releases of the references taken, in the order of runList
+	 */
+	private static <T extends Comparable<T>> List<Runnable> acquire(List<SortedRun<T>> runList) {
+		List<Runnable> releases = new ArrayList<>(runList.size());
+		for (SortedRun<T> run : runList) {
+			releases.add(run.acquire());
+		}
+		return releases;
+	}
+
+	/**
+	 * Counts the number of values in the collection, with each duplicate value
+	 * being counted separately within the value returned.
+	 * @return the number of values in the collection, including duplicates
+	 */
+	@Override
+	public int size() {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			long size = memtableCount;
+			for (int count : frozenCounts) {
+				size += count;
+			}
+			for (SortedRun<T> run : runs) {
+				size += run.count;
+			}
+			return (int) Math.min(Integer.MAX_VALUE, size);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Checks if the collection is empty.
+	 * @return true if the collection contains 0 values, false otherwise
+	 */
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Removes all values and duplicates from the collection and deletes every
+	 * run file. Background work that is still running is discarded.
+	 * @throws UncheckedIOException if a run file cannot be deleted
+	 */
+	@Override
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			generation++;
+			memtable = new RedBlackTree<>();
+			memtableCount = 0;
+			frozen = new ArrayList<>();
+			frozenCounts = new ArrayList<>();
+			for (SortedRun<T> run : runs) {
+				run.discard();
+			}
+			runs = new ArrayList<>();
+			backgroundFailure = null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the greatest value less than or equal to data in any part of the collection.
+	 */
+	@Override
+	public T floor(Comparable<T> data) {
+		return search(data, true, true);
+	}
+
+	/**
+	 * Finds the least value greater than or equal to data in any part of the collection.
+	 */
+	@Override
+	public T ceiling(Comparable<T> data) {
+		return search(data, false, true);
+	}
+
+	/**
+	 * Finds the greatest value strictly less than data in any part of the collection.
+	 */
+	@Override
+	public T lower(Comparable<T> data) {
+		return search(data, true, false);
+	}
+
+	/**
+	 * Finds the least value strictly greater than data in any part of the collection.
+	 */
+	@Override
+	public T higher(Comparable<T> data) {
+		return search(data, false, false);
+	}
+
+	/**
+	 * Runs floor, ceiling, lower or higher on every part of the collection and
+	 * keeps the closest answer.
+	 * @param below true to search for values below data, false for above
+	 * @param inclusive true if data itself is an acceptable answer
+	 */
+	private T search(Comparable<T> data, boolean below, boolean inclusive) {
+		T best;
+		List<RedBlackTree<T>> frozenTrees;
+		List<SortedRun<T>> runList;
+		List<Runnable> releases;
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			best = search(memtable, data, below, inclusive);
+			frozenTrees = frozen;
+			runList = runs;
+			releases = acquire(runList);
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		try {
+			for (RedBlackTree<T> tree : frozenTrees) {
+				best = closer(best, search(tree, data, below, inclusive), below);
+			}
+			for (SortedRun<T> run : runList) {
+				T candidate = below ? run.floor(data, inclusive) : run.ceiling(data, inclusive);
+				best = closer(best, candidate, below);
+			}
+			return best;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			releases.forEach(Runnable::run);
+		}
+	}
+
+	/**
+	 * Runs floor, ceiling, lower or higher on tree, as chosen by below and inclusive.
+	 */
+	private T search(RedBlackTree<T> tree, Comparable<T> data, boolean below, boolean inclusive) {
+		return below ? (inclusive ? tree.floor(data) : tree.lower(data))
+			: (inclusive ? tree.ceiling(data) : tree.higher(data));
+	}
+
+	/**
+	 * @return whichever of best and candidate is larger when below is true,
+	 * or smaller when below is false, ignoring nulls
+	 */
+	private T closer(T best, T candidate, boolean below) {
+		if (candidate == null) {
+			return best;
+		}
+		if (best == null) {
+			return candidate;
+		}
+		int comp = candidate.compareTo(best);
+		return (below ? comp > 0 : comp < 0) ? candidate : best;
+	}
+
+	/**
+	 * @return the smallest value in the collection, or null if it is empty
+	 */
+	@Override
+	public T first() {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			T best = memtable.first();
+			for (RedBlackTree<T> tree : frozen) {
+				best = closer(best, tree.first(), false);
+			}
+			for (SortedRun<T> run : runs) {
+				best = closer(best, run.firstValues.get(0), false);
+			}
+			return best;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the largest value in the collection, or null if it is empty
+	 */
+	@Override
+	public T last() {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			T best = memtable.last();
+			for (RedBlackTree<T> tree : frozen) {
+				best = closer(best, tree.last(), true);
+			}
+			for (SortedRun<T> run : runs) {
+				best = closer(best, run.lastValue, true);
+			}
+			return best;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Iterates over every value in ascending order by merging the memtable,
+	 * the frozen memtables and every run. The memtable is copied when the
+	 * iterator is created. Runs are read through their shared channels, and
+	 * the iterator keeps a reference to each run until it has read the
+	 * run's last block, so compactions that happen while iterating don't
+	 * affect the iterator. The references of an iterator that is dropped
+	 * before its end are released once it is garbage collected.
+	 * @return an iterator over the values in order
+	 * @throws UncheckedIOException if a run file cannot be read
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		List<T> memtableCopy;
+		List<RedBlackTree<T>> frozenTrees;
+		List<SortedRun<T>> runList;
+		List<Runnable> releases;
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			memtableCopy = new ArrayList<>(memtableCount);
+			memtable.forEach(memtableCopy::add);
+			frozenTrees = frozen;
+			runList = runs;
+			releases = acquire(runList);
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		//the merging iterator reads the first block of every run
+		try {
+			List<Iterator<T>> sources = new ArrayList<>();
+			sources.add(memtableCopy.iterator());
+			for (RedBlackTree<T> tree : frozenTrees) {
+				sources.add(tree.iterator());
+			}
+			for (int i = 0; i < runList.size(); i++) {
+				sources.add(runList.get(i).iterator(releases.get(i)));
+			}
+			Iterator<T> iterator = new MergingIterator<>(sources);
+			if (!releases.isEmpty()) {
+				CLEANER.register(iterator, () -> releases.forEach(Runnable::run));
+			}
+			return iterator;
+		} catch (RuntimeException e) {
+			releases.forEach(Runnable::run);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the number of run files currently in use
+	 */
+	public int runCount() {
+		lock.readLock().lock();
+		try {
+			return runs.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes the memtable to a run, waits for background work to finish and
+	 * closes every run file that no iterator is still reading; those are
+	 * closed once the iterators finish with them. The collection rejects
+	 * operations as soon as close starts.
+	 * @throws IOException if the memtable cannot be written, or if background
+	 * work failed earlier
+	 */
+	@Override
+	public void close() throws IOException {
+		long sequence;
+		long closeGeneration;
+		RedBlackTree<T> last;
+		lock.writeLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			//set before the memtable is frozen, so no insert can reach the new one, which is never flushed
+			closed = true;
+			last = memtable;
+			sequence = nextSequence++;
+			closeGeneration = generation;
+			freeze();
+			//queued under the lock like insert does, keeping flushes in sequence order
+			background.execute(() -> flush(last, sequence, closeGeneration));
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		background.shutdown();
+		try {
+			background.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (SortedRun<T> run : runs) {
+				run.release();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		if (backgroundFailure != null) {
+			throw backgroundFailure;
+		}
+	}
+
+	/**
+	 * Deletes directory and every file in it.
+	 */
+	private static void deleteDirectory(Path directory) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	/**
+	 * Tests queries and ordered iteration while values move from the memtable
+	 * to runs and runs are compacted
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test1() {
+		try {
+			Path directory = Files.createTempDirectory("lsm");
+			try (LsmSortedCollection<Integer> lsm = new LsmSortedCollection<>(directory, Codec.INTEGERS, 500, 3)) {
+				for (int i = 0; i < 10000; i++) {
+					lsm.insert((i * 7919) % 10000 * 2); //every even value below 20000
+				}
+
+				if (lsm.size() != 10000 || !lsm.contains(0) || !lsm.contains(19998) || lsm.contains(7)) {
+					System.out.println("Test 1 - Actual size: " + lsm.size());
+					return false;
+				}
+
+				if (lsm.floor(7) != 6 || lsm.ceiling(7) != 8 || lsm.lower(6) != 4 || lsm.higher(6) != 8
+					|| lsm.first() != 0 || lsm.last() != 19998 || lsm.lower(0) != null || lsm.higher(19998) != null) {
+					System.out.println("Test 1 - navigation across runs failed");
+					return false;
+				}
+
+				int expected = 0;
+				for (int value : lsm) {
+					if (value != expected) {
+						System.out.println("Test 1 - expected " + expected + " but iterated " + value);
+						return false;
+					}
+					expected += 2;
+				}
+				if (expected != 20000) {
+					System.out.println("Test 1 - iteration stopped early at " + expected);
+					return false;
+				}
+			} finally {
+				deleteDirectory(directory);
+			}
+		} catch (IOException e) {
+			System.out.println("Test 1 - " + e);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Tests that closing and reopening keeps every value, including duplicates,
+	 * and that clear removes the run files
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test2() {
+		try {
+			Path directory = Files.createTempDirectory("lsm");
+			try {
+				try (LsmSortedCollection<String> lsm = new LsmSortedCollection<>(directory, Codec.STRINGS, 100, 2)) {
+					for (int i = 0; i < 1000; i++) {
+						lsm.insert("key" + (i % 500));
+					}
+				}
+
+				try (LsmSortedCollection<String> lsm = new LsmSortedCollection<>(directory, Codec.STRINGS, 100, 2)) {
+					if (lsm.size() != 1000 || !lsm.contains("key499") || lsm.contains("key500")) {
+						System.out.println("Test 2 - Actual size after reopening: " + lsm.size());
+						return false;
+					}
+
+					lsm.clear();
+					if (!lsm.isEmpty() || lsm.runCount() != 0 || lsm.first() != null) {
+						System.out.println("Test 2 - collection should be empty after clear");
+						return false;
+					}
+				}
+			} finally {
+				deleteDirectory(directory);
+			}
+		} catch (IOException e) {
+			System.out.println("Test 2 - " + e);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Tests that compaction keeps the number of runs logarithmic, that an
+	 * iterator keeps reading runs that compactions replace, and that a
+	 * replaced run left behind by a crash is deleted on reopening
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test3() {
+		try {
+			Path directory = Files.createTempDirectory("lsm");
+			try {
+				LsmSortedCollection<Integer> lsm = new LsmSortedCollection<>(directory, Codec.INTEGERS, 100, 2);
+				Iterator<Integer> early;
+				Iterator<Integer> late;
+				try {
+					for (int i = 0; i < 1000; i++) {
+						lsm.insert(i);
+					}
+					early = lsm.iterator();
+					for (int i = 1000; i < 21000; i++) {
+						lsm.insert(i);
+					}
+					late = lsm.iterator();
+				} finally {
+					lsm.close();
+				}
+				try {
+					lsm.insert(0);
+					System.out.println("Test 3 - insert after close was accepted");
+					return false;
+				} catch (IllegalStateException expected) {
+				}
+
+				//the runs stay readable for iterators created before close
+				int count = 0;
+				while (late.hasNext()) {
+					late.next();
+					count++;
+				}
+				if (count != 21000) {
+					System.out.println("Test 3 - iterator read " + count + " values after close");
+					return false;
+				}
+
+				int expected = 0;
+				while (early.hasNext()) {
+					if (early.next() != expected++) {
+						System.out.println("Test 3 - iterator lost its place at " + (expected - 1));
+						return false;
+					}
+				}
+				if (expected != 1000) {
+					System.out.println("Test 3 - iterator stopped at " + expected);
+					return false;
+				}
+				//tiers hold fewer than 300, 900, 2700, 8100 and 24300 values
+				if (lsm.runCount() > 10) {
+					System.out.println("Test 3 - too many runs: " + lsm.runCount());
+					return false;
+				}
+
+				Path merged = null;
+				try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, RUN_PREFIX + "*-*" + RUN_SUFFIX)) {
+					for (Path file : files) {
+						merged = file;
+					}
+				}
+				if (merged == null) {
+					System.out.println("Test 3 - no merged run was written");
+					return false;
+				}
+				Path leftover = directory.resolve(RUN_PREFIX + SortedRun.sequences(merged)[0] + RUN_SUFFIX);
+				Files.copy(merged, leftover);
+
+				try (LsmSortedCollection<Integer> reopened = new LsmSortedCollection<>(directory, Codec.INTEGERS, 100, 2)) {
+					if (reopened.size() != 21000 || Files.exists(leftover)) {
+						System.out.println("Test 3 - replaced run was not discarded, size " + reopened.size());
+						return false;
+					}
+				}
+			} finally {
+				deleteDirectory(directory);
+			}
+		} catch (IOException e) {
+			System.out.println("Test 3 - " + e);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * calls test methods and prints results
+	 * @param args - unused
+	 */
+	public static void main(String[] args) {
+		System.out.println("Test 1 result: " + test1());
+		System.out.println("Test 2 result: " + test2());
+		System.out.println("Test 3 result: " + test3());
+	}
+
+}
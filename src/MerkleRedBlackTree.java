@@ -0,0 +1,349 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Red black tree in which every node caches a hash and a count of the values
+ * in its subtree, so that two trees can be compared without visiting every
+ * value. The hash of a set of values is the sum of a mixed hash of each
+ * value, which does not depend on the order or shape of the tree: two trees
+ * holding the same values, with the same duplicates, have equal hashes
+ * however they were built. The hash and count of any range of values are
+ * found in O(log n), and diff uses them to split the key space and only
+ * descend into ranges whose hashes differ.
+ *
+ * Equal values must have equal hashCodes. Two different sets of values
+ * collide with a probability of about 2^-64 per compared range.
+ * @param <T> type of the values
+ */
+public class MerkleRedBlackTree<T extends Comparable<T>> extends RedBlackTree<T> {
+
+	/**
+	 * Red black tree node that also stores the hash and count of its subtree.
+	 */
+	protected static class MerkleNode<T> extends RBTNode<T> {
+
+		// sum of the mixed hashes of every value in this node's subtree
+		protected long hash;
+		// number of values in this node's subtree
+		protected int count = 1;
+
+		/**
+		 * Creates a new red node holding data.
+		 */
+		public MerkleNode(T data) {
+			super(data);
+			this.hash = mix(data.hashCode());
+		}
+	}
+
+	/**
+	 * Hash and count of the values in a range.
+	 */
+	private static final class Range {
+		long hash = 0;
+		int count = 0;
+	}
+
+	/**
+	 * Values found by diff in only one of the two trees. A value stored more
+	 * often in one tree is listed once for every extra copy.
+	 */
+	public static class Diff<T> {
+
+		// values that are in this tree but not in the other, in ascending order
+		private final List<T> onlyHere = new ArrayList<>();
+		// values that are in the other tree but not in this one, in ascending order
+		private final List<T> onlyThere = new ArrayList<>();
+
+		/**
+		 * @return values missing from the other tree, in ascending order
+		 */
+		public List<T> getOnlyHere() { return onlyHere; }
+
+		/**
+		 * @return values missing from this tree, in ascending order
+		 */
+		public List<T> getOnlyThere() { return onlyThere; }
+
+		/**
+		 * @return true if both trees hold the same values
+		 */
+		public boolean isEmpty() { return onlyHere.isEmpty() && onlyThere.isEmpty(); }
+
+		@Override
+		public String toString() {
+			return "only here " + onlyHere + ", only there " + onlyThere;
+		}
+	}
+
+	/**
+	 * Spreads the bits of a hashCode over 64 bits, so that summing the mixed
+	 * hashes of different sets rarely gives the same result.
+	 */
+	private static long mix(int hashCode) {
+		long z = hashCode + 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	@Override
+	protected RBTNode<T> createNode(T data) {
+		return new MerkleNode<>(data);
+	}
+
+	/**
+	 * @return a new tree with the same values in the same node layout, and
+	 * so the same hashes, which are recomputed as it is built
+	 */
+	@Override
+	public MerkleRedBlackTree<T> copy() {
+		MerkleRedBlackTree<T> copy = new MerkleRedBlackTree<>();
+		copyInto(copy);
+		return copy;
+	}
+
+	/**
+	 * Recomputes node's hash and count from its children and its own value.
+	 */
+	@Override
+	protected void refresh(BSTNode<T> node) {
+		MerkleNode<T> merkle = (MerkleNode<T>) node;
+		merkle.hash = mix(node.data.hashCode()) + hash(node.left) + hash(node.right);
+		merkle.count = 1 + count(node.left) + count(node.right);
+	}
+
+	/**
+	 * @return the hash of the subtree rooted at node, or 0 if node is null
+	 */
+	private static long hash(BSTNode<?> node) {
+		return node == null ? 0 : ((MerkleNode<?>) node).hash;
+	}
+
+	/**
+	 * @return the number of values in the subtree rooted at node, or 0 if node is null
+	 */
+	private static int count(BSTNode<?> node) {
+		return node == null ? 0 : ((MerkleNode<?>) node).count;
+	}
+
+	/**
+	 * @return the hash of every value in the tree, 0 if it is empty
+	 */
+	public long rootHash() {
+		return hash(root);
+	}
+
+	/**
+	 * @return the number of values in the tree, including duplicates
+	 */
+	@Override
+	public int size() {
+		return count(root);
+	}
+
+	/**
+	 * Adds the hash and count of every value below bound, or at most bound if
+	 * inclusive, to range. A null bound stands for no value.
+	 */
+	private void addBelow(T bound, boolean inclusive, Range range, int sign) {
+		BSTNode<T> node = bound == null ? null : root;
+		while (node != null) {
+			int comp = bound.compareTo(node.data);
+			if (comp > 0 || (inclusive && comp == 0)) {
+				range.hash += sign * (hash(node.left) + mix(node.data.hashCode()));
+				range.count += sign * (count(node.left) + 1);
+				node = node.right;
+			}
+			else {
+				node = node.left;
+			}
+		}
+	}
+
+	/**
+	 * Finds the hash and count of the values strictly between lo and hi,
+	 * where a null lo or hi leaves that side unbounded.
+	 */
+	private Range range(T lo, T hi) {
+		Range range = new Range();
+		if (hi == null) {
+			range.hash = hash(root);
+			range.count = count(root);
+		}
+		else {
+			addBelow(hi, false, range, 1);
+		}
+		addBelow(lo, true, range, -1);
+		return range;
+	}
+
+	/**
+	 * @return the hash of the values strictly between lo and hi, where a null
+	 * lo or hi leaves that side unbounded
+	 */
+	public long rangeHash(T lo, T hi) {
+		return range(lo, hi).hash;
+	}
+
+	/**
+	 * @return the number of copies of value in the tree
+	 */
+	private int countEqual(T value) {
+		Range range = new Range();
+		addBelow(value, true, range, 1);
+		addBelow(value, false, range, -1);
+		return range.count;
+	}
+
+	/**
+	 * @return the value at position rank of the values in ascending order
+	 */
+	private T select(int rank) {
+		BSTNode<T> node = root;
+		while (true) {
+			int leftCount = count(node.left);
+			if (rank < leftCount) {
+				node = node.left;
+			}
+			else if (rank == leftCount) {
+				return node.data;
+			}
+			else {
+				rank -= leftCount + 1;
+				node = node.right;
+			}
+		}
+	}
+
+	/**
+	 * Adds every value of the subtree rooted at node strictly between lo and
+	 * hi to values, in ascending order.
+	 */
+	private void collect(BSTNode<T> node, T lo, T hi, List<T> values) {
+		if (node == null) {
+			return;
+		}
+		boolean aboveLo = lo == null || node.data.compareTo(lo) > 0;
+		boolean belowHi = hi == null || node.data.compareTo(hi) < 0;
+		//duplicates of a bound can sit on either side of it, so only prune strictly past it
+		if (lo == null || node.data.compareTo(lo) >= 0) {
+			collect(node.left, lo, hi, values);
+		}
+		if (aboveLo && belowHi) {
+			values.add(node.data);
+		}
+		if (hi == null || node.data.compareTo(hi) <= 0) {
+			collect(node.right, lo, hi, values);
+		}
+	}
+
+	/**
+	 * Finds the values that are in only one of this tree and other. The key
+	 * space is split at the median value of this tree within each range, and
+	 * a range is only searched further while its hash or count differs
+	 * between the trees, so the work grows with the number of differences
+	 * rather than the size of the trees.
+	 * @param other the tree to compare with
+	 * @return the values found in only one of the trees
+	 */
+	public Diff<T> diff(MerkleRedBlackTree<T> other) {
+		Diff<T> diff = new Diff<>();
+		diffRange(other, null, null, diff);
+		return diff;
+	}
+
+	/**
+	 * Adds the differences between the values strictly between lo and hi in
+	 * this tree and other to diff, in ascending order.
+	 */
+	private void diffRange(MerkleRedBlackTree<T> other, T lo, T hi, Diff<T> diff) {
+		Range here = range(lo, hi);
+		Range there = other.range(lo, hi);
+		if (here.hash == there.hash && here.count == there.count) {
+			return;
+		}
+		if (here.count == 0) {
+			other.collect(other.root, lo, hi, diff.onlyThere);
+			return;
+		}
+		if (there.count == 0) {
+			collect(root, lo, hi, diff.onlyHere);
+			return;
+		}
+
+		//split at the middle value of this tree's part of the range
+		Range belowRange = new Range();
+		addBelow(lo, true, belowRange, 1);
+		T split = select(belowRange.count + here.count / 2);
+
+		diffRange(other, lo, split, diff);
+
+		int copiesHere = countEqual(split);
+		int copiesThere = other.countEqual(split);
+		List<T> extra = copiesHere > copiesThere ? diff.onlyHere : diff.onlyThere;
+		extra.addAll(Collections.nCopies(Math.abs(copiesHere - copiesThere), split));
+
+		diffRange(other, split, hi, diff);
+	}
+
+	/**
+	 * Checks that trees holding the same values have the same hash whatever
+	 * order the values were inserted in
+	 */
+	@Test
+	public void merkleTest1() {
+		MerkleRedBlackTree<Integer> ascending = new MerkleRedBlackTree<>();
+		MerkleRedBlackTree<Integer> shuffled = new MerkleRedBlackTree<>();
+		List<Integer> values = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			values.add(i / 3); //some values three times
+		}
+
+		values.forEach(ascending::insert);
+		Collections.shuffle(values, new Random(43));
+		values.forEach(shuffled::insert);
+
+		assertEquals(ascending.rootHash(), shuffled.rootHash());
+		assertEquals(ascending.rangeHash(100, 200), shuffled.rangeHash(100, 200));
+		assertNotEquals(ascending.rangeHash(100, 200), ascending.rangeHash(100, 201));
+		assertTrue(ascending.diff(shuffled).isEmpty());
+		assertTrue(shuffled.validate().isValid());
+
+		shuffled.insert(1000);
+		assertNotEquals(ascending.rootHash(), shuffled.rootHash());
+	}
+
+	/**
+	 * Checks that diff finds every missing value and every extra duplicate
+	 */
+	@Test
+	public void merkleTest2() {
+		MerkleRedBlackTree<Integer> here = new MerkleRedBlackTree<>();
+		MerkleRedBlackTree<Integer> there = new MerkleRedBlackTree<>();
+		for (int i = 0; i < 10000; i++) {
+			if (i != 17 && i != 5000) {
+				here.insert(i);
+			}
+			if (i != 9999) {
+				there.insert(i);
+			}
+		}
+		here.insert(300);
+		here.insert(300);
+		there.insert(12345);
+
+		Diff<Integer> diff = here.diff(there);
+		assertEquals(List.of(300, 300, 9999), diff.getOnlyHere());
+		assertEquals(List.of(17, 5000, 12345), diff.getOnlyThere());
+
+		assertTrue(there.diff(new MerkleRedBlackTree<>()).getOnlyThere().isEmpty());
+		assertEquals(there.size(), there.diff(new MerkleRedBlackTree<>()).getOnlyHere().size());
+	}
+
+}
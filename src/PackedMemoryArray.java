@@ -0,0 +1,430 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SortedCollection stored in one array with gaps spread evenly through it,
+ * a packed memory array. The array is split into segments of about log n
+ * slots; each segment keeps its values sorted and packed at its start, and
+ * the rest of the segment is free space for later inserts. An insert into a
+ * full segment redistributes the values of the smallest enclosing window of
+ * segments whose density is within its limit, where the limit falls from
+ * 100% for a single segment to 75% for the whole array, and the array
+ * doubles when even the whole array is too dense. This gives amortized
+ * O(log^2 n) inserts, while in-order scans read the array front to back
+ * without following any references between nodes.
+ * @param <T> type of the values
+ */
+public class PackedMemoryArray<T extends Comparable<T>> implements SortedCollection<T>, Iterable<T> {
+
+	// slots in a new array
+	private static final int INITIAL_CAPACITY = 16;
+	// density limit of the whole array, windows in between get a linear share
+	private static final double ROOT_DENSITY = 0.75;
+
+	// the values, segment by segment, with unused slots set to null
+	private Object[] slots;
+	// number of values at the start of each segment
+	private int[] counts;
+	// slots per segment, a power of two
+	private int segmentSize;
+	// number of segments, a power of two
+	private int segmentCount;
+	// log base 2 of segmentCount, the number of window levels above a segment
+	private int height;
+	// number of values, including duplicates
+	private int size = 0;
+
+	/**
+	 * Creates an empty array.
+	 */
+	public PackedMemoryArray() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Replaces the array with an empty one of capacity slots, split into
+	 * segments of about log2(capacity) slots.
+	 */
+	private void allocate(int capacity) {
+		int log = 31 - Integer.numberOfLeadingZeros(capacity);
+		segmentSize = Math.max(4, Integer.highestOneBit(log - 1) << 1);
+		segmentCount = capacity / segmentSize;
+		height = 31 - Integer.numberOfLeadingZeros(segmentCount);
+		slots = new Object[capacity];
+		counts = new int[segmentCount];
+	}
+
+	@SuppressWarnings("unchecked")
+	private T get(int segment, int index) {
+		return (T) slots[segment * segmentSize + index];
+	}
+
+	/**
+	 * Finds the last non-empty segment whose first value is less than data,
+	 * or less than or equal to data if inclusive.
+	 * @return the segment, or -1 if there is none
+	 */
+	private int lastSegmentStartingBefore(Comparable<T> data, boolean inclusive) {
+		int lo = 0;
+		int hi = segmentCount - 1;
+		int result = -1;
+		while (lo <= hi) {
+			int middle = (lo + hi) >>> 1;
+			//empty segments say nothing, look at the next non-empty one in range
+			int segment = middle;
+			while (segment <= hi && counts[segment] == 0) {
+				segment++;
+			}
+			if (segment > hi) {
+				hi = middle - 1;
+				continue;
+			}
+			int comp = data.compareTo(get(segment, 0));
+			if (comp > 0 || (inclusive && comp == 0)) {
+				result = segment;
+				lo = segment + 1;
+			}
+			else {
+				hi = middle - 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the first index in segment whose value is greater than data (or
+	 * greater than or equal to data if not inclusive), or the segment's count
+	 */
+	private int searchSegment(int segment, Comparable<T> data, boolean inclusive) {
+		int lo = 0;
+		int hi = counts[segment];
+		while (lo < hi) {
+			int middle = (lo + hi) >>> 1;
+			int comp = data.compareTo(get(segment, middle));
+			if (comp > 0 || (inclusive && comp == 0)) {
+				lo = middle + 1;
+			}
+			else {
+				hi = middle;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the first value of the first non-empty segment after segment, or null
+	 */
+	private T firstAfter(int segment) {
+		for (int s = segment + 1; s < segmentCount; s++) {
+			if (counts[s] > 0) {
+				return get(s, 0);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Inserts a new data value after any equal values, redistributing a
+	 * window of segments or growing the array if its segment is full.
+	 * @param data the new value being inserted
+	 * @throws NullPointerException if data argument is null, we do not allow
+	 * null values to be stored within a SortedCollection
+	 */
+	@Override
+	public void insert(T data) throws NullPointerException {
+		if (data == null) {
+			throw new NullPointerException("Data cannot be null.");
+		}
+
+		int segment = Math.max(0, lastSegmentStartingBefore(data, true));
+		if (counts[segment] < segmentSize) {
+			int index = searchSegment(segment, data, true);
+			int start = segment * segmentSize;
+			System.arraycopy(slots, start + index, slots, start + index + 1, counts[segment] - index);
+			slots[start + index] = data;
+			counts[segment]++;
+		}
+		else {
+			rebalance(segment, data);
+		}
+		size++;
+	}
+
+	/**
+	 * Inserts data into the full segment by spreading the values of the
+	 * smallest window around it that stays within its density limit evenly
+	 * over the window, or over a new array of twice the size.
+	 */
+	private void rebalance(int segment, T data) {
+		for (int level = 1; level <= height; level++) {
+			int windowSegments = 1 << level;
+			int first = segment & ~(windowSegments - 1);
+			int total = 1;
+			for (int s = first; s < first + windowSegments; s++) {
+				total += counts[s];
+			}
+			double limit = 1.0 - (1.0 - ROOT_DENSITY) * level / height;
+			if (total <= limit * windowSegments * segmentSize) {
+				spread(gather(first, windowSegments, total, data), first, windowSegments);
+				return;
+			}
+		}
+
+		Object[] values = gather(0, segmentCount, size + 1, data);
+		allocate(slots.length * 2);
+		spread(values, 0, segmentCount);
+	}
+
+	/**
+	 * @return the values of the given segments in order, with data merged in
+	 * after any equal values
+	 */
+	private Object[] gather(int first, int segments, int total, T data) {
+		Object[] values = new Object[total];
+		int i = 0;
+		boolean placed = false;
+		for (int s = first; s < first + segments; s++) {
+			for (int j = 0; j < counts[s]; j++) {
+				T value = get(s, j);
+				if (!placed && data.compareTo(value) < 0) {
+					values[i++] = data;
+					placed = true;
+				}
+				values[i++] = value;
+			}
+		}
+		if (!placed) {
+			values[i] = data;
+		}
+		return values;
+	}
+
+	/**
+	 * Writes values in order over the given segments, giving each segment an
+	 * equal share packed at its start.
+	 */
+	private void spread(Object[] values, int first, int segments) {
+		int base = values.length / segments;
+		int extra = values.length % segments;
+		int next = 0;
+		for (int s = first; s < first + segments; s++) {
+			int count = base + (s - first < extra ? 1 : 0);
+			int start = s * segmentSize;
+			System.arraycopy(values, next, slots, start, count);
+			Arrays.fill(slots, start + count, start + segmentSize, null);
+			counts[s] = count;
+			next += count;
+		}
+	}
+
+	@Override
+	public boolean contains(Comparable<T> data) {
+		T floor = floor(data);
+		return floor != null && data.compareTo(floor) == 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all values and duplicates, shrinking the array to its initial size.
+	 */
+	@Override
+	public void clear() {
+		allocate(INITIAL_CAPACITY);
+		size = 0;
+	}
+
+	@Override
+	public T floor(Comparable<T> data) {
+		return below(data, true);
+	}
+
+	@Override
+	public T lower(Comparable<T> data) {
+		return below(data, false);
+	}
+
+	@Override
+	public T ceiling(Comparable<T> data) {
+		return above(data, true);
+	}
+
+	@Override
+	public T higher(Comparable<T> data) {
+		return above(data, false);
+	}
+
+	/**
+	 * @return the greatest value less than data (or equal to it if inclusive), or null
+	 */
+	private T below(Comparable<T> data, boolean inclusive) {
+		//later segments start with values that don't qualify, so only this one can hold the answer
+		int segment = lastSegmentStartingBefore(data, inclusive);
+		if (segment < 0) {
+			return null;
+		}
+		return get(segment, searchSegment(segment, data, inclusive) - 1);
+	}
+
+	/**
+	 * @return the least value greater than data (or equal to it if inclusive), or null
+	 */
+	private T above(Comparable<T> data, boolean inclusive) {
+		//every segment after this one starts with a value that qualifies
+		int segment = lastSegmentStartingBefore(data, !inclusive);
+		if (segment >= 0) {
+			int index = searchSegment(segment, data, !inclusive);
+			if (index < counts[segment]) {
+				return get(segment, index);
+			}
+		}
+		return firstAfter(segment);
+	}
+
+	@Override
+	public T first() {
+		return firstAfter(-1);
+	}
+
+	@Override
+	public T last() {
+		for (int s = segmentCount - 1; s >= 0; s--) {
+			if (counts[s] > 0) {
+				return get(s, counts[s] - 1);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Passes every value from lo (inclusive) to hi (exclusive) to action in
+	 * ascending order, reading the array sequentially.
+	 * @param lo the smallest value to include
+	 * @param hi the value to stop before
+	 * @param action called with each value in the range
+	 */
+	public void forEachInRange(Comparable<T> lo, Comparable<T> hi, Consumer<? super T> action) {
+		int segment = Math.max(0, lastSegmentStartingBefore(lo, false));
+		int index = searchSegment(segment, lo, false);
+		for (; segment < segmentCount; segment++, index = 0) {
+			for (; index < counts[segment]; index++) {
+				T value = get(segment, index);
+				if (hi.compareTo(value) <= 0) {
+					return;
+				}
+				action.accept(value);
+			}
+		}
+	}
+
+	/**
+	 * Iterates over the values in ascending order, including duplicates. The
+	 * iterator must not be used after the collection is modified.
+	 * @return an iterator over the values in order
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private int segment = 0;
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				while (segment < segmentCount && index >= counts[segment]) {
+					segment++;
+					index = 0;
+				}
+				return segment < segmentCount;
+			}
+
+			@Override
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return get(segment, index++);
+			}
+		};
+	}
+
+	/**
+	 * Checks that ascending, descending and random inserts keep every value
+	 * in order and answer queries like a sorted list
+	 */
+	@Test
+	public void pmaTest1() {
+		for (int pattern = 0; pattern < 3; pattern++) {
+			PackedMemoryArray<Integer> pma = new PackedMemoryArray<>();
+			List<Integer> expected = new ArrayList<>();
+			Random random = new Random(45);
+			for (int i = 0; i < 3000; i++) {
+				int value = pattern == 0 ? i : pattern == 1 ? -i : random.nextInt(1000) * 2;
+				pma.insert(value);
+				expected.add(value);
+			}
+			expected.sort(null);
+
+			assertEquals(3000, pma.size());
+			List<Integer> actual = new ArrayList<>();
+			pma.forEach(actual::add);
+			assertEquals(expected, actual);
+			assertEquals(expected.get(0), pma.first());
+			assertEquals(expected.get(2999), pma.last());
+		}
+
+		PackedMemoryArray<Integer> pma = new PackedMemoryArray<>();
+		for (int i = 0; i < 500; i++) {
+			pma.insert(i / 2 * 2); //every even value below 500, twice
+		}
+		assertTrue(pma.contains(250));
+		assertFalse(pma.contains(251));
+		assertEquals(250, pma.floor(251));
+		assertEquals(248, pma.lower(250));
+		assertEquals(252, pma.ceiling(251));
+		assertEquals(252, pma.higher(250));
+		assertNull(pma.lower(0));
+		assertNull(pma.higher(498));
+	}
+
+	/**
+	 * Checks range scans and clear
+	 */
+	@Test
+	public void pmaTest2() {
+		PackedMemoryArray<Integer> pma = new PackedMemoryArray<>();
+		assertNull(pma.first());
+		for (int i = 100; i > 0; i--) {
+			pma.insert(i);
+		}
+
+		List<Integer> range = new ArrayList<>();
+		pma.forEachInRange(10, 15, range::add);
+		assertEquals(List.of(10, 11, 12, 13, 14), range);
+
+		range.clear();
+		pma.forEachInRange(95, 1000, range::add);
+		assertEquals(List.of(95, 96, 97, 98, 99, 100), range);
+
+		pma.clear();
+		assertTrue(pma.isEmpty());
+		assertNull(pma.last());
+		assertFalse(pma.iterator().hasNext());
+	}
+
+}
@@ -0,0 +1,770 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Red black tree of long keys whose nodes are fixed-size records in the pages
+ * of a single file rather than objects on the heap. A node is referred to by
+ * its record number, 0 standing for null, and holds its key, the numbers of
+ * its left child, right child and parent, and its color, so insert and
+ * ensureRedProperty follow the same steps as RedBlackTree with node numbers
+ * in place of references.
+ *
+ * Pages are read and written through a buffer pool with a fixed number of
+ * page frames, so memory use does not grow with the tree. A page that is not
+ * in the pool replaces one chosen by the CLOCK algorithm: a hand sweeps the
+ * frames, giving every recently used page a second chance, and the first page
+ * not used since the hand last passed it is evicted, after being written back
+ * if it was changed. Pages near the root are used by every operation and stay
+ * in the pool.
+ *
+ * Page 0 holds the root and the number of nodes. Changes reach the file when
+ * their page is evicted, on flush and on close, and the tree in a file is
+ * opened again by the next PagedRedBlackTree created on it. Not thread safe.
+ */
+public class PagedRedBlackTree implements SortedCollection<Long>, Iterable<Long>, Closeable {
+
+	// bytes per page
+	public static final int PAGE_SIZE = 4096;
+	// key, left, right, up and color
+	private static final int RECORD_SIZE = 24;
+	private static final int RECORDS_PER_PAGE = PAGE_SIZE / RECORD_SIZE;
+	private static final int KEY = 0;
+	private static final int LEFT = 8;
+	private static final int RIGHT = 12;
+	private static final int UP = 16;
+	private static final int RED = 20;
+	// identifies files written by this class
+	private static final long MAGIC = 0x5042524254726565L;
+
+	/**
+	 * Fixed number of in-memory page frames over a file, replaced with CLOCK.
+	 */
+	private static final class BufferPool {
+
+		final FileChannel channel;
+		// page contents
+		final ByteBuffer[] frames;
+		// page number held by each frame, or -1 for an unused frame
+		final long[] pages;
+		// true for frames changed since they were read
+		final boolean[] dirty;
+		// true for frames used since the clock hand last passed them
+		final boolean[] referenced;
+		// frame holding each page in the pool
+		final Map<Long, Integer> frameOf = new HashMap<>();
+		// next frame the clock hand looks at
+		int hand = 0;
+		// number of page requests served from and not from the pool
+		long hits = 0;
+		long misses = 0;
+
+		BufferPool(FileChannel channel, int capacity) {
+			this.channel = channel;
+			frames = new ByteBuffer[capacity];
+			pages = new long[capacity];
+			dirty = new boolean[capacity];
+			referenced = new boolean[capacity];
+			for (int i = 0; i < capacity; i++) {
+				frames[i] = ByteBuffer.allocate(PAGE_SIZE);
+			}
+			Arrays.fill(pages, -1);
+		}
+
+		/**
+		 * @return the contents of page, reading it into a frame if needed
+		 */
+		ByteBuffer read(long page) {
+			Integer frame = frameOf.get(page);
+			if (frame != null) {
+				hits++;
+			}
+			else {
+				misses++;
+				frame = evict();
+				load(frame, page);
+			}
+			referenced[frame] = true;
+			return frames[frame];
+		}
+
+		/**
+		 * @return the contents of page, which will be written back before it is evicted
+		 */
+		ByteBuffer write(long page) {
+			ByteBuffer buffer = read(page);
+			dirty[frameOf.get(page)] = true;
+			return buffer;
+		}
+
+		/**
+		 * Moves the clock hand to the first frame that is unused or was not
+		 * used since the hand last passed it, and empties that frame.
+		 * @return the frame
+		 */
+		private int evict() {
+			while (pages[hand] >= 0 && referenced[hand]) {
+				referenced[hand] = false;
+				hand = (hand + 1) % frames.length;
+			}
+			int frame = hand;
+			hand = (hand + 1) % frames.length;
+			if (pages[frame] >= 0) {
+				if (dirty[frame]) {
+					writeBack(frame);
+				}
+				frameOf.remove(pages[frame]);
+				pages[frame] = -1;
+			}
+			return frame;
+		}
+
+		/**
+		 * Reads page into frame, as zeros past the end of the file.
+		 */
+		private void load(int frame, long page) {
+			ByteBuffer buffer = frames[frame];
+			buffer.clear();
+			try {
+				long position = page * PAGE_SIZE;
+				while (buffer.hasRemaining()) {
+					int read = channel.read(buffer, position + buffer.position());
+					if (read < 0) {
+						break;
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			while (buffer.hasRemaining()) {
+				buffer.put((byte) 0);
+			}
+			pages[frame] = page;
+			dirty[frame] = false;
+			frameOf.put(page, frame);
+		}
+
+		/**
+		 * Writes frame to its page of the file.
+		 */
+		private void writeBack(int frame) {
+			ByteBuffer buffer = frames[frame].duplicate();
+			buffer.clear();
+			try {
+				long position = pages[frame] * PAGE_SIZE;
+				while (buffer.hasRemaining()) {
+					channel.write(buffer, position + buffer.position());
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			dirty[frame] = false;
+		}
+
+		/**
+		 * Writes every changed frame to the file.
+		 */
+		void flush() {
+			for (int frame = 0; frame < frames.length; frame++) {
+				if (pages[frame] >= 0 && dirty[frame]) {
+					writeBack(frame);
+				}
+			}
+		}
+
+		/**
+		 * Empties every frame without writing it back.
+		 */
+		void discard() {
+			frameOf.clear();
+			Arrays.fill(pages, -1);
+			Arrays.fill(dirty, false);
+			Arrays.fill(referenced, false);
+			hand = 0;
+		}
+	}
+
+	private final FileChannel channel;
+	private final BufferPool pool;
+	// record number of the root, 0 if the tree is empty
+	private int root = 0;
+	// number of nodes, which are numbered from 1
+	private int size = 0;
+
+	/**
+	 * Opens the tree stored in file, or creates an empty tree if the file is
+	 * empty or does not exist.
+	 * @param file the file that holds the tree's pages
+	 * @param poolPages number of pages the buffer pool keeps in memory
+	 * @throws IOException if the file cannot be opened, or holds something
+	 * other than a tree
+	 * @throws IllegalArgumentException if poolPages is less than 2
+	 */
+	public PagedRedBlackTree(Path file, int poolPages) throws IOException, IllegalArgumentException {
+		if (poolPages < 2) {
+			throw new IllegalArgumentException("The buffer pool needs at least 2 pages");
+		}
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+			StandardOpenOption.WRITE);
+		pool = new BufferPool(channel, poolPages);
+
+		if (channel.size() > 0) {
+			ByteBuffer header = pool.read(0);
+			if (header.getLong(0) != MAGIC) {
+				channel.close();
+				throw new IOException(file + " does not hold a PagedRedBlackTree");
+			}
+			root = header.getInt(8);
+			size = header.getInt(12);
+		}
+	}
+
+	private static long pageOf(int node) {
+		return 1 + (node - 1) / RECORDS_PER_PAGE;
+	}
+
+	private static int offsetOf(int node) {
+		return (node - 1) % RECORDS_PER_PAGE * RECORD_SIZE;
+	}
+
+	private long key(int node) {
+		return pool.read(pageOf(node)).getLong(offsetOf(node) + KEY);
+	}
+
+	private int left(int node) {
+		return pool.read(pageOf(node)).getInt(offsetOf(node) + LEFT);
+	}
+
+	private int right(int node) {
+		return pool.read(pageOf(node)).getInt(offsetOf(node) + RIGHT);
+	}
+
+	private int up(int node) {
+		return pool.read(pageOf(node)).getInt(offsetOf(node) + UP);
+	}
+
+	/**
+	 * @return true if node is red, false if it is black or 0
+	 */
+	private boolean isRed(int node) {
+		return node != 0 && pool.read(pageOf(node)).getInt(offsetOf(node) + RED) != 0;
+	}
+
+	private void setLeft(int node, int child) {
+		pool.write(pageOf(node)).putInt(offsetOf(node) + LEFT, child);
+	}
+
+	private void setRight(int node, int child) {
+		pool.write(pageOf(node)).putInt(offsetOf(node) + RIGHT, child);
+	}
+
+	private void setUp(int node, int parent) {
+		pool.write(pageOf(node)).putInt(offsetOf(node) + UP, parent);
+	}
+
+	private void flipColor(int node) {
+		ByteBuffer page = pool.write(pageOf(node));
+		page.putInt(offsetOf(node) + RED, page.getInt(offsetOf(node) + RED) ^ 1);
+	}
+
+	/**
+	 * Inserts a new key, to the left of any equal keys, and repairs any red
+	 * property violation with ensureRedProperty.
+	 * @param data the key being inserted
+	 * @throws NullPointerException if data is null
+	 */
+	@Override
+	public void insert(Long data) throws NullPointerException {
+		if (data == null) {
+			throw new NullPointerException("Data cannot be null.");
+		}
+
+		int node = ++size;
+		ByteBuffer page = pool.write(pageOf(node));
+		int offset = offsetOf(node);
+		page.putLong(offset + KEY, data);
+		page.putInt(offset + LEFT, 0);
+		page.putInt(offset + RIGHT, 0);
+		page.putInt(offset + UP, 0);
+		page.putInt(offset + RED, 1);
+
+		if (root == 0) {
+			root = node;
+		}
+		else {
+			int parent = root;
+			while (true) {
+				if (data <= key(parent)) {
+					if (left(parent) == 0) {
+						setLeft(parent, node);
+						break;
+					}
+					parent = left(parent);
+				}
+				else {
+					if (right(parent) == 0) {
+						setRight(parent, node);
+						break;
+					}
+					parent = right(parent);
+				}
+			}
+			setUp(node, parent);
+		}
+		ensureRedProperty(node);
+		writeHeader();
+	}
+
+	/**
+	 * Repairs a red property violation caused by the red node newRedNode, the
+	 * same way as RedBlackTree.ensureRedProperty.
+	 * @param newRedNode a newly inserted red node, or a node turned red by previous repair
+	 */
+	private void ensureRedProperty(int newRedNode) {
+		//make root black
+		if (isRed(root)) {
+			flipColor(root);
+		}
+
+		//if the new node is the root or its parent is already black, return
+		if (newRedNode == root || !isRed(up(newRedNode))) {
+			return;
+		}
+
+		int parent = up(newRedNode);
+		int grandparent = up(parent);
+		if (grandparent == 0) {
+			return;
+		}
+		int aunt = left(grandparent) == parent ? right(grandparent) : left(grandparent);
+
+		if (!isRed(aunt)) {
+			//sub cases for if parent is grandparent's left child
+			if (parent == left(grandparent)) {
+				if (newRedNode == left(parent)) {
+					rotate(parent, grandparent);
+					flipColor(grandparent);
+					flipColor(parent);
+				}
+				else {
+					rotate(newRedNode, parent);
+					rotate(newRedNode, grandparent);
+					flipColor(newRedNode);
+					flipColor(grandparent);
+				}
+			}
+			//sub cases for if parent is grandparent's right child
+			else {
+				if (newRedNode == left(parent)) {
+					rotate(newRedNode, parent);
+					rotate(newRedNode, grandparent);
+					flipColor(newRedNode);
+					flipColor(grandparent);
+				}
+				else {
+					rotate(parent, grandparent);
+					flipColor(parent);
+					flipColor(grandparent);
+				}
+			}
+		}
+		else {
+			//recolor aunt and parent black, and grandparent red unless it is the root
+			flipColor(aunt);
+			flipColor(parent);
+			if (grandparent != root) {
+				flipColor(grandparent);
+			}
+		}
+
+		ensureRedProperty(grandparent);
+	}
+
+	/**
+	 * Rotates child into parent's position, the same way as BSTRotation.rotate.
+	 * @param child a child of parent
+	 * @param parent the node moving down
+	 */
+	private void rotate(int child, int parent) {
+		int grandparent = up(parent);
+		//right rotation (parent and left child)
+		if (left(parent) == child) {
+			int moved = right(child);
+			setLeft(parent, moved);
+			if (moved != 0) {
+				setUp(moved, parent);
+			}
+			setRight(child, parent);
+		}
+		//left rotation (parent and right child)
+		else if (right(parent) == child) {
+			int moved = left(child);
+			setRight(parent, moved);
+			if (moved != 0) {
+				setUp(moved, parent);
+			}
+			setLeft(child, parent);
+		}
+		else {
+			throw new IllegalArgumentException("Child must be direct child of parent node");
+		}
+
+		setUp(child, grandparent);
+		setUp(parent, child);
+		if (grandparent == 0) {
+			root = child;
+		}
+		else if (left(grandparent) == parent) {
+			setLeft(grandparent, child);
+		}
+		else {
+			setRight(grandparent, child);
+		}
+	}
+
+	/**
+	 * Stores the root and size in page 0.
+	 */
+	private void writeHeader() {
+		ByteBuffer header = pool.write(0);
+		header.putLong(0, MAGIC);
+		header.putInt(8, root);
+		header.putInt(12, size);
+	}
+
+	@Override
+	public boolean contains(Comparable<Long> data) {
+		int node = root;
+		while (node != 0) {
+			int comp = data.compareTo(key(node));
+			if (comp == 0) {
+				return true;
+			}
+			node = comp < 0 ? left(node) : right(node);
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all keys, truncating the file to its header page.
+	 */
+	@Override
+	public void clear() {
+		pool.discard();
+		root = 0;
+		size = 0;
+		try {
+			channel.truncate(PAGE_SIZE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		writeHeader();
+	}
+
+	@Override
+	public Long floor(Comparable<Long> data) {
+		return below(data, true);
+	}
+
+	@Override
+	public Long lower(Comparable<Long> data) {
+		return below(data, false);
+	}
+
+	@Override
+	public Long ceiling(Comparable<Long> data) {
+		return above(data, true);
+	}
+
+	@Override
+	public Long higher(Comparable<Long> data) {
+		return above(data, false);
+	}
+
+	/**
+	 * @return the greatest key less than data (or equal to it if inclusive), or null
+	 */
+	private Long below(Comparable<Long> data, boolean inclusive) {
+		int node = root;
+		int best = 0;
+		while (node != 0) {
+			int comp = data.compareTo(key(node));
+			if (comp > 0 || (inclusive && comp == 0)) {
+				best = node;
+				node = right(node);
+			}
+			else {
+				node = left(node);
+			}
+		}
+		return best == 0 ? null : key(best);
+	}
+
+	/**
+	 * @return the least key greater than data (or equal to it if inclusive), or null
+	 */
+	private Long above(Comparable<Long> data, boolean inclusive) {
+		int node = root;
+		int best = 0;
+		while (node != 0) {
+			int comp = data.compareTo(key(node));
+			if (comp < 0 || (inclusive && comp == 0)) {
+				best = node;
+				node = left(node);
+			}
+			else {
+				node = right(node);
+			}
+		}
+		return best == 0 ? null : key(best);
+	}
+
+	/**
+	 * @return the leftmost node of the subtree rooted at node, or 0 if node is 0
+	 */
+	private int leftmost(int node) {
+		while (node != 0 && left(node) != 0) {
+			node = left(node);
+		}
+		return node;
+	}
+
+	/**
+	 * @return the next node in order after node, or 0 if it is the last
+	 */
+	private int successor(int node) {
+		if (right(node) != 0) {
+			return leftmost(right(node));
+		}
+		int parent = up(node);
+		while (parent != 0 && right(parent) == node) {
+			node = parent;
+			parent = up(parent);
+		}
+		return parent;
+	}
+
+	@Override
+	public Long first() {
+		return root == 0 ? null : key(leftmost(root));
+	}
+
+	@Override
+	public Long last() {
+		int node = root;
+		while (node != 0 && right(node) != 0) {
+			node = right(node);
+		}
+		return node == 0 ? null : key(node);
+	}
+
+	/**
+	 * Iterates over the keys in ascending order, including duplicates. The
+	 * iterator must not be used after the tree is modified.
+	 * @return an iterator over the keys in order
+	 */
+	@Override
+	public Iterator<Long> iterator() {
+		return new Iterator<Long>() {
+			private int next = leftmost(root);
+
+			@Override
+			public boolean hasNext() {
+				return next != 0;
+			}
+
+			@Override
+			public Long next() {
+				if (next == 0) {
+					throw new NoSuchElementException();
+				}
+				long key = key(next);
+				next = successor(next);
+				return key;
+			}
+		};
+	}
+
+	/**
+	 * @return the fraction of page requests served from the buffer pool
+	 */
+	public double hitRatio() {
+		long requests = pool.hits + pool.misses;
+		return requests == 0 ? 0 : (double) pool.hits / requests;
+	}
+
+	/**
+	 * Writes every changed page to the file.
+	 */
+	public void flush() throws IOException {
+		try {
+			pool.flush();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		channel.force(false);
+	}
+
+	/**
+	 * Writes every changed page to the file and closes it.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return the black height of the subtree rooted at node, or -1 if it
+	 * breaks the red or black height property
+	 */
+	private int blackHeight(int node) {
+		if (node == 0) {
+			return 1;
+		}
+		if (isRed(node) && (isRed(left(node)) || isRed(right(node)))) {
+			return -1;
+		}
+		int left = blackHeight(left(node));
+		int right = blackHeight(right(node));
+		if (left < 0 || left != right) {
+			return -1;
+		}
+		return left + (isRed(node) ? 0 : 1);
+	}
+
+	/**
+	 * Tests random inserts with a buffer pool much smaller than the tree,
+	 * so pages are evicted and read back while the tree is rebalanced
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test1() {
+		try {
+			Path file = Files.createTempFile("paged", ".rbt");
+			try (PagedRedBlackTree tree = new PagedRedBlackTree(file, 8)) {
+				long[] keys = new long[20000];
+				Random random = new Random(49);
+				for (int i = 0; i < keys.length; i++) {
+					keys[i] = random.nextInt(10000) * 2L; //even keys, many of them twice
+					tree.insert(keys[i]);
+				}
+				Arrays.sort(keys);
+
+				if (tree.size() != keys.length || tree.isRed(tree.root) || tree.blackHeight(tree.root) < 0) {
+					System.out.println("Test 1 - tree is not a valid red black tree of " + keys.length + " keys");
+					return false;
+				}
+
+				int i = 0;
+				for (long key : tree) {
+					if (key != keys[i++]) {
+						System.out.println("Test 1 - expected " + keys[i - 1] + " but iterated " + key);
+						return false;
+					}
+				}
+
+				long probe = keys[keys.length / 2];
+				if (!tree.contains(probe) || tree.contains(probe + 1) || tree.floor(probe + 1) != probe
+					|| tree.ceiling(probe - 1) != probe || tree.lower(probe) >= probe || tree.higher(probe) <= probe
+					|| tree.first() != keys[0] || tree.last() != keys[keys.length - 1]) {
+					System.out.println("Test 1 - queries around " + probe + " failed");
+					return false;
+				}
+
+				if (tree.hitRatio() < 0.5 || Files.size(file) < 20000 / RECORDS_PER_PAGE * PAGE_SIZE) {
+					System.out.println("Test 1 - Actual hit ratio and file size: " + tree.hitRatio() + ", "
+						+ Files.size(file));
+					return false;
+				}
+			} finally {
+				Files.delete(file);
+			}
+		} catch (IOException e) {
+			System.out.println("Test 1 - " + e);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Tests that closing and reopening keeps every key, and that clear empties the file
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test2() {
+		try {
+			Path file = Files.createTempFile("paged", ".rbt");
+			try {
+				try (PagedRedBlackTree tree = new PagedRedBlackTree(file, 4)) {
+					for (long i = 0; i < 1000; i++) {
+						tree.insert(i);
+					}
+				}
+
+				try (PagedRedBlackTree tree = new PagedRedBlackTree(file, 4)) {
+					tree.insert(-1L);
+					if (tree.size() != 1001 || !tree.contains(999L) || tree.first() != -1 || tree.last() != 999
+						|| tree.blackHeight(tree.root) < 0) {
+						System.out.println("Test 2 - Actual size after reopening: " + tree.size());
+						return false;
+					}
+
+					tree.clear();
+					if (!tree.isEmpty() || tree.first() != null || tree.iterator().hasNext()
+						|| Files.size(file) != PAGE_SIZE) {
+						System.out.println("Test 2 - tree should be empty after clear");
+						return false;
+					}
+				}
+
+				Files.write(file, new byte[PAGE_SIZE]);
+				try {
+					new PagedRedBlackTree(file, 4).close();
+					System.out.println("Test 2 - opened a file without a tree");
+					return false;
+				} catch (IOException expected) {
+					//a page of zeros has no magic number
+				}
+			} finally {
+				Files.delete(file);
+			}
+		} catch (IOException e) {
+			System.out.println("Test 2 - " + e);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * calls test methods and prints results
+	 * @param args - unused
+	 */
+	public static void main(String[] args) {
+		System.out.println("Test 1 result: " + test1());
+		System.out.println("Test 2 result: " + test2());
+	}
+
+}
@@ -0,0 +1,536 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Red black tree of Strings that stores each key relative to its parent's
+ * key: a node keeps the length of the prefix it shares with its parent and
+ * only the characters after that prefix. Keys with long shared prefixes, such
+ * as URLs, then only store their differing tails.
+ *
+ * Searches never rebuild a node's key. Walking down the tree, the length of
+ * the common prefix between the searched value and the parent's key is
+ * known, so comparing against a node either starts after both known prefixes
+ * or is decided without looking at the node's characters at all. Each
+ * character of the searched value is therefore compared about once per
+ * search instead of once per level.
+ */
+public class PrefixStringRedBlackTree extends RedBlackTree<String> {
+
+	/**
+	 * Node whose data is its key with the first prefixLength characters,
+	 * which it shares with its parent's key, removed.
+	 */
+	protected static class PrefixNode extends RBTNode<String> {
+
+		// number of leading characters shared with the parent's key
+		protected int prefixLength;
+
+		/**
+		 * Creates a node holding key unencoded, as a root would store it.
+		 */
+		public PrefixNode(String key) {
+			super(key);
+		}
+	}
+
+	/**
+	 * Compares query with the key of node, given the comparison of query with
+	 * the key of node's parent.
+	 * @param parentLcp length of the common prefix of query and the parent's key
+	 * @param parentComp sign of query compared to the parent's key
+	 * @return the common prefix length of query and node's key in the upper 32
+	 * bits and the sign of query compared to node's key in the lower 32 bits
+	 */
+	private static long step(String query, PrefixNode node, int parentLcp, int parentComp) {
+		int prefix = node.prefixLength;
+		if (prefix > parentLcp) {
+			//node's key matches its parent's key past the point where query differs from it
+			return ((long) parentLcp << 32) | (parentComp & 0xffffffffL);
+		}
+
+		//node's key and query both start with the parent's first prefix characters
+		String suffix = node.data;
+		int i = 0;
+		int limit = Math.min(query.length() - prefix, suffix.length());
+		while (i < limit && query.charAt(prefix + i) == suffix.charAt(i)) {
+			i++;
+		}
+		int comp = i < limit ? query.charAt(prefix + i) - suffix.charAt(i)
+			: (query.length() - prefix) - suffix.length();
+		return ((long) (prefix + i) << 32) | (Integer.signum(comp) & 0xffffffffL);
+	}
+
+	/**
+	 * @return the length of the common prefix of a and b
+	 */
+	private static int commonPrefix(String a, String b) {
+		int limit = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < limit && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Stores key in node relative to parentKey, the key of node's parent.
+	 */
+	private static void encode(BSTNode<String> node, String key, String parentKey) {
+		int prefix = commonPrefix(key, parentKey);
+		((PrefixNode) node).prefixLength = prefix;
+		node.data = key.substring(prefix);
+	}
+
+	/**
+	 * @return the key of a child whose parent has the key parentKey
+	 */
+	private static String childKey(BSTNode<String> child, String parentKey) {
+		return parentKey.substring(0, ((PrefixNode) child).prefixLength) + child.data;
+	}
+
+	/**
+	 * Rebuilds the full key of node from the encoded keys on its path to the root.
+	 * @return the key of node, or "" if node is null
+	 */
+	protected String keyOf(BSTNode<String> node) {
+		List<BSTNode<String>> path = new ArrayList<>();
+		for (BSTNode<String> current = node; current != null; current = current.up) {
+			path.add(current);
+		}
+		StringBuilder key = new StringBuilder();
+		for (int i = path.size() - 1; i >= 0; i--) {
+			key.setLength(((PrefixNode) path.get(i)).prefixLength);
+			key.append(path.get(i).data);
+		}
+		return key.toString();
+	}
+
+	@Override
+	protected RBTNode<String> createNode(String data) {
+		return new PrefixNode(data);
+	}
+
+	/**
+	 * Inserts data below the node it is compared against last, storing it
+	 * relative to that node, and repairs the tree like RedBlackTree does.
+	 */
+	@Override
+	public void insert(String data) throws NullPointerException {
+		if (data == null) {
+			throw new NullPointerException("Data cannot be null.");
+		}
+
+		PrefixNode newNode = (PrefixNode) createNode(data);
+		if (root == null) {
+			newNode.flipColor();
+			root = newNode;
+			return;
+		}
+
+		PrefixNode parent = (PrefixNode) root;
+		int lcp = 0;
+		int comp = 0;
+		while (true) {
+			long result = step(data, parent, lcp, comp);
+			lcp = (int) (result >>> 32);
+			comp = (int) result;
+			BSTNode<String> next = comp <= 0 ? parent.left : parent.right;
+			if (next == null) {
+				break;
+			}
+			parent = (PrefixNode) next;
+		}
+
+		//lcp is now the common prefix of data and the new parent's key
+		newNode.prefixLength = lcp;
+		newNode.data = data.substring(lcp);
+		newNode.up = parent;
+		if (comp <= 0) {
+			parent.left = newNode;
+		}
+		else {
+			parent.right = newNode;
+		}
+
+		ensureRedProperty(newNode);
+		if (((RBTNode<String>) root).isRed()) {
+			((RBTNode<String>) root).flipColor();
+		}
+	}
+
+	/**
+	 * Rotates child above parent, then stores the three nodes whose parent
+	 * changed relative to their new parents.
+	 */
+	@Override
+	protected void rotate(BSTNode<String> child, BSTNode<String> parent)
+		throws NullPointerException, IllegalArgumentException {
+		if (child == null || parent == null) {
+			throw new NullPointerException("Parent nodes and child nodes cannot be null");
+		}
+
+		String grandparentKey = keyOf(parent.up);
+		String parentKey = keyOf(parent);
+		String childKey = child.up == parent ? childKey(child, parentKey) : null;
+		BSTNode<String> moved = child == parent.left ? child.right : child == parent.right ? child.left : null;
+		String movedKey = moved == null ? null : childKey(moved, childKey);
+
+		super.rotate(child, parent);
+
+		encode(child, childKey, grandparentKey);
+		encode(parent, parentKey, childKey);
+		if (moved != null) {
+			encode(moved, movedKey, parentKey);
+		}
+	}
+
+	/**
+	 * Builds the tree from sorted like RedBlackTree does, then stores every key
+	 * relative to its parent's key.
+	 */
+	@Override
+	public void buildFromSorted(List<? extends String> sorted)
+		throws NullPointerException, IllegalArgumentException {
+		super.buildFromSorted(sorted);
+		encodeSubtree(root, "");
+	}
+
+	/**
+	 * Gives the copy of source the same prefix length, so it keeps the suffix
+	 * source stores.
+	 */
+	@Override
+	protected void copyNodeData(BSTNode<String> source, RBTNode<String> copy) {
+		((PrefixNode) copy).prefixLength = ((PrefixNode) source).prefixLength;
+	}
+
+	/**
+	 * @return a new tree with the same keys in the same node layout, each
+	 * stored as the same prefix length and suffix as in this tree
+	 */
+	@Override
+	public PrefixStringRedBlackTree copy() {
+		PrefixStringRedBlackTree copy = new PrefixStringRedBlackTree();
+		copyInto(copy);
+		return copy;
+	}
+
+	/**
+	 * Encodes the unencoded subtree rooted at node, whose parent has the key parentKey.
+	 */
+	private void encodeSubtree(BSTNode<String> node, String parentKey) {
+		if (node == null) {
+			return;
+		}
+		String key = node.data;
+		encode(node, key, parentKey);
+		encodeSubtree(node.left, key);
+		encodeSubtree(node.right, key);
+	}
+
+	/**
+	 * Check whether data is stored in the tree. String values are compared
+	 * against the encoded keys directly; other Comparables are compared
+	 * against keys rebuilt along the search path.
+	 * @param data the value to check for in the collection
+	 * @return true if the collection contains data one or more times,
+	 * and false otherwise
+	 */
+	@Override
+	public boolean contains(Comparable<String> data) {
+		if (!(data instanceof String)) {
+			String match = find(data, false, true);
+			return match != null && data.compareTo(match) == 0;
+		}
+
+		String query = (String) data;
+		BSTNode<String> node = root;
+		int lcp = 0;
+		int comp = 0;
+		while (node != null) {
+			long result = step(query, (PrefixNode) node, lcp, comp);
+			lcp = (int) (result >>> 32);
+			comp = (int) result;
+			if (comp == 0) {
+				return true;
+			}
+			node = comp < 0 ? node.left : node.right;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks which of a sorted batch of Strings are stored in the tree. Node
+	 * data is only a suffix here, so each key is looked up with contains,
+	 * which already skips the prefix it shares with each node.
+	 * @param sortedKeys the values to look for, in ascending order
+	 * @return a BitSet with bit i set if the tree contains sortedKeys[i]
+	 * @throws NullPointerException if sortedKeys is or contains null
+	 * @throws IllegalArgumentException if sortedKeys is not in ascending order
+	 */
+	@Override
+	public BitSet containsBatch(String[] sortedKeys) throws NullPointerException, IllegalArgumentException {
+		BitSet found = new BitSet(sortedKeys.length);
+		for (int i = 0; i < sortedKeys.length; i++) {
+			if (sortedKeys[i] == null) {
+				throw new NullPointerException("Keys cannot be null");
+			}
+			if (i > 0 && sortedKeys[i - 1].compareTo(sortedKeys[i]) > 0) {
+				throw new IllegalArgumentException("Keys must be in ascending order");
+			}
+			if (contains(sortedKeys[i])) {
+				found.set(i);
+			}
+		}
+		return found;
+	}
+
+	@Override
+	public String floor(Comparable<String> data) {
+		return find(data, true, true);
+	}
+
+	@Override
+	public String ceiling(Comparable<String> data) {
+		return find(data, false, true);
+	}
+
+	@Override
+	public String lower(Comparable<String> data) {
+		return find(data, true, false);
+	}
+
+	@Override
+	public String higher(Comparable<String> data) {
+		return find(data, false, false);
+	}
+
+	/**
+	 * Walks down the tree once, remembering the closest qualifying node seen,
+	 * and rebuilds that node's key at the end. Other Comparables than String
+	 * are compared against keys rebuilt along the path instead.
+	 * @param below true to search for keys below data, false for above
+	 * @param inclusive true if a key equal to data qualifies
+	 * @return the closest qualifying key, or null if there is none
+	 */
+	private String find(Comparable<String> data, boolean below, boolean inclusive) {
+		if (data instanceof String) {
+			String query = (String) data;
+			BSTNode<String> best = null;
+			BSTNode<String> node = root;
+			int lcp = 0;
+			int comp = 0;
+			while (node != null) {
+				long result = step(query, (PrefixNode) node, lcp, comp);
+				lcp = (int) (result >>> 32);
+				comp = (int) result;
+				if (comp == 0 && inclusive) {
+					return query;
+				}
+				if (below ? comp > 0 : comp < 0) {
+					best = node;
+					node = below ? node.right : node.left;
+				}
+				else {
+					node = below ? node.left : node.right;
+				}
+			}
+			return best == null ? null : keyOf(best);
+		}
+
+		StringBuilder path = new StringBuilder();
+		String best = null;
+		BSTNode<String> node = root;
+		while (node != null) {
+			path.setLength(((PrefixNode) node).prefixLength);
+			path.append(node.data);
+			String key = path.toString();
+			int comp = data.compareTo(key);
+			if (comp == 0 && inclusive) {
+				return key;
+			}
+			if (below ? comp > 0 : comp < 0) {
+				best = key;
+				node = below ? node.right : node.left;
+			}
+			else {
+				node = below ? node.left : node.right;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public String first() {
+		return root == null ? null : keyOf(leftmost(root));
+	}
+
+	@Override
+	public String last() {
+		if (root == null) {
+			return null;
+		}
+		BSTNode<String> node = root;
+		while (node.right != null) {
+			node = node.right;
+		}
+		return keyOf(node);
+	}
+
+	/**
+	 * Iterates over the keys in ascending order, rebuilding each key from its
+	 * parent's key on an explicit stack. The iterator must not be used after
+	 * the tree is modified.
+	 * @return an iterator over the keys in order
+	 */
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+
+			// nodes whose key has not been returned yet, with their keys
+			private final Deque<BSTNode<String>> nodes = new ArrayDeque<>();
+			private final Deque<String> keys = new ArrayDeque<>();
+
+			{
+				pushLeft(root, "");
+			}
+
+			/**
+			 * Pushes node and its chain of left children, whose parent has the key parentKey.
+			 */
+			private void pushLeft(BSTNode<String> node, String parentKey) {
+				while (node != null) {
+					String key = childKey(node, parentKey);
+					nodes.push(node);
+					keys.push(key);
+					parentKey = key;
+					node = node.left;
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return !nodes.isEmpty();
+			}
+
+			@Override
+			public String next() {
+				if (nodes.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+				BSTNode<String> node = nodes.pop();
+				String key = keys.pop();
+				pushLeft(node.right, key);
+				return key;
+			}
+		};
+	}
+
+	/**
+	 * Checks every red black tree invariant on a copy of the tree whose nodes
+	 * hold their full keys.
+	 * @param pool the pool to run the validation in
+	 * @return a report of every invariant violation found
+	 */
+	@Override
+	public RBTValidator.Report validate(ForkJoinPool pool) {
+		return RBTValidator.validate(decodedCopy(root, null, ""), pool);
+	}
+
+	/**
+	 * @return a copy of the subtree rooted at node with full keys and the same
+	 * colors, attached below up
+	 */
+	private RBTNode<String> decodedCopy(BSTNode<String> node, RBTNode<String> up, String parentKey) {
+		if (node == null) {
+			return null;
+		}
+		String key = childKey(node, parentKey);
+		RBTNode<String> copy = new RBTNode<>(key);
+		copy.isRed = ((RBTNode<String>) node).isRed();
+		copy.up = up;
+		copy.left = decodedCopy(node.left, copy, key);
+		copy.right = decodedCopy(node.right, copy, key);
+		return copy;
+	}
+
+	/**
+	 * Checks that the tree stores URL-like keys in order with the same shape
+	 * as RedBlackTree, and answers every query like a TreeSet
+	 */
+	@Test
+	public void prefixTest1() {
+		PrefixStringRedBlackTree tree = new PrefixStringRedBlackTree();
+		RedBlackTree<String> plain = new RedBlackTree<>();
+		TreeSet<String> expected = new TreeSet<>();
+		Random random = new Random(38);
+
+		for (int i = 0; i < 3000; i++) {
+			String key = "https://example.com/" + random.nextInt(20) + "/item/" + random.nextInt(100);
+			tree.insert(key);
+			plain.insert(key);
+			expected.add(key);
+		}
+
+		assertTrue(tree.validate().isValid(), tree.validate().toString());
+		assertEquals(plain.validate().getBlackHeight(), tree.validate().getBlackHeight());
+		assertEquals(3000, tree.size());
+
+		String previous = "";
+		int count = 0;
+		for (String key : tree) {
+			assertTrue(previous.compareTo(key) <= 0);
+			previous = key;
+			count++;
+		}
+		assertEquals(3000, count);
+
+		for (int i = 0; i < 500; i++) {
+			String probe = "https://example.com/" + random.nextInt(25) + "/item/" + random.nextInt(120);
+			assertEquals(expected.contains(probe), tree.contains(probe), probe);
+			assertEquals(expected.floor(probe), tree.floor(probe));
+			assertEquals(expected.ceiling(probe), tree.ceiling(probe));
+			assertEquals(expected.lower(probe), tree.lower(probe));
+			assertEquals(expected.higher(probe), tree.higher(probe));
+		}
+		assertEquals(expected.first(), tree.first());
+		assertEquals(expected.last(), tree.last());
+	}
+
+	/**
+	 * Checks that buildFromSorted encodes keys and that later inserts still work
+	 */
+	@Test
+	public void prefixTest2() {
+		PrefixStringRedBlackTree tree = new PrefixStringRedBlackTree();
+		List<String> sorted = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			sorted.add(String.format("/a/b/%03d", i));
+		}
+		tree.buildFromSorted(sorted);
+		tree.insert("/a/b/050x");
+		tree.insert("");
+
+		assertTrue(tree.validate().isValid(), tree.validate().toString());
+		assertTrue(tree.contains("/a/b/050x"));
+		assertTrue(tree.contains(""));
+		assertTrue(tree.contains("/a/b/099"));
+		assertEquals("{0, 2}", tree.containsBatch(new String[] {"/a/b/050", "/a/b/0505", "/a/b/099"}).toString());
+		assertFalse(tree.contains("/a/b/100"));
+		assertEquals("/a/b/050x", tree.higher("/a/b/050"));
+		assertEquals("", tree.first());
+		assertEquals(102, tree.size());
+	}
+
+}
@@ -0,0 +1,249 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Checks every red black tree invariant of a tree, splitting the work across
+ * the subtrees near the root with a ForkJoinPool. Problems are collected in a
+ * Report rather than thrown, so a corrupted tree can be inspected in full.
+ * The tree must not be modified while it is being validated.
+ */
+public class RBTValidator {
+
+	// most violation messages kept in a report, later ones are only counted
+	public static final int MAX_REPORTED_VIOLATIONS = 100;
+
+	/**
+	 * Result of validating a tree.
+	 */
+	public static class Report {
+
+		// number of nodes that were checked
+		private final long nodeCount;
+		// black height of the tree, or -1 if it differs between paths
+		private final int blackHeight;
+		// total number of violations found
+		private final long violationCount;
+		// descriptions of the first MAX_REPORTED_VIOLATIONS violations
+		private final List<String> violations;
+
+		/**
+		 * Creates a report of a finished validation.
+		 */
+		protected Report(long nodeCount, int blackHeight, long violationCount, List<String> violations) {
+			this.nodeCount = nodeCount;
+			this.blackHeight = blackHeight;
+			this.violationCount = violationCount;
+			this.violations = Collections.unmodifiableList(violations);
+		}
+
+		/**
+		 * @return true if the tree satisfies every invariant, false otherwise
+		 */
+		public boolean isValid() { return this.violationCount == 0; }
+
+		/**
+		 * @return the number of nodes in the tree
+		 */
+		public long getNodeCount() { return this.nodeCount; }
+
+		/**
+		 * @return the number of black nodes on every path from the root to a
+		 * leaf, or -1 if paths disagree
+		 */
+		public int getBlackHeight() { return this.blackHeight; }
+
+		/**
+		 * @return the total number of violations found
+		 */
+		public long getViolationCount() { return this.violationCount; }
+
+		/**
+		 * @return descriptions of up to MAX_REPORTED_VIOLATIONS violations
+		 */
+		public List<String> getViolations() { return this.violations; }
+
+		/**
+		 * @return a one line summary of the report
+		 */
+		@Override
+		public String toString() {
+			return (isValid() ? "valid" : "invalid") + " red black tree: " + nodeCount + " nodes, black height "
+				+ blackHeight + ", " + violationCount + " violations" + (violations.isEmpty() ? "" : " " + violations);
+		}
+	}
+
+	/**
+	 * Facts about one checked subtree, merged into its parent's summary.
+	 */
+	private static class Summary<T> {
+		long nodeCount = 0;
+		// black nodes on each path below and including the subtree's root, -1 if they differ
+		int blackHeight = 0;
+		// smallest and largest values in the subtree, null when it is empty
+		T min = null;
+		T max = null;
+		long violationCount = 0;
+		List<String> violations = null;
+
+		/**
+		 * Records a violation, keeping its description if there is room.
+		 */
+		void violation(String description) {
+			violationCount++;
+			if (violations == null) {
+				violations = new ArrayList<>();
+			}
+			if (violations.size() < MAX_REPORTED_VIOLATIONS) {
+				violations.add(description);
+			}
+		}
+
+		/**
+		 * Adds the violations found in a child subtree to this summary.
+		 */
+		void addViolations(Summary<T> child) {
+			if (child.violations != null) {
+				for (String description : child.violations) {
+					violation(description);
+				}
+				violationCount += child.violationCount - child.violations.size();
+			}
+		}
+	}
+
+	/**
+	 * Checks the subtree rooted at one node, forking a task per child while
+	 * the subtree is close enough to the root to be worth splitting.
+	 */
+	private static class SubtreeTask<T extends Comparable<T>> extends RecursiveTask<Summary<T>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BSTNode<T> node;
+		private final BSTNode<T> expectedParent;
+		private final int forkDepth;
+
+		SubtreeTask(BSTNode<T> node, BSTNode<T> expectedParent, int forkDepth) {
+			this.node = node;
+			this.expectedParent = expectedParent;
+			this.forkDepth = forkDepth;
+		}
+
+		@Override
+		protected Summary<T> compute() {
+			if (forkDepth <= 0) {
+				return check(node, expectedParent);
+			}
+			if (node == null) {
+				return new Summary<>();
+			}
+
+			SubtreeTask<T> leftTask = new SubtreeTask<>(node.left, node, forkDepth - 1);
+			SubtreeTask<T> rightTask = new SubtreeTask<>(node.right, node, forkDepth - 1);
+			leftTask.fork();
+			Summary<T> right = rightTask.compute();
+			Summary<T> left = leftTask.join();
+			return combine(node, expectedParent, left, right);
+		}
+	}
+
+	/**
+	 * Validates the tree rooted at root in pool. The top levels of the tree are
+	 * split into about 16 tasks per thread of pool, so that threads which
+	 * finish early can steal more work.
+	 * @param root the root of the tree
+	 * @param pool the pool to run the validation in
+	 * @return a report of every invariant violation found
+	 */
+	public static <T extends Comparable<T>> Report validate(BSTNode<T> root, ForkJoinPool pool) {
+		int forkDepth = 32 - Integer.numberOfLeadingZeros(pool.getParallelism()) + 4;
+		Summary<T> summary = pool.invoke(new SubtreeTask<>(root, null, forkDepth));
+
+		if (isRed(root)) {
+			summary.violation("root " + root + " is red");
+		}
+
+		return new Report(summary.nodeCount, summary.blackHeight, summary.violationCount,
+			summary.violations == null ? new ArrayList<>() : summary.violations);
+	}
+
+	/**
+	 * Checks the subtree rooted at node in the current thread.
+	 */
+	private static <T extends Comparable<T>> Summary<T> check(BSTNode<T> node, BSTNode<T> expectedParent) {
+		if (node == null) {
+			return new Summary<>();
+		}
+		return combine(node, expectedParent, check(node.left, node), check(node.right, node));
+	}
+
+	/**
+	 * Checks node against its own links and the summaries of its two subtrees,
+	 * and returns the summary of the subtree rooted at node.
+	 */
+	private static <T extends Comparable<T>> Summary<T> combine(BSTNode<T> node, BSTNode<T> expectedParent,
+		Summary<T> left, Summary<T> right) {
+		Summary<T> summary = new Summary<>();
+		summary.addViolations(left);
+		summary.addViolations(right);
+		summary.nodeCount = 1 + left.nodeCount + right.nodeCount;
+
+		//parent and child links must agree
+		if (node.up != expectedParent) {
+			summary.violation(node + " has up reference " + node.up + " but is a child of " + expectedParent);
+		}
+
+		if (!(node instanceof RBTNode)) {
+			summary.violation(node + " is not an RBTNode");
+			summary.blackHeight = -1;
+			return summary;
+		}
+		RBTNode<T> rbtNode = (RBTNode<T>) node;
+
+		//values are ordered, duplicates may be on either side after rotations
+		if (left.max != null && left.max.compareTo(node.data) > 0) {
+			summary.violation(node + " is smaller than " + left.max + " in its left subtree");
+		}
+		if (right.min != null && right.min.compareTo(node.data) < 0) {
+			summary.violation(node + " is larger than " + right.min + " in its right subtree");
+		}
+		summary.min = left.min != null ? left.min : node.data;
+		summary.max = right.max != null ? right.max : node.data;
+
+		//no red node has a red child
+		if (rbtNode.isRed()) {
+			if (isRed(node.left)) {
+				summary.violation("red node " + node + " has red left child " + node.left);
+			}
+			if (isRed(node.right)) {
+				summary.violation("red node " + node + " has red right child " + node.right);
+			}
+		}
+
+		//every path below node passes the same number of black nodes
+		if (left.blackHeight < 0 || right.blackHeight < 0) {
+			summary.blackHeight = -1;
+		}
+		else if (left.blackHeight != right.blackHeight) {
+			summary.violation(node + " has black height " + left.blackHeight + " on the left and "
+				+ right.blackHeight + " on the right");
+			summary.blackHeight = -1;
+		}
+		else {
+			summary.blackHeight = left.blackHeight + (rbtNode.isRed() ? 0 : 1);
+		}
+
+		return summary;
+	}
+
+	/**
+	 * @return true if node is a red RBTNode, false if it is black or null
+	 */
+	private static boolean isRed(BSTNode<?> node) {
+		return node instanceof RBTNode && ((RBTNode<?>) node).isRed();
+	}
+
+}
@@ -1,3 +1,18 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -7,6 +22,16 @@ import static org.junit.jupiter.api.Assertions.*;
  */
 public class RedBlackTree<T extends Comparable<T>> extends BSTRotation<T> {
 	
+	/**
+	 * Work done by one insert, counted only while a TreeOperationEvent is
+	 * being recorded
+	 */
+	private static final class InsertCounts {
+		int pathLength = 0; //nodes compared against on the way down
+		int fixupIterations = 0; //ensureRedProperty calls
+		int rotations = 0; //rotations made by ensureRedProperty
+	}
+	
 	 /**
      * Checks if a new red node in the RedBlackTree causes a red property violation
      * by having a red parent. If this is not the case, the method terminates without
@@ -16,6 +41,19 @@ public class RedBlackTree<T extends Comparable<T>> extends BSTRotation<T> {
      * @param newRedNode a newly inserted red node, or a node turned red by previous repair
      */
     protected void ensureRedProperty(RBTNode<T> newRedNode) {
+    	ensureRedProperty(newRedNode, null);
+    }
+    
+    /**
+     * ensureRedProperty, adding the calls and rotations it makes to counts
+     * @param newRedNode a newly inserted red node, or a node turned red by previous repair
+     * @param counts the counts of the insert being repaired, or null when not counting
+     */
+    private void ensureRedProperty(RBTNode<T> newRedNode, InsertCounts counts) {
+    	
+    	if (counts != null) {
+    		counts.fixupIterations++;
+    	}
     	
     	//make root black
     	if(((RBTNode<T>)(super.root)).isRed()) {
@@ -46,7 +84,7 @@ public class RedBlackTree<T extends Comparable<T>> extends BSTRotation<T> {
         			//Case 1: newRedNode is parent's left child - rotate & recolor parent and grandparent
         			if(newRedNode == parent.getLeft()) {
         			
-        				super.rotate(parent, grandparent);//rotate
+        				rotate(parent, grandparent, counts);//rotate
         				grandparent.flipColor();//recolor
         				parent.flipColor();	//recolor
         			}
@@ -54,8 +92,8 @@ public class RedBlackTree<T extends Comparable<T>> extends BSTRotation<T> {
         			//Case 2: newRedNode is parent's right child - rotate new node with parent and grandparent 
         			else if (newRedNode == parent.getRight()) {
         			
-        				super.rotate(newRedNode, parent);//rotate new node to parent's spot
-        				super.rotate(newRedNode, grandparent);//rotate new node to grandparent's spot
+        				rotate(newRedNode, parent, counts);//rotate new node to parent's spot
+        				rotate(newRedNode, grandparent, counts);//rotate new node to grandparent's spot
         				newRedNode.flipColor();//flip new node color to black
         				grandparent.flipColor();//flip gp color black
         			}
@@ -66,8 +104,8 @@ public class RedBlackTree<T extends Comparable<T>> extends BSTRotation<T> {
         		
         			//Case 3: newRedNode is parent's left child - rotate new node with parent and grandparent
         			if(newRedNode == parent.getLeft()) {
-        				super.rotate(newRedNode, parent);
-        				super.rotate(newRedNode, grandparent);
+        				rotate(newRedNode, parent, counts);
+        				rotate(newRedNode, grandparent, counts);
         				newRedNode.flipColor();
         				grandparent.flipColor();
         			
@@ -75,7 +113,7 @@ public class RedBlackTree<T extends Comparable<T>> extends BSTRotation<T> {
         		
         			//Case 4: newRedNode is parent's right child
         			if(newRedNode == parent.getRight()) {
-        				super.rotate(parent, grandparent);
+        				rotate(parent, grandparent, counts);
         				parent.flipColor();
         				grandparent.flipColor();
         			}
@@ -98,14 +136,38 @@ public class RedBlackTree<T extends Comparable<T>> extends BSTRotation<T> {
         		}
         	}
         	
-        	ensureRedProperty(grandparent); //recursive call on grandparent node
+        	ensureRedProperty(grandparent, counts); //recursive call on grandparent node
         }
         
     }
     
+    
+    /**
+     * rotate, counting the rotation in counts
+     * @param counts the counts of the insert being repaired, or null when not counting
+     */
+    private void rotate(BSTNode<T> child, BSTNode<T> parent, InsertCounts counts) {
+    	rotate(child, parent);
+    	if (counts != null) {
+    		counts.rotations++;
+    	}
+    }
+    
+    /**
+     * Creates the red node that insert adds to the tree for data. Subclasses
+     * that store extra data in their nodes override this to return their own
+     * RBTNode subclass.
+     * @param data the value the new node stores
+     * @return a new red node holding data
+     */
+    protected RBTNode<T> createNode(T data) {
+    	return new RBTNode<>(data);
+    }
+    
     /**
      * insert red nodes into red black tree using insert helper and calls
-     * ensureRedProperty
+     * ensureRedProperty, committing a TreeOperationEvent when the insert is
+     * slower than the event's threshold
      */
     @Override
     public void insert(T data) throws NullPointerException {
@@ -114,7 +176,11 @@ public class RedBlackTree<T extends Comparable<T>> extends BSTRotation<T> {
             throw new NullPointerException("Data cannot be null.");
         }
         
-        RBTNode<T> newNode = new RBTNode<>(data); // creating new red node with data
+        TreeOperationEvent event = new TreeOperationEvent();
+        event.begin();
+        InsertCounts counts = event.isEnabled() ? new InsertCounts() : null;
+        
+        RBTNode<T> newNode = createNode(data); // creating new red node with data
 
         if (root == null) { // if BST is empty, make root equal to newNode
             root = newNode;
@@ -122,22 +188,320 @@ public class RedBlackTree<T extends Comparable<T>> extends BSTRotation<T> {
             if(((RBTNode<T>)(super.root)).isRed()) {
             	((RBTNode<T>)(super.root)).flipColor();
             }
-            
-            return;
         } 
         
         else {
             insertHelper(newNode, root); // insert newNode if root exists already
             
+            if (counts != null) {
+            	//every ancestor of newNode was compared against on the way down
+            	for (BSTNode<T> node = newNode.getUp(); node != null; node = node.getUp()) {
+            		counts.pathLength++;
+            	}
+            }
+            
             if (((RBTNode<T>)super.root).isRed()){
             	
             	((RBTNode<T>)(super.root)).flipColor();// explicitly set root color to black
             }
             
-            ensureRedProperty(newNode); // make sure red property is maintained for newNode
+            ensureRedProperty(newNode, counts); // make sure red property is maintained for newNode
         }
         
-       
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "insert";
+            event.pathLength = counts.pathLength;
+            event.fixupIterations = counts.fixupIterations;
+            event.rotations = counts.rotations;
+            event.keyClass = data.getClass();
+            event.commit();
+        }
+    }
+    
+    /**
+     * Replaces the contents of the tree with the values in sorted, in O(n)
+     * time and without any rotations. The values are linked into a perfectly
+     * balanced tree whose nodes are all black, except for the nodes on the
+     * deepest level when that level is not full, which are red.
+     * @param sorted the new values, in ascending order
+     * @throws NullPointerException if sorted is null or contains null
+     * @throws IllegalArgumentException if sorted is not in ascending order
+     */
+    public void buildFromSorted(List<? extends T> sorted)
+    	throws NullPointerException, IllegalArgumentException {
+    	
+    	for (int i = 0; i < sorted.size(); i++) {
+    		if (sorted.get(i) == null) {
+    			throw new NullPointerException("Data cannot be null.");
+    		}
+    		if (i > 0 && sorted.get(i - 1).compareTo(sorted.get(i)) > 0) {
+    			throw new IllegalArgumentException("Values must be in ascending order");
+    		}
+    	}
+    	
+    	//only nodes on the deepest level of an incomplete tree are red
+    	int redLevel = 0;
+    	for (int m = sorted.size() - 1; m >= 0; m = m / 2 - 1) {
+    		redLevel++;
+    	}
+    	
+    	root = buildHelper(sorted, 0, sorted.size() - 1, 0, redLevel);
+    }
+    
+    /**
+     * Links the values sorted[lo..hi] into a balanced subtree whose root is at
+     * the given level of the tree, and returns that root.
+     */
+    private RBTNode<T> buildHelper(List<? extends T> sorted, int lo, int hi, int level, int redLevel) {
+    	if (lo > hi) {
+    		return null;
+    	}
+    	
+    	int middle = (lo + hi) >>> 1;
+    	RBTNode<T> left = buildHelper(sorted, lo, middle - 1, level + 1, redLevel);
+    	RBTNode<T> node = createNode(sorted.get(middle));
+    	RBTNode<T> right = buildHelper(sorted, middle + 1, hi, level + 1, redLevel);
+    	
+    	if (level != redLevel) {
+    		node.flipColor(); //new nodes start out red
+    	}
+    	node.setLeft(left);
+    	node.setRight(right);
+    	if (left != null) {
+    		left.setUp(node);
+    	}
+    	if (right != null) {
+    		right.setUp(node);
+    	}
+    	refresh(node);
+    	
+    	return node;
+    }
+    
+    /**
+     * Creates an independent copy of this tree with the same shape and
+     * colors, in O(n) time and O(1) extra space. The nodes are duplicated in
+     * a single pre-order walk that follows the up links, so nothing is
+     * inserted, rotated or recolored, and deep trees cannot overflow the
+     * stack. The values themselves are shared, not copied. Subclasses
+     * override this to copy into a tree of their own type.
+     * @return a new tree holding the same values in the same node layout
+     */
+    public RedBlackTree<T> copy() {
+    	RedBlackTree<T> copy = new RedBlackTree<>();
+    	copyInto(copy);
+    	return copy;
+    }
+    
+    /**
+     * Replaces the contents of target with a copy of this tree's nodes, made
+     * with target's createNode and copyNodeData and refreshed bottom up with
+     * target's refresh, so subclasses can copy into a tree of their own type.
+     * @param target the tree to copy into
+     */
+    protected void copyInto(RedBlackTree<T> target) {
+    	target.root = null;
+    	if (root == null) {
+    		return;
+    	}
+    	
+    	BSTNode<T> source = root;
+    	BSTNode<T> node = copyNode(target, source, null);
+    	target.root = node;
+    	while (source != null) {
+    		//go down to the first child that has not been copied yet
+    		if (source.left != null && node.left == null) {
+    			source = source.left;
+    			node.left = copyNode(target, source, node);
+    			node = node.left;
+    		}
+    		else if (source.right != null && node.right == null) {
+    			source = source.right;
+    			node.right = copyNode(target, source, node);
+    			node = node.right;
+    		}
+    		//both subtrees are copied, go back up
+    		else {
+    			target.refresh(node);
+    			source = source.up;
+    			node = node.up;
+    		}
+    	}
+    }
+    
+    /**
+     * @return a node for target with source's value and color, whose parent is up
+     */
+    private RBTNode<T> copyNode(RedBlackTree<T> target, BSTNode<T> source, BSTNode<T> up) {
+    	RBTNode<T> node = target.createNode(source.data);
+    	target.copyNodeData(source, node);
+    	if (!((RBTNode<T>) source).isRed()) {
+    		node.flipColor();
+    	}
+    	node.setUp(up);
+    	return node;
+    }
+    
+    /**
+     * Copies the data a subclass stores in its nodes, other than the value
+     * and the cached subtree data that refresh recomputes, from source to
+     * the copy copyInto made of it. Does nothing by default.
+     * @param source a node of the tree being copied
+     * @param copy the new node created for source by this tree's createNode
+     */
+    protected void copyNodeData(BSTNode<T> source, RBTNode<T> copy) {
+    }
+    
+    /**
+     * Removes node from the tree and repairs any black height violation this
+     * causes. A node with two children is replaced by moving its in-order
+     * successor node into its position, rather than by copying the
+     * successor's value, so every other node keeps holding the same value and
+     * references to nodes stay valid. Cached subtree data is refreshed on the
+     * path from the removal point to the root.
+     * @param node a node of this tree
+     */
+    protected void removeNode(RBTNode<T> node) {
+    	
+    	RBTNode<T> child; //node that moves up into the removed position
+    	RBTNode<T> childParent; //parent of that position once the removal is done
+    	boolean removedBlack;
+    	
+    	if (node.left == null || node.right == null) {
+    		child = (RBTNode<T>) (node.left != null ? node.left : node.right);
+    		childParent = node.getUp();
+    		removedBlack = !node.isRed();
+    		replaceChild(node, child);
+    	}
+    	else {
+    		//the successor leaves its own position and takes over node's position and color
+    		RBTNode<T> successor = (RBTNode<T>) leftmost(node.right);
+    		child = successor.getRight();
+    		removedBlack = !successor.isRed();
+    		
+    		if (successor.up == node) {
+    			childParent = successor;
+    		}
+    		else {
+    			childParent = successor.getUp();
+    			replaceChild(successor, child);
+    			successor.right = node.right;
+    			successor.right.up = successor;
+    		}
+    		replaceChild(node, successor);
+    		successor.left = node.left;
+    		successor.left.up = successor;
+    		successor.isRed = node.isRed();
+    	}
+    	node.up = null;
+    	node.left = null;
+    	node.right = null;
+    	
+    	if (removedBlack) {
+    		ensureBlackHeight(child, childParent);
+    	}
+    	for (BSTNode<T> ancestor = childParent; ancestor != null; ancestor = ancestor.up) {
+    		refresh(ancestor);
+    	}
+    }
+    
+    /**
+     * Puts replacement, which may be null, into node's position below node's parent.
+     */
+    private void replaceChild(BSTNode<T> node, BSTNode<T> replacement) {
+    	if (node.up == null) {
+    		root = replacement;
+    	}
+    	else if (node.up.left == node) {
+    		node.up.left = replacement;
+    	}
+    	else {
+    		node.up.right = replacement;
+    	}
+    	if (replacement != null) {
+    		replacement.up = node.up;
+    	}
+    }
+    
+    /**
+     * Repairs the tree after a black node was removed from above node, whose
+     * paths are now one black node short. node may be null, so its parent is
+     * passed separately. A red node absorbs the missing black; otherwise the
+     * shortage is fixed with the sibling's help or moved up to the parent.
+     */
+    protected void ensureBlackHeight(RBTNode<T> node, RBTNode<T> parent) {
+    	while (node != root && (node == null || !node.isRed())) {
+    		boolean isLeft = node == parent.left;
+    		//the sibling exists, since its side still has at least one black node
+    		RBTNode<T> sibling = (RBTNode<T>) (isLeft ? parent.right : parent.left);
+    		
+    		//red sibling: rotate it above parent so node gets a black sibling
+    		if (sibling.isRed()) {
+    			sibling.isRed = false;
+    			parent.isRed = true;
+    			rotate(sibling, parent);
+    			sibling = (RBTNode<T>) (isLeft ? parent.right : parent.left);
+    		}
+    		
+    		RBTNode<T> near = (RBTNode<T>) (isLeft ? sibling.left : sibling.right);
+    		RBTNode<T> far = (RBTNode<T>) (isLeft ? sibling.right : sibling.left);
+    		
+    		//black sibling with black children: recolor and move the shortage up
+    		if (!isRed(near) && !isRed(far)) {
+    			sibling.isRed = true;
+    			node = parent;
+    			parent = parent.getUp();
+    			continue;
+    		}
+    		
+    		//only the near nephew is red: rotate it above the sibling so the far one is
+    		if (!isRed(far)) {
+    			near.isRed = false;
+    			sibling.isRed = true;
+    			rotate(near, sibling);
+    			far = sibling;
+    			sibling = near;
+    		}
+    		
+    		//red far nephew: rotate the sibling above parent, which adds a black node on node's side
+    		sibling.isRed = parent.isRed;
+    		parent.isRed = false;
+    		far.isRed = false;
+    		rotate(sibling, parent);
+    		node = (RBTNode<T>) root;
+    		break;
+    	}
+    	
+    	if (node != null) {
+    		node.isRed = false;
+    	}
+    }
+    
+    /**
+     * @return true if node is a red node, false if it is black or null
+     */
+    private static boolean isRed(RBTNode<?> node) {
+    	return node != null && node.isRed();
+    }
+    
+    /**
+     * Checks every red black tree invariant, splitting the work across subtrees
+     * in the common ForkJoinPool. The tree must not be modified until this returns.
+     * @return a report of every invariant violation found
+     */
+    public RBTValidator.Report validate() {
+    	return validate(ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Checks every red black tree invariant, splitting the work across subtrees
+     * in pool. The tree must not be modified until this returns.
+     * @param pool the pool to run the validation in
+     * @return a report of every invariant violation found
+     */
+    public RBTValidator.Report validate(ForkJoinPool pool) {
+    	return RBTValidator.validate(root, pool);
     }
     
     /**
@@ -286,5 +650,291 @@ public class RedBlackTree<T extends Comparable<T>> extends BSTRotation<T> {
     	assertEquals(tree3.root.toLevelOrderString(), "[ G(b), C(r), O(r), B(b), E(b), K(b), U(b), A(r), R(r), W(r) ]");
     }
     
+    /**
+     * Checks that validate accepts a large valid tree and reports broken invariants
+     */
+    @Test
+    public void RBTTest4() {
+    	
+    	RedBlackTree<Integer> tree4 = new RedBlackTree<>();
+    	
+    	//empty tree is valid
+    	assertTrue(tree4.validate().isValid());
+    	
+    	for (int i = 0; i < 100000; i++) {
+    		tree4.insert((i * 7919) % 100003);
+    	}
+    	
+    	RBTValidator.Report report = tree4.validate();
+    	assertTrue(report.isValid(), report.toString());
+    	assertEquals(100000, report.getNodeCount());
+    	
+    	//turning a black node red breaks both the red property and the black height
+    	RBTNode<Integer> node = ((RBTNode<Integer>) tree4.root).getLeft();
+    	node.flipColor();
+    	report = tree4.validate();
+    	assertFalse(report.isValid());
+    	assertEquals(-1, report.getBlackHeight());
+    	node.flipColor();
+    	
+    	//breaking an up reference and the ordering
+    	RBTNode<Integer> leaf = node;
+    	while (leaf.getLeft() != null) {
+    		leaf = leaf.getLeft();
+    	}
+    	leaf.setUp(null);
+    	leaf.setData(Integer.MAX_VALUE);
+    	report = tree4.validate();
+    	assertEquals(2, report.getViolationCount(), report.toString());
+    }
+    
+    /**
+     * Checks that buildFromSorted creates valid trees of every size and keeps the order
+     */
+    @Test
+    public void RBTTest5() {
+    	
+    	RedBlackTree<Integer> tree5 = new RedBlackTree<>();
+    	
+    	for (int size = 0; size <= 100; size++) {
+    		Integer[] values = new Integer[size];
+    		for (int i = 0; i < size; i++) {
+    			values[i] = i / 2; //every value twice
+    		}
+    		
+    		tree5.buildFromSorted(Arrays.asList(values));
+    		assertTrue(tree5.validate().isValid(), tree5.validate().toString());
+    		assertEquals(size, tree5.size());
+    		
+    		int i = 0;
+    		for (int value : tree5) {
+    			assertEquals(values[i++], value);
+    		}
+    	}
+    	
+    	//inserts after a bulk build still keep the tree valid
+    	for (int i = 0; i < 100; i++) {
+    		tree5.insert(i);
+    	}
+    	assertTrue(tree5.validate().isValid());
+    	
+    	assertThrows(IllegalArgumentException.class, () -> tree5.buildFromSorted(Arrays.asList(2, 1)));
+    }
+    
+    /**
+     * Checks that removeNode keeps the tree valid and ordered while nodes are
+     * removed in random order, including nodes with two children
+     */
+    @Test
+    public void RBTTest7() {
+    	
+    	RedBlackTree<Integer> tree7 = new RedBlackTree<>();
+    	List<RBTNode<Integer>> nodes = new ArrayList<>();
+    	Random random = new Random(41);
+    	for (int i = 0; i < 500; i++) {
+    		tree7.insert(random.nextInt(200));
+    	}
+    	for (BSTNode<Integer> node = tree7.leftmost(tree7.root); node != null; node = tree7.successor(node)) {
+    		nodes.add((RBTNode<Integer>) node);
+    	}
+    	Collections.shuffle(nodes, random);
+    	
+    	for (int i = 0; i < nodes.size(); i++) {
+    		tree7.removeNode(nodes.get(i));
+    		if (i % 25 == 0) {
+    			assertTrue(tree7.validate().isValid(), tree7.validate().toString());
+    			assertEquals(nodes.size() - i - 1, tree7.size());
+    		}
+    	}
+    	assertTrue(tree7.isEmpty());
+    }
+    
+    /**
+     * Checks that insert and contains commit TreeOperationEvents with the path
+     * length, fix-up iterations and rotations of the operation
+     */
+    @Test
+    public void RBTTest6() throws IOException {
+    	
+    	RedBlackTree<Integer> tree6 = new RedBlackTree<>();
+    	tree6.insert(10);
+    	tree6.insert(20);
+    	Path file = Files.createTempFile("rbt", ".jfr");
+    	
+    	try (Recording recording = new Recording()) {
+    		recording.enable(TreeOperationEvent.class).withThreshold(Duration.ZERO);
+    		recording.start();
+    		tree6.insert(30); //rotates 20 up to the root
+    		tree6.contains(30);
+    		recording.stop();
+    		recording.dump(file);
+    		
+    		List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+    		assertEquals(2, events.size());
+    		
+    		RecordedEvent insert = events.get(0).getString("operation").equals("insert") ? events.get(0) : events.get(1);
+    		RecordedEvent contains = insert == events.get(0) ? events.get(1) : events.get(0);
+    		assertEquals(2, insert.getInt("pathLength"));
+    		assertEquals(2, insert.getInt("fixupIterations"));
+    		assertEquals(1, insert.getInt("rotations"));
+    		assertEquals(Integer.class.getName(), insert.getClass("keyClass").getName());
+    		assertEquals("contains", contains.getString("operation"));
+    		assertEquals(2, contains.getInt("pathLength"));
+    	} finally {
+    		Files.delete(file);
+    	}
+    }
+    
+    /**
+     * Checks that copy reproduces the shape and colors of the tree and that
+     * the copy and the original can change independently
+     */
+    @Test
+    public void RBTTest8() {
+    	
+    	RedBlackTree<Integer> tree8 = new RedBlackTree<>();
+    	assertTrue(tree8.copy().isEmpty());
+    	Random random = new Random(47);
+    	for (int i = 0; i < 1000; i++) {
+    		tree8.insert(random.nextInt(500));
+    	}
+    	
+    	RedBlackTree<Integer> copy = tree8.copy();
+    	assertEquals(tree8.root.toLevelOrderString(), copy.root.toLevelOrderString());
+    	assertNull(copy.root.getUp());
+    	for (BSTNode<Integer> a = tree8.leftmost(tree8.root), b = copy.leftmost(copy.root); a != null;
+    			a = tree8.successor(a), b = copy.successor(b)) {
+    		assertNotSame(a, b);
+    		assertEquals(a.getData(), b.getData());
+    		assertEquals(((RBTNode<Integer>) a).isRed(), ((RBTNode<Integer>) b).isRed());
+    		assertEquals(a.isRightChild(), b.isRightChild());
+    	}
+    	assertTrue(copy.validate().isValid(), copy.validate().toString());
+    	
+    	copy.insert(1000);
+    	assertFalse(tree8.contains(1000));
+    	assertEquals(1001, copy.size());
+    	assertEquals(1000, tree8.size());
+    	assertTrue(copy.validate().isValid());
+    }
+    
+    /**
+     * Checks that copying each subclass gives a tree of its own type whose
+     * contents and augmented queries match the original's, and that the copy
+     * and the original can change independently
+     */
+    @Test
+    public void RBTTest9() {
+    	Random random = new Random(59);
+    	
+    	RedBlackTreeMap<Integer, String> map = new RedBlackTreeMap<>();
+    	for (int i = 0; i < 300; i++) {
+    		int key = random.nextInt(1000);
+    		map.put(key, "v" + key);
+    	}
+    	RedBlackTreeMap<Integer, String> mapCopy = map.copy();
+    	assertEquals(valuesOf(map), valuesOf(mapCopy));
+    	for (Integer key : map) {
+    		assertEquals("v" + key, mapCopy.get(key));
+    	}
+    	mapCopy.put(map.first(), "changed");
+    	assertEquals("v" + map.first(), map.get(map.first()));
+    	
+    	PrefixStringRedBlackTree strings = new PrefixStringRedBlackTree();
+    	for (int i = 0; i < 300; i++) {
+    		strings.insert("key/" + random.nextInt(100) + "/" + random.nextInt(100));
+    	}
+    	PrefixStringRedBlackTree stringsCopy = strings.copy();
+    	assertEquals(valuesOf(strings), valuesOf(stringsCopy));
+    	for (String key : strings) {
+    		assertTrue(stringsCopy.contains(key));
+    	}
+    	assertEquals(strings.ceiling("key/5"), stringsCopy.ceiling("key/5"));
+    	assertTrue(stringsCopy.validate().isValid(), stringsCopy.validate().toString());
+    	stringsCopy.insert("other");
+    	assertFalse(strings.contains("other"));
+    	
+    	IntervalTree<Integer> intervals = new IntervalTree<>();
+    	for (int i = 0; i < 300; i++) {
+    		int lo = random.nextInt(1000);
+    		intervals.insert(lo, lo + random.nextInt(50));
+    	}
+    	IntervalTree<Integer> intervalsCopy = intervals.copy();
+    	assertEquals(valuesOf(intervals), valuesOf(intervalsCopy));
+    	for (int lo = 0; lo < 1000; lo += 37) {
+    		assertEquals(intervals.overlapping(lo, lo + 20), intervalsCopy.overlapping(lo, lo + 20));
+    	}
+    	
+    	AggregateTree<Integer, Long> sums = new AggregateTree<>(value -> (long) value, Long::sum, 0L);
+    	MerkleRedBlackTree<Integer> merkle = new MerkleRedBlackTree<>();
+    	ThreadedRedBlackTree<Integer> threaded = new ThreadedRedBlackTree<>();
+    	TopKRedBlackTree<Integer> topK = new TopKRedBlackTree<>(50, true);
+    	WatchableRedBlackTree<Integer> watchable = new WatchableRedBlackTree<>(1, 4);
+    	for (int i = 0; i < 300; i++) {
+    		int value = random.nextInt(1000);
+    		sums.insert(value);
+    		merkle.insert(value);
+    		threaded.insert(value);
+    		topK.insert(value);
+    		watchable.insert(value);
+    	}
+    	
+    	AggregateTree<Integer, Long> sumsCopy = sums.copy();
+    	assertEquals(valuesOf(sums), valuesOf(sumsCopy));
+    	assertEquals(sums.aggregate(), sumsCopy.aggregate());
+    	for (int lo = 0; lo < 1000; lo += 37) {
+    		assertEquals(sums.aggregate(lo, lo + 100), sumsCopy.aggregate(lo, lo + 100));
+    	}
+    	
+    	MerkleRedBlackTree<Integer> merkleCopy = merkle.copy();
+    	assertEquals(merkle.rootHash(), merkleCopy.rootHash());
+    	assertEquals(merkle.size(), merkleCopy.size());
+    	assertTrue(merkle.diff(merkleCopy).isEmpty());
+    	merkleCopy.insert(1000);
+    	assertEquals(List.of(1000), merkleCopy.diff(merkle).getOnlyHere());
+    	
+    	ThreadedRedBlackTree<Integer> threadedCopy = threaded.copy();
+    	assertEquals(valuesOf(threaded), valuesOf(threadedCopy));
+    	assertEquals(threaded.size(), threadedCopy.size());
+    	List<Integer> descending = new ArrayList<>();
+    	threadedCopy.descendingIterator().forEachRemaining(descending::add);
+    	List<Integer> ascending = valuesOf(threaded);
+    	Collections.reverse(ascending);
+    	assertEquals(ascending, descending);
+    	assertEquals(threaded.first(), threadedCopy.pollFirst());
+    	assertEquals(threaded.last(), threadedCopy.pollLast());
+    	assertEquals(threaded.size() - 2, threadedCopy.size());
+    	
+    	TopKRedBlackTree<Integer> topKCopy = topK.copy();
+    	assertEquals(valuesOf(topK), valuesOf(topKCopy));
+    	assertEquals(topK.capacity(), topKCopy.capacity());
+    	assertEquals(50, topKCopy.size());
+    	assertEquals(topK.threshold(), topKCopy.threshold());
+    	assertFalse(topKCopy.offer(-1));
+    	assertTrue(topKCopy.offer(1000));
+    	assertEquals(50, topKCopy.size());
+    	assertEquals(valuesOf(topK).get(1), topKCopy.threshold());
+    	assertEquals(50, topK.size());
+    	
+    	watchable.watch(0, 1000, events -> { });
+    	WatchableRedBlackTree<Integer> watchableCopy = watchable.copy();
+    	assertEquals(valuesOf(watchable), valuesOf(watchableCopy));
+    	assertEquals(1, watchable.watchCount());
+    	assertEquals(0, watchableCopy.watchCount());
+    	watchable.close();
+    	watchableCopy.close();
+    }
+    
+    /**
+     * @return the values of collection in iteration order
+     */
+    private static <V> List<V> valuesOf(Iterable<V> collection) {
+    	List<V> values = new ArrayList<>();
+    	for (V value : collection) {
+    		values.add(value);
+    	}
+    	return values;
+    }
+    
     
 }
\ No newline at end of file
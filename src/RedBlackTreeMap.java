@@ -0,0 +1,403 @@
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ordered map built on the RedBlackTree insert and fix-up logic. Each key is
+ * stored once, in a node that also holds its value, so no separate map is
+ * needed to look up the payload for a key.
+ * @param <K> type of the keys, kept in their natural ordering
+ * @param <V> type of the values
+ */
+public class RedBlackTreeMap<K extends Comparable<K>, V> extends RedBlackTree<K> {
+
+	/**
+	 * Red black tree node that also stores the value mapped to its key.
+	 */
+	protected static class MapNode<K, V> extends RBTNode<K> implements Map.Entry<K, V> {
+
+		// value mapped to this node's key
+		protected V value;
+
+		/**
+		 * Creates a new red node that maps key to value.
+		 * @param key the key the new node stores
+		 * @param value the value mapped to key
+		 */
+		public MapNode(K key, V value) {
+			super(key);
+			this.value = value;
+		}
+
+		/**
+		 * @return the key stored in this node
+		 */
+		@Override
+		public K getKey() { return this.data; }
+
+		/**
+		 * @return the value mapped to this node's key
+		 */
+		@Override
+		public V getValue() { return this.value; }
+
+		/**
+		 * Replaces the value mapped to this node's key.
+		 * @param newValue the new value for the key
+		 * @return the value that was replaced
+		 */
+		@Override
+		public V setValue(V newValue) {
+			V oldValue = this.value;
+			this.value = newValue;
+			return oldValue;
+		}
+	}
+
+	/**
+	 * Creates a MapNode mapping data to null, so nodes created by inherited
+	 * methods such as buildFromSorted can hold a value.
+	 */
+	@Override
+	protected RBTNode<K> createNode(K data) {
+		return new MapNode<>(data, null);
+	}
+
+	/**
+	 * @return node as the MapNode that every node of this tree is
+	 */
+	@SuppressWarnings("unchecked")
+	private MapNode<K, V> entry(BSTNode<K> node) {
+		return (MapNode<K, V>) node;
+	}
+
+	/**
+	 * Gives the copy of source the value source maps its key to.
+	 */
+	@Override
+	protected void copyNodeData(BSTNode<K> source, RBTNode<K> copy) {
+		entry(copy).value = entry(source).value;
+	}
+
+	/**
+	 * @return a new map with the same entries in the same node layout; the
+	 * keys and values themselves are shared
+	 */
+	@Override
+	public RedBlackTreeMap<K, V> copy() {
+		RedBlackTreeMap<K, V> copy = new RedBlackTreeMap<>();
+		copyInto(copy);
+		return copy;
+	}
+
+	/**
+	 * Where descend() stopped: the node holding the key, or the node that
+	 * would become its parent, with the result of comparing the key to it.
+	 */
+	private static final class Position<K> {
+		// null when the map is empty
+		final RBTNode<K> node;
+		// 0 if node holds the key, otherwise the side of node the key belongs on
+		final int comparison;
+
+		Position(RBTNode<K> node, int comparison) {
+			this.node = node;
+			this.comparison = comparison;
+		}
+
+		/**
+		 * @return true if node holds the key
+		 */
+		boolean found() {
+			return node != null && comparison == 0;
+		}
+	}
+
+	/**
+	 * Maps key to value, replacing any value the key was mapped to before.
+	 * Finds the key and its insertion point in the same walk down the tree.
+	 * @param key the key to map
+	 * @param value the value to map key to
+	 * @return the value key was mapped to before, or null if it was absent
+	 * @throws NullPointerException if key is null
+	 */
+	public V put(K key, V value) throws NullPointerException {
+		if (key == null) {
+			throw new NullPointerException("Key cannot be null.");
+		}
+
+		Position<K> position = descend(key);
+
+		if (position.found()) {
+			return entry(position.node).setValue(value);
+		}
+
+		attach(position, new MapNode<>(key, value));
+		return null;
+	}
+
+	/**
+	 * Maps key to value only if key is absent or mapped to null.
+	 * @param key the key to map
+	 * @param value the value to map key to
+	 * @return the value key was mapped to before, or null if it was absent
+	 * @throws NullPointerException if key is null
+	 */
+	public V putIfAbsent(K key, V value) throws NullPointerException {
+		if (key == null) {
+			throw new NullPointerException("Key cannot be null.");
+		}
+
+		Position<K> position = descend(key);
+
+		if (position.found()) {
+			MapNode<K, V> found = entry(position.node);
+			V oldValue = found.value;
+			if (oldValue == null) {
+				found.value = value;
+			}
+			return oldValue;
+		}
+
+		attach(position, new MapNode<>(key, value));
+		return null;
+	}
+
+	/**
+	 * Returns the value mapped to key, computing and inserting it with
+	 * mappingFunction if key is absent or mapped to null. The tree is only
+	 * searched once, so mappingFunction must not modify this map.
+	 * @param key the key to look up
+	 * @param mappingFunction computes the value for an absent key
+	 * @return the current or computed value, or null if the computed value is null
+	 * @throws NullPointerException if key or mappingFunction is null
+	 */
+	public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction)
+		throws NullPointerException {
+		if (key == null || mappingFunction == null) {
+			throw new NullPointerException("Key and mapping function cannot be null.");
+		}
+
+		Position<K> position = descend(key);
+
+		if (position.found()) {
+			MapNode<K, V> found = entry(position.node);
+			if (found.value == null) {
+				found.value = mappingFunction.apply(key);
+			}
+			return found.value;
+		}
+
+		V value = mappingFunction.apply(key);
+		if (value != null) {
+			attach(position, new MapNode<>(key, value));
+		}
+		return value;
+	}
+
+	/**
+	 * Looks up the value mapped to key.
+	 * @param key the key to look up
+	 * @return the value mapped to key, or null if key is absent
+	 */
+	public V get(Comparable<K> key) {
+		BSTNode<K> currentNode = root;
+
+		while (currentNode != null) {
+			int comp = key.compareTo(currentNode.getData());
+
+			if (comp == 0) {
+				return entry(currentNode).value;
+			}
+			currentNode = comp < 0 ? currentNode.left : currentNode.right;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Inserts key mapped to null, unless the key is already in the map.
+	 * Keys are never duplicated in a RedBlackTreeMap.
+	 * @param key the key being inserted
+	 * @throws NullPointerException if key is null
+	 */
+	@Override
+	public void insert(K key) throws NullPointerException {
+		putIfAbsent(key, null);
+	}
+
+	/**
+	 * @return the entries of this map, in ascending key order
+	 */
+	public Iterable<Map.Entry<K, V>> entries() {
+		return () -> new EntryIterator();
+	}
+
+	/**
+	 * Walks down from the root towards key.
+	 * @param key the key to search for
+	 * @return the node holding key, or the node that would become its parent
+	 * when key is absent, with the last comparison made
+	 */
+	private Position<K> descend(K key) {
+		BSTNode<K> parent = null;
+		BSTNode<K> currentNode = root;
+		int comparison = 0;
+
+		while (currentNode != null) {
+			comparison = key.compareTo(currentNode.getData());
+
+			if (comparison == 0) {
+				return new Position<>((RBTNode<K>) currentNode, 0);
+			}
+			parent = currentNode;
+			currentNode = comparison < 0 ? currentNode.left : currentNode.right;
+		}
+
+		return new Position<>((RBTNode<K>) parent, comparison);
+	}
+
+	/**
+	 * Links a new node below the parent found by descend() and repairs any
+	 * red property violation it causes.
+	 * @param position where descend() stopped for the new node's key, which
+	 * must be absent from the map
+	 * @param newNode the new red node
+	 */
+	private void attach(Position<K> position, MapNode<K, V> newNode) {
+		RBTNode<K> parent = position.node;
+		if (parent == null) {
+			root = newNode;
+		}
+		else {
+			if (position.comparison < 0) {
+				parent.setLeft(newNode);
+			}
+			else {
+				parent.setRight(newNode);
+			}
+			newNode.setUp(parent);
+		}
+
+		ensureRedProperty(newNode);
+	}
+
+	/**
+	 * Iterates over the map's nodes in order by following parent references,
+	 * so no stack is needed.
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+		// node returned by the next call to next()
+		private BSTNode<K> next = root;
+
+		/**
+		 * Starts the iteration at the left-most node of the tree.
+		 */
+		private EntryIterator() {
+			if (next != null) {
+				while (next.left != null) {
+					next = next.left;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+
+			BSTNode<K> current = next;
+
+			if (current.right != null) {
+				//successor is the left-most node of the right subtree
+				next = current.right;
+				while (next.left != null) {
+					next = next.left;
+				}
+			}
+			else {
+				//successor is the first ancestor reached from a left child
+				next = current;
+				while (next.isRightChild()) {
+					next = next.up;
+				}
+				next = next.up;
+			}
+
+			return entry(current);
+		}
+	}
+
+	/**
+	 * Checks that put, putIfAbsent and computeIfAbsent store one node per key
+	 * and that the tree is balanced exactly like a RedBlackTree
+	 */
+	@Test
+	public void mapTest1() {
+		RedBlackTreeMap<String, Integer> map = new RedBlackTreeMap<>();
+		RedBlackTree<String> tree = new RedBlackTree<>();
+
+		String[] keys = { "N", "H", "S", "E", "K", "Q", "Y", "W", "Z", "M" };
+		for (int i = 0; i < keys.length; i++) {
+			assertNull(map.put(keys[i], i));
+			tree.insert(keys[i]);
+		}
+
+		//same shape and colors as the plain tree
+		assertEquals(tree.root.toLevelOrderString(), map.root.toLevelOrderString());
+
+		//replacing a value doesn't add a node
+		assertEquals(0, map.put("N", 100));
+		assertEquals(100, map.get("N"));
+		assertEquals(10, map.size());
+
+		//putIfAbsent keeps the existing value
+		assertEquals(100, map.putIfAbsent("N", 7));
+		assertNull(map.putIfAbsent("A", 7));
+		assertEquals(7, map.get("A"));
+
+		//computeIfAbsent only calls the function for absent keys
+		int[] calls = { 0 };
+		assertEquals(7, map.computeIfAbsent("A", k -> ++calls[0]));
+		assertEquals(1, map.computeIfAbsent("B", k -> ++calls[0]));
+		assertEquals(1, calls[0]);
+		assertNull(map.computeIfAbsent("C", k -> null));
+		assertFalse(map.contains("C"));
+		assertNull(map.get("C"));
+	}
+
+	/**
+	 * Checks that entries are iterated in ascending key order
+	 */
+	@Test
+	public void mapTest2() {
+		RedBlackTreeMap<Integer, String> map = new RedBlackTreeMap<>();
+
+		assertFalse(map.entries().iterator().hasNext());
+
+		int[] keys = { 50, 20, 80, 10, 30, 70, 90, 60, 40, 25 };
+		for (int key : keys) {
+			map.put(key, "v" + key);
+		}
+
+		StringBuffer sb = new StringBuffer();
+		for (Map.Entry<Integer, String> entry : map.entries()) {
+			sb.append(entry.getKey()).append('=').append(entry.getValue()).append(' ');
+		}
+
+		assertEquals("10=v10 20=v20 25=v25 30=v30 40=v40 50=v50 60=v60 70=v70 80=v80 90=v90 ",
+			sb.toString());
+	}
+
+}
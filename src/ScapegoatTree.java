@@ -0,0 +1,281 @@
+/**
+ * Binary search tree that repairs itself when it becomes too deep, without
+ * storing colors or balance data in its nodes. Each insert counts the depth
+ * of the new node, and when that depth is more than log base 1/alpha of the
+ * tree's size, the subtree of the lowest ancestor whose child is too large
+ * for it (the scapegoat) is rebuilt into a perfectly balanced subtree in
+ * linear time. Sorted input, which turns a plain BinarySearchTree into a
+ * chain, then costs amortized O(log n) per insert.
+ */
+public class ScapegoatTree<T extends Comparable<T>> extends BinarySearchTree<T> {
+
+	// largest fraction of a subtree's nodes that one of its children may hold
+	private final double alpha;
+	// 1 / log(1 / alpha), converts a natural log of the size into the depth bound
+	private final double depthFactor;
+	// number of nodes in the tree
+	private int size = 0;
+
+	/**
+	 * Creates an empty tree with alpha 2/3.
+	 */
+	public ScapegoatTree() {
+		this(2.0 / 3.0);
+	}
+
+	/**
+	 * Creates an empty tree that rebuilds a subtree once a child holds more
+	 * than alpha of its nodes. Smaller values keep the tree shallower at the
+	 * cost of more frequent rebuilds.
+	 * @param alpha balance factor, greater than 0.5 and less than 1
+	 * @throws IllegalArgumentException if alpha is outside that range
+	 */
+	public ScapegoatTree(double alpha) throws IllegalArgumentException {
+		if (!(alpha > 0.5 && alpha < 1)) {
+			throw new IllegalArgumentException("Alpha must be between 0.5 and 1");
+		}
+		this.alpha = alpha;
+		this.depthFactor = 1 / Math.log(1 / alpha);
+	}
+
+	/**
+	 * Inserts a new data value into the tree, walking down iteratively so
+	 * that the insert never recurses, and rebuilds the scapegoat's subtree if
+	 * the new node is deeper than the depth bound.
+	 * @param data the new value being inserted
+	 * @throws NullPointerException if data argument is null, we do not allow
+	 * null values to be stored within a SortedCollection
+	 */
+	@Override
+	public void insert(T data) throws NullPointerException {
+		if (data == null) {
+			throw new NullPointerException("Data cannot be null");
+		}
+
+		BSTNode<T> node = new BSTNode<>(data);
+		size++;
+		if (root == null) {
+			root = node;
+			return;
+		}
+
+		BSTNode<T> parent = root;
+		int depth = 1;
+		while (true) {
+			if (data.compareTo(parent.data) <= 0) {
+				if (parent.left == null) {
+					parent.left = node;
+					break;
+				}
+				parent = parent.left;
+			}
+			else {
+				if (parent.right == null) {
+					parent.right = node;
+					break;
+				}
+				parent = parent.right;
+			}
+			depth++;
+		}
+		node.up = parent;
+
+		if (depth > (int) (Math.log(size) * depthFactor)) {
+			rebuildScapegoat(node);
+		}
+	}
+
+	/**
+	 * Finds the lowest ancestor of the too deep node whose child on the path
+	 * holds more than alpha of its nodes, and rebuilds its subtree. Subtree
+	 * sizes are counted while walking up, so the work is linear in the size
+	 * of the scapegoat's subtree.
+	 */
+	private void rebuildScapegoat(BSTNode<T> node) {
+		int childSize = 1;
+		BSTNode<T> child = node;
+		BSTNode<T> ancestor = node.up;
+		while (ancestor != null) {
+			BSTNode<T> sibling = ancestor.left == child ? ancestor.right : ancestor.left;
+			int ancestorSize = childSize + 1 + count(sibling);
+			if (childSize > alpha * ancestorSize) {
+				rebuild(ancestor, ancestorSize);
+				return;
+			}
+			child = ancestor;
+			childSize = ancestorSize;
+			ancestor = ancestor.up;
+		}
+	}
+
+	/**
+	 * @return the number of nodes in the subtree rooted at node, counted without recursion
+	 */
+	private int count(BSTNode<T> node) {
+		int count = 0;
+		for (BSTNode<T> current = leftmost(node); current != null; current = subtreeSuccessor(current, node)) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the in-order successor of node within the subtree rooted at top,
+	 * or null once the subtree has been passed
+	 */
+	private BSTNode<T> subtreeSuccessor(BSTNode<T> node, BSTNode<T> top) {
+		if (node.right != null) {
+			return leftmost(node.right);
+		}
+		while (node != top && node.isRightChild()) {
+			node = node.up;
+		}
+		return node == top ? null : node.up;
+	}
+
+	/**
+	 * Replaces the subtree rooted at top, which holds subtreeSize nodes, with
+	 * a perfectly balanced subtree of the same nodes.
+	 */
+	private void rebuild(BSTNode<T> top, int subtreeSize) {
+		BSTNode<T> up = top.up;
+		boolean wasLeft = up != null && up.left == top;
+
+		@SuppressWarnings("unchecked")
+		BSTNode<T>[] nodes = (BSTNode<T>[]) new BSTNode<?>[subtreeSize];
+		int i = 0;
+		for (BSTNode<T> current = leftmost(top); current != null; current = subtreeSuccessor(current, top)) {
+			nodes[i++] = current;
+		}
+
+		BSTNode<T> newTop = link(nodes, 0, subtreeSize - 1, up);
+		if (up == null) {
+			root = newTop;
+		}
+		else if (wasLeft) {
+			up.left = newTop;
+		}
+		else {
+			up.right = newTop;
+		}
+	}
+
+	/**
+	 * Links nodes[lo..hi] into a balanced subtree below up and returns its root.
+	 */
+	private BSTNode<T> link(BSTNode<T>[] nodes, int lo, int hi, BSTNode<T> up) {
+		if (lo > hi) {
+			return null;
+		}
+		int middle = (lo + hi) >>> 1;
+		BSTNode<T> node = nodes[middle];
+		node.up = up;
+		node.left = link(nodes, lo, middle - 1, node);
+		node.right = link(nodes, middle + 1, hi, node);
+		return node;
+	}
+
+	/**
+	 * @return the number of values in the tree, including duplicates
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all values and duplicates from the tree.
+	 */
+	@Override
+	public void clear() {
+		root = null;
+		size = 0;
+	}
+
+	/**
+	 * @return the number of nodes on the longest path from the root to a leaf
+	 */
+	private static int height(BSTNode<?> node) {
+		return node == null ? 0 : 1 + Math.max(height(node.left), height(node.right));
+	}
+
+	/**
+	 * tests that sorted and reverse sorted inserts, which build chains in a
+	 * plain binary search tree, stay within the depth bound
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test1() {
+		ScapegoatTree<Integer> tree = new ScapegoatTree<>();
+
+		for (int i = 0; i < 10000; i++) {
+			tree.insert(i);
+		}
+		//depth bound is log base 1.5 of 10000, about 22 edges
+		if (height(tree.root) > 24) {
+			System.out.println("Test 1 - Height after ascending inserts: " + height(tree.root));
+			return false;
+		}
+
+		tree.clear();
+		for (int i = 10000; i > 0; i--) {
+			tree.insert(i);
+		}
+		if (height(tree.root) > 24 || tree.size() != 10000) {
+			System.out.println("Test 1 - Height after descending inserts: " + height(tree.root));
+			return false;
+		}
+
+		int expected = 1;
+		for (int value : tree) {
+			if (value != expected++) {
+				System.out.println("Test 1 - order broken at " + value);
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * tests queries on a tree with duplicates after several rebuilds
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test2() {
+		ScapegoatTree<Integer> tree = new ScapegoatTree<>(0.55);
+
+		for (int i = 0; i < 1000; i++) {
+			tree.insert(i / 2 * 2); //every even value twice
+		}
+
+		if (tree.size() != 1000 || !tree.contains(998) || tree.contains(999)) {
+			System.out.println("Test 2 - Actual size: " + tree.size());
+			return false;
+		}
+
+		if (tree.floor(7) != 6 || tree.ceiling(7) != 8 || tree.lower(6) != 4 || tree.higher(6) != 8
+			|| tree.first() != 0 || tree.last() != 998) {
+			System.out.println("Test 2 - navigation failed");
+			return false;
+		}
+
+		//every parent reference must agree with the child references
+		for (BSTNode<Integer> node = tree.leftmost(tree.root); node != null; node = tree.successor(node)) {
+			if ((node.left != null && node.left.up != node) || (node.right != null && node.right.up != node)) {
+				System.out.println("Test 2 - broken parent reference at " + node.data);
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * calls test methods and prints results
+	 * @param args - unused
+	 */
+	public static void main(String[] args) {
+		System.out.println("Test 1 result: " + test1());
+		System.out.println("Test 2 result: " + test2());
+	}
+
+}
@@ -0,0 +1,652 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Thread safe sorted collection that splits the value space into key ranges,
+ * each stored in its own RedBlackTree with its own lock, so that writes to
+ * different ranges run in parallel. The initial range boundaries are chosen
+ * from a sample of the expected values, and a shard that grows past a size
+ * limit is split in two at its median. Size stands in for how hot a shard
+ * is: with keys spread evenly, a range gets writes in proportion to the
+ * values it holds, and splitting by size also bounds every tree's height.
+ *
+ * The key ranges are looked up in an immutable routing table read through a
+ * volatile field, so operations share no lock. A split publishes a new
+ * table and marks the old shard retired while holding its write lock, and
+ * an operation that finds its shard retired routes again.
+ * @param <T> type of the values
+ */
+public class ShardedSortedCollection<T extends Comparable<T>> implements SortedCollection<T>, Iterable<T> {
+
+	/**
+	 * One key range: a tree, its lock and its number of values.
+	 */
+	private static class Shard<T extends Comparable<T>> {
+		final RedBlackTree<T> tree = new RedBlackTree<>();
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		// values in tree, kept here since RedBlackTree.size() walks the whole tree
+		int count = 0;
+		// true once a split replaced this shard, guarded by lock
+		boolean retired = false;
+	}
+
+	/**
+	 * Immutable routing table. Shard i holds the values v with
+	 * splitters[i - 1] < v <= splitters[i], and the last shard holds every
+	 * value above the last splitter. Splits only add splitters, so a
+	 * splitter stays a range boundary in every later table.
+	 */
+	private static final class Table<T extends Comparable<T>> {
+		final List<T> splitters;
+		final List<Shard<T>> shards;
+
+		Table(List<T> splitters, List<Shard<T>> shards) {
+			this.splitters = splitters;
+			this.shards = shards;
+		}
+
+		/**
+		 * Finds the shard whose key range contains data.
+		 * @return the index of the first splitter that is greater than or equal
+		 * to data, or the index of the last shard if there is none
+		 */
+		int route(Comparable<T> data) {
+			int lo = 0;
+			int hi = splitters.size();
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (data.compareTo(splitters.get(mid)) > 0) {
+					lo = mid + 1;
+				}
+				else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+	}
+
+	// current routing table, replaced as a whole by split
+	private volatile Table<T> table;
+	// number of values a shard may hold before it is split
+	private final int maxShardSize;
+
+	/**
+	 * Creates an empty collection with up to shardCount key ranges, each
+	 * holding about the same share of the sample.
+	 * @param sample values that are representative of what will be inserted
+	 * @param shardCount number of key ranges to start with
+	 * @param maxShardSize number of values a shard may hold before it is split
+	 * @throws NullPointerException if sample is null or contains null
+	 * @throws IllegalArgumentException if shardCount or maxShardSize is less than 1
+	 */
+	public ShardedSortedCollection(Collection<? extends T> sample, int shardCount, int maxShardSize)
+		throws NullPointerException, IllegalArgumentException {
+		if (sample == null) {
+			throw new NullPointerException("Sample cannot be null");
+		}
+		if (shardCount < 1 || maxShardSize < 1) {
+			throw new IllegalArgumentException("Shard count and maximum shard size must be positive");
+		}
+
+		List<T> sorted = new ArrayList<>(sample);
+		Collections.sort(sorted);
+
+		//evenly spaced quantiles of the sample become the boundaries, skipping repeats
+		List<T> splitters = new ArrayList<>();
+		for (int i = 1; i < shardCount && !sorted.isEmpty(); i++) {
+			T splitter = sorted.get((int) ((long) i * sorted.size() / shardCount));
+			if (splitters.isEmpty() || splitter.compareTo(splitters.get(splitters.size() - 1)) > 0) {
+				splitters.add(splitter);
+			}
+		}
+
+		List<Shard<T>> shards = new ArrayList<>();
+		for (int i = 0; i <= splitters.size(); i++) {
+			shards.add(new Shard<>());
+		}
+		this.table = new Table<>(splitters, shards);
+		this.maxShardSize = maxShardSize;
+	}
+
+	/**
+	 * Inserts a new data value into the shard for its key range, splitting
+	 * that shard afterwards if it has grown too large.
+	 * @param data the new value being inserted
+	 * @throws NullPointerException if data argument is null, we do not allow
+	 * null values to be stored within a SortedCollection
+	 */
+	@Override
+	public void insert(T data) throws NullPointerException {
+		if (data == null) {
+			throw new NullPointerException("Data cannot be null.");
+		}
+
+		while (true) {
+			Table<T> current = table;
+			Shard<T> shard = current.shards.get(current.route(data));
+			boolean tooLarge;
+			shard.lock.writeLock().lock();
+			try {
+				if (shard.retired) {
+					continue;
+				}
+				shard.tree.insert(data);
+				shard.count++;
+				tooLarge = shard.count > maxShardSize;
+			} finally {
+				shard.lock.writeLock().unlock();
+			}
+
+			if (tooLarge) {
+				split(shard);
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Splits shard into two shards at its median value, unless another thread
+	 * already has or every value in it is the same. Splits and clear are
+	 * synchronized on the collection, so only one of them changes the table
+	 * at a time.
+	 */
+	private synchronized void split(Shard<T> shard) {
+		Table<T> current = table;
+		int index = current.shards.indexOf(shard);
+		if (index < 0) {
+			return;
+		}
+
+		shard.lock.writeLock().lock();
+		try {
+			if (shard.count <= maxShardSize) {
+				return;
+			}
+
+			List<T> values = new ArrayList<>(shard.count);
+			for (T value : shard.tree) {
+				values.add(value);
+			}
+
+			//the new boundary must leave at least one value on its right
+			T median = values.get((values.size() - 1) / 2);
+			if (median.compareTo(values.get(values.size() - 1)) == 0) {
+				return;
+			}
+
+			//values are already sorted, so both halves can be built without rotations
+			int cut = values.size() - 1;
+			while (values.get(cut).compareTo(median) > 0) {
+				cut--;
+			}
+			Shard<T> lower = new Shard<>();
+			Shard<T> upper = new Shard<>();
+			lower.tree.buildFromSorted(values.subList(0, cut + 1));
+			lower.count = cut + 1;
+			upper.tree.buildFromSorted(values.subList(cut + 1, values.size()));
+			upper.count = values.size() - cut - 1;
+
+			List<T> newSplitters = new ArrayList<>(current.splitters);
+			newSplitters.add(index, median);
+			List<Shard<T>> newShards = new ArrayList<>(current.shards);
+			newShards.set(index, lower);
+			newShards.add(index + 1, upper);
+			//published before the old shard is unlocked, so threads waiting for it route again to the new table
+			table = new Table<>(newSplitters, newShards);
+			shard.retired = true;
+		} finally {
+			shard.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Check whether data is stored in the collection.
+	 * @param data the value to check for in the collection
+	 * @return true if the collection contains data one or more times,
+	 * and false otherwise
+	 */
+	@Override
+	public boolean contains(Comparable<T> data) {
+		while (true) {
+			Table<T> current = table;
+			Shard<T> shard = current.shards.get(current.route(data));
+			shard.lock.readLock().lock();
+			try {
+				if (!shard.retired) {
+					return shard.tree.contains(data);
+				}
+			} finally {
+				shard.lock.readLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Counts the number of values in the collection by adding up the count
+	 * kept by every shard, so no tree is walked.
+	 * @return the number of values in the collection, including duplicates
+	 */
+	@Override
+	public int size() {
+		retry:
+		while (true) {
+			int size = 0;
+			for (Shard<T> shard : table.shards) {
+				shard.lock.readLock().lock();
+				try {
+					if (shard.retired) {
+						continue retry;
+					}
+					size += shard.count;
+				} finally {
+					shard.lock.readLock().unlock();
+				}
+			}
+			return size;
+		}
+	}
+
+	/**
+	 * Checks if the collection is empty.
+	 * @return true if the collection contains 0 values, false otherwise
+	 */
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Removes all values and duplicates from the collection, keeping the
+	 * current key ranges.
+	 */
+	@Override
+	public synchronized void clear() {
+		for (Shard<T> shard : table.shards) {
+			shard.lock.writeLock().lock();
+			try {
+				shard.tree.clear();
+				shard.count = 0;
+			} finally {
+				shard.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Finds the greatest value less than or equal to data, moving to lower
+	 * shards if data's own shard has none.
+	 */
+	@Override
+	public T floor(Comparable<T> data) {
+		return navigate(data, -1, tree -> tree.floor(data));
+	}
+
+	/**
+	 * Finds the least value greater than or equal to data, moving to higher
+	 * shards if data's own shard has none.
+	 */
+	@Override
+	public T ceiling(Comparable<T> data) {
+		return navigate(data, 1, tree -> tree.ceiling(data));
+	}
+
+	/**
+	 * Finds the greatest value strictly less than data, moving to lower
+	 * shards if data's own shard has none.
+	 */
+	@Override
+	public T lower(Comparable<T> data) {
+		return navigate(data, -1, tree -> tree.lower(data));
+	}
+
+	/**
+	 * Finds the least value strictly greater than data, moving to higher
+	 * shards if data's own shard has none.
+	 */
+	@Override
+	public T higher(Comparable<T> data) {
+		return navigate(data, 1, tree -> tree.higher(data));
+	}
+
+	/**
+	 * @return the smallest value in the collection, or null if it is empty
+	 */
+	@Override
+	public T first() {
+		return navigate(null, 1, RedBlackTree::first);
+	}
+
+	/**
+	 * @return the largest value in the collection, or null if it is empty
+	 */
+	@Override
+	public T last() {
+		return navigate(null, -1, RedBlackTree::last);
+	}
+
+	/**
+	 * Applies query to one shard after another, each under its read lock,
+	 * until one returns a value, starting from data's shard and moving by
+	 * step. Starts over with the new table if it meets a retired shard.
+	 * @param data the value whose shard to start from, or null to start from
+	 * the end of the table that step moves away from
+	 * @param step 1 to move to higher shards, -1 to move to lower ones
+	 */
+	private T navigate(Comparable<T> data, int step, Function<RedBlackTree<T>, T> query) {
+		retry:
+		while (true) {
+			Table<T> current = table;
+			int i = data != null ? current.route(data) : step > 0 ? 0 : current.shards.size() - 1;
+			for (; i >= 0 && i < current.shards.size(); i += step) {
+				Shard<T> shard = current.shards.get(i);
+				shard.lock.readLock().lock();
+				try {
+					if (shard.retired) {
+						continue retry;
+					}
+					T result = query.apply(shard.tree);
+					if (result != null) {
+						return result;
+					}
+				} finally {
+					shard.lock.readLock().unlock();
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Position between key ranges, for visiting the ranges in order while
+	 * shards are being split. Each range is looked up in the table that is
+	 * current when the cursor gets to it.
+	 */
+	private final class RangeCursor {
+		// upper splitter of the last range visited, or null before the first
+		private T bound = null;
+		// true once the last range has been visited
+		private boolean done = false;
+
+		/**
+		 * Read locks the live shard for the range after bound and moves past
+		 * that range.
+		 * @return the locked shard, or null if every range has been visited
+		 */
+		Shard<T> lockNext() {
+			while (!done) {
+				Table<T> current = table;
+				int index = bound == null ? 0 : current.route(bound) + 1;
+				Shard<T> shard = current.shards.get(index);
+				shard.lock.readLock().lock();
+				if (shard.retired) {
+					shard.lock.readLock().unlock();
+					continue;
+				}
+				if (index < current.splitters.size()) {
+					bound = current.splitters.get(index);
+				}
+				else {
+					done = true;
+				}
+				return shard;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Passes every value to action in ascending order. Since key ranges don't
+	 * overlap, this visits the ranges one after another, holding each shard's
+	 * read lock while its values are passed on.
+	 * @param action the action to perform on each value
+	 */
+	@Override
+	public void forEach(Consumer<? super T> action) {
+		RangeCursor cursor = new RangeCursor();
+		for (Shard<T> shard = cursor.lockNext(); shard != null; shard = cursor.lockNext()) {
+			try {
+				shard.tree.forEach(action);
+			} finally {
+				shard.lock.readLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Iterates over every value in ascending order. Each key range is copied
+	 * from the shard holding it when the iterator reaches it, so inserts made
+	 * while iterating are seen if they land in a range that has not been
+	 * reached yet, even when its shard was split meanwhile.
+	 * @return an iterator over the values in order
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private final RangeCursor cursor = new RangeCursor();
+			private Iterator<T> current = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext() {
+				while (!current.hasNext()) {
+					Shard<T> shard = cursor.lockNext();
+					if (shard == null) {
+						return false;
+					}
+					List<T> values = new ArrayList<>(shard.count);
+					try {
+						shard.tree.forEach(values::add);
+					} finally {
+						shard.lock.readLock().unlock();
+					}
+					current = values.iterator();
+				}
+				return true;
+			}
+
+			@Override
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return current.next();
+			}
+		};
+	}
+
+	/**
+	 * @return the number of key ranges the collection is currently split into
+	 */
+	public int shardCount() {
+		return table.shards.size();
+	}
+
+	/**
+	 * Tests routing, navigation and ordered iteration with sampled boundaries
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test1() {
+		List<Integer> sample = new ArrayList<>();
+		for (int i = 0; i < 1000; i += 10) {
+			sample.add(i);
+		}
+		ShardedSortedCollection<Integer> collection = new ShardedSortedCollection<>(sample, 4, 1000);
+
+		if (collection.shardCount() != 4 || !collection.isEmpty() || collection.first() != null) {
+			System.out.println("Test 1 - collection should start empty with 4 shards");
+			return false;
+		}
+
+		for (int i = 999; i >= 0; i -= 2) {
+			collection.insert(i);
+		}
+
+		if (collection.size() != 500 || !collection.contains(501) || collection.contains(500)) {
+			System.out.println("Test 1 - Actual size: " + collection.size());
+			return false;
+		}
+
+		//neighbours found across shard boundaries
+		if (collection.floor(250) != 249 || collection.ceiling(250) != 251 || collection.lower(1) != null
+			|| collection.higher(999) != null || collection.first() != 1 || collection.last() != 999) {
+			System.out.println("Test 1 - navigation across shards failed");
+			return false;
+		}
+
+		int expected = 1;
+		for (int value : collection) {
+			if (value != expected) {
+				System.out.println("Test 1 - expected " + expected + " but iterated " + value);
+				return false;
+			}
+			expected += 2;
+		}
+		if (expected != 1001) {
+			System.out.println("Test 1 - iteration stopped early at " + expected);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Tests that concurrent inserts split shards that grow too large
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test2() {
+		//a sample of a single value leaves everything in one shard at first
+		ShardedSortedCollection<Integer> collection =
+			new ShardedSortedCollection<>(Collections.singletonList(0), 1, 100);
+		Thread[] threads = new Thread[4];
+
+		for (int t = 0; t < threads.length; t++) {
+			int offset = t;
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 1000; i++) {
+					collection.insert(i * threads.length + offset);
+				}
+			});
+			threads[t].start();
+		}
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			return false;
+		}
+
+		if (collection.size() != 4000 || collection.shardCount() < 40) {
+			System.out.println("Test 2 - Actual size and shards: " + collection.size() + ", "
+				+ collection.shardCount());
+			return false;
+		}
+
+		int expected = 0;
+		for (int value : collection) {
+			if (value != expected++) {
+				System.out.println("Test 2 - values out of order at " + value);
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Tests that an iterator sees inserts into ranges it has not reached yet
+	 * after their shard was split, and that readers never miss a value while
+	 * shards are being split
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test3() {
+		ShardedSortedCollection<Integer> collection =
+			new ShardedSortedCollection<>(Collections.singletonList(500), 2, 300);
+		for (int i = 0; i < 1000; i += 2) {
+			collection.insert(i);
+		}
+		Iterator<Integer> iterator = collection.iterator();
+		if (iterator.next() != 0) {
+			System.out.println("Test 3 - iteration should start at 0");
+			return false;
+		}
+		//the upper shard grows past 300 values and is split
+		for (int i = 501; i < 1000; i += 2) {
+			collection.insert(i);
+		}
+		if (collection.shardCount() < 3) {
+			System.out.println("Test 3 - upper shard was not split");
+			return false;
+		}
+		int expected = 2;
+		while (iterator.hasNext()) {
+			int value = iterator.next();
+			if (value != expected) {
+				System.out.println("Test 3 - expected " + expected + " but iterated " + value);
+				return false;
+			}
+			expected += expected < 500 ? 2 : 1;
+		}
+		if (expected != 1000) {
+			System.out.println("Test 3 - iteration stopped early at " + expected);
+			return false;
+		}
+
+		//one thread keeps splitting shards while another looks up values inserted before
+		ShardedSortedCollection<Integer> growing =
+			new ShardedSortedCollection<>(Collections.singletonList(0), 1, 50);
+		for (int i = 0; i < 20000; i += 10) {
+			growing.insert(i);
+		}
+		boolean[] missed = new boolean[1];
+		Thread writer = new Thread(() -> {
+			for (int i = 0; i < 20000; i++) {
+				if (i % 10 != 0) {
+					growing.insert(i);
+				}
+			}
+		});
+		Thread reader = new Thread(() -> {
+			while (writer.isAlive()) {
+				for (int i = 0; i < 20000; i += 10) {
+					if (!growing.contains(i) || growing.floor(i) != i) {
+						missed[0] = true;
+					}
+				}
+			}
+		});
+		writer.start();
+		reader.start();
+		try {
+			writer.join();
+			reader.join();
+		} catch (InterruptedException e) {
+			return false;
+		}
+		if (missed[0] || growing.size() != 20000 || growing.shardCount() < 300) {
+			System.out.println("Test 3 - Actual size and shards: " + growing.size() + ", "
+				+ growing.shardCount() + (missed[0] ? ", a reader missed a value" : ""));
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * calls test methods and prints results
+	 * @param args - unused
+	 */
+	public static void main(String[] args) {
+		System.out.println("Test 1 result: " + test1());
+		System.out.println("Test 2 result: " + test2());
+		System.out.println("Test 3 result: " + test3());
+	}
+
+}
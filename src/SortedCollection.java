@@ -37,5 +37,51 @@ public interface SortedCollection<T extends Comparable<T>> {
      * Removes all values and duplicates from the collection.
      */
     public void clear();
+
+    /**
+     * Finds the greatest value in the collection that is less than or equal
+     * to data.
+     * @param data the value to search around
+     * @return the greatest value less than or equal to data, or null if there
+     * is no such value
+     */
+    public T floor(Comparable<T> data);
+
+    /**
+     * Finds the least value in the collection that is greater than or equal
+     * to data.
+     * @param data the value to search around
+     * @return the least value greater than or equal to data, or null if there
+     * is no such value
+     */
+    public T ceiling(Comparable<T> data);
+
+    /**
+     * Finds the greatest value in the collection that is strictly less than
+     * data.
+     * @param data the value to search around
+     * @return the greatest value less than data, or null if there is no such
+     * value
+     */
+    public T lower(Comparable<T> data);
+
+    /**
+     * Finds the least value in the collection that is strictly greater than
+     * data.
+     * @param data the value to search around
+     * @return the least value greater than data, or null if there is no such
+     * value
+     */
+    public T higher(Comparable<T> data);
+
+    /**
+     * @return the smallest value in the collection, or null if it is empty
+     */
+    public T first();
+
+    /**
+     * @return the largest value in the collection, or null if it is empty
+     */
+    public T last();
     
 }
\ No newline at end of file
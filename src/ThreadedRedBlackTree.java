@@ -0,0 +1,338 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Red black tree whose nodes are also linked to their in-order predecessor
+ * and successor, with the first and last nodes cached. first() and last()
+ * are O(1), every iteration step is O(1), and pollFirst()/pollLast() remove
+ * from either end, so the tree works as a double ended priority queue.
+ * Rotations never change the in-order sequence, so the links only change
+ * when a node is inserted or removed.
+ * @param <T> type of the values
+ */
+public class ThreadedRedBlackTree<T extends Comparable<T>> extends RedBlackTree<T> {
+
+	/**
+	 * Red black tree node linked to its in-order neighbours.
+	 */
+	protected static class ThreadedNode<T> extends RBTNode<T> {
+
+		// in-order predecessor, or null for the first node
+		protected ThreadedNode<T> prev = null;
+		// in-order successor, or null for the last node
+		protected ThreadedNode<T> next = null;
+
+		/**
+		 * Creates an unlinked node with the value data.
+		 */
+		public ThreadedNode(T data) {
+			super(data);
+		}
+	}
+
+	// first and last nodes in order, null when the tree is empty
+	protected ThreadedNode<T> head = null;
+	protected ThreadedNode<T> tail = null;
+	// number of values in the tree
+	private int size = 0;
+
+	@Override
+	protected RBTNode<T> createNode(T data) {
+		return new ThreadedNode<>(data);
+	}
+
+	/**
+	 * Inserts a new data value and links it between its in-order neighbours.
+	 * @param data the new value being inserted
+	 * @throws NullPointerException if data argument is null, we do not allow
+	 * null values to be stored within a SortedCollection
+	 */
+	@Override
+	public void insert(T data) throws NullPointerException {
+		boolean wasEmpty = root == null;
+		super.insert(data);
+		size++;
+		if (wasEmpty) {
+			head = (ThreadedNode<T>) root;
+			tail = head;
+		}
+	}
+
+	/**
+	 * Inserts newNode below subtree like BSTRotation does. The call that
+	 * attaches newNode to its parent also links it into the in-order list:
+	 * as a left child it comes just before its parent, as a right child just
+	 * after it.
+	 */
+	@Override
+	protected void insertHelper(BSTNode<T> newNode, BSTNode<T> subtree) {
+		super.insertHelper(newNode, subtree);
+		if (newNode.up != subtree) {
+			return;
+		}
+
+		ThreadedNode<T> node = (ThreadedNode<T>) newNode;
+		ThreadedNode<T> parent = (ThreadedNode<T>) subtree;
+		if (parent.left == node) {
+			node.prev = parent.prev;
+			node.next = parent;
+		}
+		else {
+			node.prev = parent;
+			node.next = parent.next;
+		}
+		if (node.prev == null) {
+			head = node;
+		}
+		else {
+			node.prev.next = node;
+		}
+		if (node.next == null) {
+			tail = node;
+		}
+		else {
+			node.next.prev = node;
+		}
+	}
+
+	/**
+	 * Unlinks node from its in-order neighbours and removes it from the tree.
+	 */
+	@Override
+	protected void removeNode(RBTNode<T> node) {
+		ThreadedNode<T> threaded = (ThreadedNode<T>) node;
+		if (threaded.prev == null) {
+			head = threaded.next;
+		}
+		else {
+			threaded.prev.next = threaded.next;
+		}
+		if (threaded.next == null) {
+			tail = threaded.prev;
+		}
+		else {
+			threaded.next.prev = threaded.prev;
+		}
+		threaded.prev = null;
+		threaded.next = null;
+
+		super.removeNode(node);
+		size--;
+	}
+
+	/**
+	 * Removes and returns the smallest value.
+	 * @return the smallest value, or null if the tree is empty
+	 */
+	public T pollFirst() {
+		ThreadedNode<T> first = head;
+		if (first == null) {
+			return null;
+		}
+		removeNode(first);
+		return first.data;
+	}
+
+	/**
+	 * Removes and returns the largest value.
+	 * @return the largest value, or null if the tree is empty
+	 */
+	public T pollLast() {
+		ThreadedNode<T> last = tail;
+		if (last == null) {
+			return null;
+		}
+		removeNode(last);
+		return last.data;
+	}
+
+	@Override
+	public T first() {
+		return head == null ? null : head.data;
+	}
+
+	@Override
+	public T last() {
+		return tail == null ? null : tail.data;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		head = null;
+		tail = null;
+		size = 0;
+	}
+
+	/**
+	 * Builds the tree from sorted like RedBlackTree does, then links the new
+	 * nodes in order.
+	 */
+	@Override
+	public void buildFromSorted(List<? extends T> sorted)
+		throws NullPointerException, IllegalArgumentException {
+		super.buildFromSorted(sorted);
+		linkInOrder();
+		size = sorted.size();
+	}
+
+	/**
+	 * @return a new tree with the same values in the same node layout, whose
+	 * nodes are linked in order like this tree's
+	 */
+	@Override
+	public ThreadedRedBlackTree<T> copy() {
+		ThreadedRedBlackTree<T> copy = new ThreadedRedBlackTree<>();
+		copyInto(copy);
+		copy.linkInOrder();
+		copy.size = size;
+		return copy;
+	}
+
+	/**
+	 * Links every node of the tree to its in-order neighbours and sets head
+	 * and tail, for nodes that were not created by insert.
+	 */
+	private void linkInOrder() {
+		head = (ThreadedNode<T>) leftmost(root);
+		tail = null;
+		for (BSTNode<T> node = head; node != null; node = successor(node)) {
+			ThreadedNode<T> threaded = (ThreadedNode<T>) node;
+			threaded.prev = tail;
+			threaded.next = null;
+			if (tail != null) {
+				tail.next = threaded;
+			}
+			tail = threaded;
+		}
+	}
+
+	/**
+	 * Iterates over the values in ascending order along the successor links.
+	 * The iterator must not be used after the tree is modified.
+	 * @return an iterator over the values in order
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private ThreadedNode<T> next = head;
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public T next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				T data = next.data;
+				next = next.next;
+				return data;
+			}
+		};
+	}
+
+	/**
+	 * @return an iterator over the values in descending order along the
+	 * predecessor links
+	 */
+	public Iterator<T> descendingIterator() {
+		return new Iterator<T>() {
+			private ThreadedNode<T> next = tail;
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public T next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				T data = next.data;
+				next = next.prev;
+				return data;
+			}
+		};
+	}
+
+	/**
+	 * Checks that the links follow the in-order sequence through random
+	 * inserts and polls from both ends
+	 */
+	@Test
+	public void threadedTest1() {
+		ThreadedRedBlackTree<Integer> tree = new ThreadedRedBlackTree<>();
+		List<Integer> expected = new ArrayList<>();
+		Random random = new Random(42);
+
+		assertNull(tree.pollFirst());
+		for (int i = 0; i < 5000; i++) {
+			int operation = random.nextInt(4);
+			if (operation < 2 || expected.isEmpty()) {
+				int value = random.nextInt(1000);
+				tree.insert(value);
+				expected.add(value);
+				Collections.sort(expected);
+			}
+			else if (operation == 2) {
+				assertEquals(expected.remove(0), tree.pollFirst());
+			}
+			else {
+				assertEquals(expected.remove(expected.size() - 1), tree.pollLast());
+			}
+
+			assertEquals(expected.size(), tree.size());
+			if (!expected.isEmpty()) {
+				assertEquals(expected.get(0), tree.first());
+				assertEquals(expected.get(expected.size() - 1), tree.last());
+			}
+		}
+
+		assertTrue(tree.validate().isValid(), tree.validate().toString());
+		List<Integer> forward = new ArrayList<>();
+		tree.forEach(forward::add);
+		assertEquals(expected, forward);
+
+		List<Integer> backward = new ArrayList<>();
+		tree.descendingIterator().forEachRemaining(backward::add);
+		Collections.reverse(backward);
+		assertEquals(expected, backward);
+	}
+
+	/**
+	 * Checks that buildFromSorted links the nodes it creates
+	 */
+	@Test
+	public void threadedTest2() {
+		ThreadedRedBlackTree<Integer> tree = new ThreadedRedBlackTree<>();
+		tree.buildFromSorted(List.of(1, 2, 3, 4, 5));
+		tree.insert(0);
+
+		assertEquals(6, tree.size());
+		assertEquals(0, tree.pollFirst());
+		assertEquals(5, tree.pollLast());
+		assertEquals(1, tree.first());
+		assertEquals(4, tree.last());
+
+		tree.clear();
+		assertNull(tree.first());
+		assertTrue(tree.isEmpty());
+	}
+
+}
@@ -0,0 +1,225 @@
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Red black tree that keeps at most capacity values, either the largest or
+ * the smallest ones inserted so far. The node that would be evicted next,
+ * the smallest kept value when keeping the largest, is cached, so a value
+ * that would not make it into the tree is rejected with a single comparison
+ * and without walking down the tree. A value that is accepted into a full
+ * tree evicts the cached node with removeNode in O(log capacity).
+ */
+public class TopKRedBlackTree<T extends Comparable<T>> extends RedBlackTree<T> {
+
+	// most values the tree keeps
+	private final int capacity;
+	// 1 to keep the largest values, -1 to keep the smallest
+	private final int direction;
+	// number of values in the tree
+	private int size = 0;
+	// node holding the value that is evicted next, null when the tree is empty
+	private RBTNode<T> threshold = null;
+	// node most recently created by insert
+	private RBTNode<T> lastCreated = null;
+
+	/**
+	 * Creates an empty tree that keeps the capacity largest or smallest values.
+	 * @param capacity most values the tree keeps
+	 * @param keepLargest true to keep the largest values, false to keep the smallest
+	 * @throws IllegalArgumentException if capacity is less than 1
+	 */
+	public TopKRedBlackTree(int capacity, boolean keepLargest) throws IllegalArgumentException {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.direction = keepLargest ? 1 : -1;
+	}
+
+	@Override
+	protected RBTNode<T> createNode(T data) {
+		lastCreated = super.createNode(data);
+		return lastCreated;
+	}
+
+	/**
+	 * Offers data to the tree. When the tree is full, data is rejected unless
+	 * it ranks above the value that would be evicted next, and accepting it
+	 * evicts that value. Values equal to the threshold are rejected.
+	 * @param data the value being offered
+	 * @return true if data was added to the tree, false if it was rejected
+	 * @throws NullPointerException if data is null
+	 */
+	public boolean offer(T data) throws NullPointerException {
+		if (data == null) {
+			throw new NullPointerException("Data cannot be null.");
+		}
+
+		if (size == capacity) {
+			if (direction * data.compareTo(threshold.data) <= 0) {
+				return false;
+			}
+			removeNode(threshold);
+			size--;
+			super.insert(data);
+			size++;
+			threshold = (RBTNode<T>) (direction > 0 ? leftmost(root) : rightmost(root));
+			return true;
+		}
+
+		super.insert(data);
+		size++;
+		if (threshold == null || direction * data.compareTo(threshold.data) < 0) {
+			threshold = lastCreated;
+		}
+		return true;
+	}
+
+	/**
+	 * Offers data to the tree like offer, ignoring whether it was kept.
+	 * @throws NullPointerException if data is null
+	 */
+	@Override
+	public void insert(T data) throws NullPointerException {
+		offer(data);
+	}
+
+	/**
+	 * @return the right-most node of the subtree rooted at node, or null if node is null
+	 */
+	private BSTNode<T> rightmost(BSTNode<T> node) {
+		if (node != null) {
+			while (node.right != null) {
+				node = node.right;
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * @return the value that would be evicted next: the smallest kept value
+	 * when keeping the largest values, the largest otherwise, or null if the
+	 * tree is empty
+	 */
+	public T threshold() {
+		return threshold == null ? null : threshold.data;
+	}
+
+	/**
+	 * @return the most values the tree keeps
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of values in the tree, including duplicates
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all values and duplicates from the tree.
+	 */
+	@Override
+	public void clear() {
+		super.clear();
+		size = 0;
+		threshold = null;
+	}
+
+	/**
+	 * Replaces the tree's contents like RedBlackTree does, keeping only the
+	 * capacity largest or smallest values of sorted.
+	 */
+	@Override
+	public void buildFromSorted(List<? extends T> sorted)
+		throws NullPointerException, IllegalArgumentException {
+		int keep = Math.min(capacity, sorted.size());
+		super.buildFromSorted(direction > 0 ? sorted.subList(sorted.size() - keep, sorted.size())
+			: sorted.subList(0, keep));
+		size = keep;
+		threshold = (RBTNode<T>) (direction > 0 ? leftmost(root) : rightmost(root));
+	}
+
+	/**
+	 * @return a new tree with the same capacity, direction and values, in
+	 * the same node layout
+	 */
+	@Override
+	public TopKRedBlackTree<T> copy() {
+		TopKRedBlackTree<T> copy = new TopKRedBlackTree<>(capacity, direction > 0);
+		copyInto(copy);
+		copy.size = size;
+		copy.threshold = (RBTNode<T>) (direction > 0 ? leftmost(copy.root) : rightmost(copy.root));
+		return copy;
+	}
+
+	/**
+	 * JUnit tests, nested because a TopKRedBlackTree cannot be created without
+	 * a capacity and JUnit needs a no-argument constructor
+	 */
+	static class TopKRedBlackTreeTest {
+
+		/**
+		 * Checks that the tree keeps the same values as a bounded priority
+		 * queue over a long random stream
+		 */
+		@Test
+		public void topKTest1() {
+			TopKRedBlackTree<Integer> top = new TopKRedBlackTree<>(100, true);
+			PriorityQueue<Integer> expected = new PriorityQueue<>();
+			Random random = new Random(41);
+
+			for (int i = 0; i < 100000; i++) {
+				int value = random.nextInt(1000000);
+				top.offer(value);
+				expected.add(value);
+				if (expected.size() > 100) {
+					expected.poll();
+				}
+			}
+
+			assertEquals(100, top.size());
+			assertEquals(expected.peek(), top.threshold());
+			assertTrue(top.validate().isValid());
+			for (int value : top) {
+				assertEquals(expected.poll(), value);
+			}
+		}
+
+		/**
+		 * Checks keeping the smallest values, rejection of values past the
+		 * threshold, and duplicates
+		 */
+		@Test
+		public void topKTest2() {
+			TopKRedBlackTree<Integer> bottom = new TopKRedBlackTree<>(3, false);
+
+			for (int value : new int[] { 5, 9, 1, 9, 7 }) {
+				bottom.offer(value);
+			}
+			//keeps 1, 5, 7 after 9 and 9 are evicted
+			assertEquals(3, bottom.size());
+			assertEquals(7, bottom.threshold());
+			assertEquals(1, bottom.first());
+
+			assertFalse(bottom.offer(8));
+			assertFalse(bottom.offer(7));
+			assertTrue(bottom.offer(1));
+			assertEquals(5, bottom.threshold());
+
+			bottom.clear();
+			assertTrue(bottom.isEmpty());
+			assertNull(bottom.threshold());
+			assertTrue(bottom.offer(4));
+		}
+	}
+
+}
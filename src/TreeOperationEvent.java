@@ -0,0 +1,53 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder event for a slow tree operation, committed by
+ * RedBlackTree.insert and BinarySearchTree.contains when the operation takes
+ * longer than the event's threshold. The threshold defaults to 1 ms and can
+ * be changed like any other JFR setting, for example with
+ * -XX:StartFlightRecording:settings=custom.jfc or
+ * Recording.enable("rbt.TreeOperation").withThreshold(...).
+ *
+ * The counts recorded with the event separate the possible causes of a slow
+ * operation: a long path or many fix-up iterations point at the tree's shape,
+ * a short path with few rotations points at an expensive compareTo of the key
+ * class, and neither points at GC or scheduling, which the recording shows
+ * around the event.
+ */
+@Name("rbt.TreeOperation")
+@Label("Slow Tree Operation")
+@Category("Red Black Tree")
+@Description("An insert or contains call that took longer than the threshold")
+@Enabled(true)
+@Threshold("1 ms")
+@StackTrace(true)
+public class TreeOperationEvent extends Event {
+
+	@Label("Operation")
+	@Description("The tree method that was called, insert or contains")
+	String operation;
+
+	@Label("Path Length")
+	@Description("Number of nodes compared against on the way down the tree")
+	int pathLength;
+
+	@Label("Fix-up Iterations")
+	@Description("Number of ensureRedProperty calls made to repair the tree")
+	int fixupIterations;
+
+	@Label("Rotations")
+	@Description("Number of rotations made to repair the tree")
+	int rotations;
+
+	@Label("Key Class")
+	@Description("Class of the value that was inserted or searched for")
+	Class<?> keyClass;
+
+}
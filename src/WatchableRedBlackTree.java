@@ -0,0 +1,561 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Red black tree that notifies watchers of changes to ranges of values, so
+ * that consumers can react to inserts instead of polling. The watched ranges
+ * are kept in an IntervalTree, so an insert finds the watches covering its
+ * value by skipping every subtree of ranges that end before it, in
+ * O(min(w, (k + 1) log w)) time for w watches and k matches, rather than
+ * checking every watch.
+ *
+ * Listeners are called on the threads of a bounded pool, never on the thread
+ * that changed the tree unless the pool's queue is full, in which case that
+ * thread delivers the batch itself and is slowed down accordingly. Each watch
+ * has at most one delivery queued or running at a time: events that arrive
+ * meanwhile are collected and handed to the listener together in the next
+ * batch, in the order they happened. An exception thrown by a listener is
+ * kept by its watch and does not stop later deliveries or reach the thread
+ * changing the tree. The tree itself, watch and unwatch must still be used
+ * from one thread at a time.
+ * @param <T> type of the values
+ */
+public class WatchableRedBlackTree<T extends Comparable<T>> extends RedBlackTree<T> implements Closeable {
+
+	/**
+	 * Receives the changes to a watched range.
+	 */
+	public interface RangeListener<T> {
+
+		/**
+		 * Called with the changes made since the last call, oldest first.
+		 * Calls for the same watch never overlap.
+		 * @param events the changes, never empty
+		 */
+		void onChanges(List<Event<T>> events);
+	}
+
+	/**
+	 * One change to a watched range: a value inserted into it, or the tree cleared.
+	 */
+	public static final class Event<T> {
+
+		// the inserted value, or null when the tree was cleared
+		private final T value;
+
+		private Event(T value) {
+			this.value = value;
+		}
+
+		/**
+		 * @return true if every value was removed from the tree
+		 */
+		public boolean isClear() { return value == null; }
+
+		/**
+		 * @return the inserted value, or null if this event is a clear
+		 */
+		public T getValue() { return value; }
+
+		@Override
+		public String toString() {
+			return value == null ? "clear" : "insert " + value;
+		}
+	}
+
+	/**
+	 * A registered range [lo, hi] with its listener and the events waiting to
+	 * be delivered to it.
+	 */
+	public static final class Watch<T extends Comparable<T>> extends Interval<T> {
+
+		private final RangeListener<T> listener;
+		// node of the watch index that holds this watch, null once unwatched
+		private RBTNode<Interval<T>> node = null;
+		// events not yet handed to the listener, guarded by this watch
+		private List<Event<T>> pending = new ArrayList<>();
+		// true while a delivery is queued or running, guarded by this watch
+		private boolean scheduled = false;
+		// number of batches whose listener call threw, and the last exception thrown
+		private int failures = 0;
+		private RuntimeException lastFailure = null;
+
+		private Watch(T lo, T hi, RangeListener<T> listener) {
+			super(lo, hi);
+			this.listener = listener;
+		}
+
+		/**
+		 * Adds event to the pending events.
+		 * @return true if a delivery must be scheduled for it
+		 */
+		private synchronized boolean add(Event<T> event) {
+			pending.add(event);
+			if (scheduled) {
+				return false;
+			}
+			scheduled = true;
+			return true;
+		}
+
+		/**
+		 * Hands every pending event to the listener, repeating while more
+		 * arrive. A batch whose listener call throws is counted as failed and
+		 * not retried.
+		 * @param tree the tree to schedule the remaining events with if the
+		 * listener throws an Error
+		 */
+		private void deliver(WatchableRedBlackTree<T> tree) {
+			boolean finished = false;
+			try {
+				while (true) {
+					List<Event<T>> batch;
+					synchronized (this) {
+						//cleared together with the check, so add never sees a delivery that is ending
+						if (pending.isEmpty()) {
+							scheduled = false;
+							finished = true;
+							return;
+						}
+						batch = pending;
+						pending = new ArrayList<>();
+					}
+					try {
+						listener.onChanges(Collections.unmodifiableList(batch));
+					} catch (RuntimeException e) {
+						synchronized (this) {
+							failures++;
+							lastFailure = e;
+						}
+					}
+				}
+			} finally {
+				if (!finished) {
+					//the listener threw an Error: hand events that arrived meanwhile to a new delivery
+					boolean more;
+					synchronized (this) {
+						more = !pending.isEmpty();
+						scheduled = more;
+					}
+					if (more) {
+						tree.schedule(this);
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return the number of batches whose listener call threw an exception
+		 */
+		public synchronized int getFailures() { return failures; }
+
+		/**
+		 * @return the last exception the listener threw, or null if it never threw
+		 */
+		public synchronized RuntimeException getLastFailure() { return lastFailure; }
+	}
+
+	// default number of delivery threads
+	private static final int DEFAULT_THREADS = 2;
+	// default number of deliveries the pool queues before the caller delivers
+	private static final int DEFAULT_QUEUE = 1024;
+
+	// the watches, indexed by range; each stored Interval is a Watch
+	private final IntervalTree<T> watches = new IntervalTree<>() {
+		@Override
+		@SuppressWarnings("unchecked")
+		protected RBTNode<Interval<T>> createNode(Interval<T> data) {
+			RBTNode<Interval<T>> node = super.createNode(data);
+			((Watch<T>) data).node = node;
+			return node;
+		}
+	};
+	// runs deliveries
+	private final ThreadPoolExecutor executor;
+	// size of the delivery pool and of its queue, for copies
+	private final int threads;
+	private final int queueCapacity;
+
+	/**
+	 * Creates an empty tree that delivers events on DEFAULT_THREADS threads.
+	 */
+	public WatchableRedBlackTree() {
+		this(DEFAULT_THREADS, DEFAULT_QUEUE);
+	}
+
+	/**
+	 * Creates an empty tree that delivers events on a bounded pool.
+	 * @param threads number of threads calling listeners
+	 * @param queueCapacity number of deliveries that can wait for a thread
+	 * before the thread changing the tree delivers events itself
+	 * @throws IllegalArgumentException if threads or queueCapacity is less than 1
+	 */
+	public WatchableRedBlackTree(int threads, int queueCapacity) throws IllegalArgumentException {
+		if (threads < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("Threads and queue capacity must be positive");
+		}
+		this.threads = threads;
+		this.queueCapacity = queueCapacity;
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.NANOSECONDS,
+			new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+				Thread thread = new Thread(runnable, "rbt-watch");
+				thread.setDaemon(true);
+				return thread;
+			}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**
+	 * Starts sending listener the changes to values between lo and hi,
+	 * inclusive.
+	 * @param lo the lower end of the watched range
+	 * @param hi the upper end of the watched range
+	 * @param listener receives batches of events
+	 * @return the watch, to pass to unwatch
+	 * @throws NullPointerException if any argument is null
+	 * @throws IllegalArgumentException if lo is greater than hi
+	 */
+	public Watch<T> watch(T lo, T hi, RangeListener<T> listener)
+		throws NullPointerException, IllegalArgumentException {
+		if (listener == null) {
+			throw new NullPointerException("Listener cannot be null");
+		}
+		Watch<T> watch = new Watch<>(lo, hi, listener);
+		watches.insert(watch);
+		return watch;
+	}
+
+	/**
+	 * Stops sending events to watch. Events already queued for it are still delivered.
+	 * @param watch a watch returned by watch
+	 * @return true if the watch was removed, false if it was already removed
+	 */
+	public boolean unwatch(Watch<T> watch) {
+		if (watch.node == null) {
+			return false;
+		}
+		watches.removeNode(watch.node);
+		watch.node = null;
+		return true;
+	}
+
+	/**
+	 * @return the number of active watches
+	 */
+	public int watchCount() {
+		return watches.size();
+	}
+
+	/**
+	 * Copies the values into a new tree with a delivery pool of the same
+	 * size. Watches belong to the tree they were made on, so the copy starts
+	 * with none, and copying sends no events.
+	 * @return a new tree with the same values in the same node layout
+	 */
+	@Override
+	public WatchableRedBlackTree<T> copy() {
+		WatchableRedBlackTree<T> copy = new WatchableRedBlackTree<>(threads, queueCapacity);
+		copyInto(copy);
+		return copy;
+	}
+
+	/**
+	 * Inserts data and queues an event for every watch whose range contains it.
+	 * @param data the new value being inserted
+	 * @throws NullPointerException if data is null
+	 */
+	@Override
+	public void insert(T data) throws NullPointerException {
+		super.insert(data);
+		publishInsert(data);
+	}
+
+	/**
+	 * Removes every value and queues a clear event for every watch.
+	 */
+	@Override
+	public void clear() {
+		super.clear();
+		publishClear();
+	}
+
+	/**
+	 * Replaces the tree's contents like RedBlackTree does, then queues a
+	 * clear event for every watch followed by an event for every new value
+	 * in its range, as if the tree had been cleared and the values inserted.
+	 * @throws NullPointerException if sorted is null or contains null
+	 * @throws IllegalArgumentException if sorted is not in ascending order
+	 */
+	@Override
+	public void buildFromSorted(List<? extends T> sorted)
+		throws NullPointerException, IllegalArgumentException {
+		super.buildFromSorted(sorted);
+		publishClear();
+		for (T value : sorted) {
+			publishInsert(value);
+		}
+	}
+
+	/**
+	 * Queues an insert event for data for every watch whose range contains it.
+	 */
+	private void publishInsert(T data) {
+		if (!watches.isEmpty()) {
+			Event<T> event = new Event<>(data);
+			for (Interval<T> watch : watches.overlaps(data)) {
+				publish((Watch<T>) watch, event);
+			}
+		}
+	}
+
+	/**
+	 * Queues a clear event for every watch.
+	 */
+	private void publishClear() {
+		Event<T> event = new Event<>(null);
+		for (Interval<T> watch : watches) {
+			publish((Watch<T>) watch, event);
+		}
+	}
+
+	/**
+	 * Adds event to watch's pending events, scheduling a delivery unless one is already waiting.
+	 */
+	private void publish(Watch<T> watch, Event<T> event) {
+		if (watch.add(event)) {
+			schedule(watch);
+		}
+	}
+
+	/**
+	 * Runs a delivery for watch on the pool, or on this thread once the pool
+	 * is shut down.
+	 */
+	private void schedule(Watch<T> watch) {
+		//a shut down pool discards tasks even with CallerRunsPolicy
+		if (executor.isShutdown()) {
+			watch.deliver(this);
+		}
+		else {
+			executor.execute(() -> watch.deliver(this));
+		}
+	}
+
+	/**
+	 * Stops the delivery threads once every queued event has been delivered,
+	 * waiting for them to finish. Later changes to the tree are delivered on
+	 * the thread making them.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * JUnit tests, nested because WatchableRedBlackTree has two constructors
+	 * and JUnit needs a class with a single no-argument one
+	 */
+	static class WatchableRedBlackTreeTest {
+
+		/**
+		 * Checks that every event reaches exactly the watches whose range holds
+		 * it, in order, and that unwatch and clear work
+		 */
+		@Test
+		public void watchTest1() throws InterruptedException {
+			BlockingQueue<String> received = new LinkedBlockingQueue<>();
+			WatchableRedBlackTree<Integer> tree = new WatchableRedBlackTree<>(2, 4);
+			List<Watch<Integer>> all = new ArrayList<>();
+			List<List<Integer>> seen = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+				seen.add(values);
+				all.add(tree.watch(i * 10, i * 10 + 14, events -> {
+					for (Event<Integer> event : events) {
+						values.add(event.isClear() ? -1 : event.getValue());
+					}
+				}));
+			}
+			assertEquals(100, tree.watchCount());
+
+			for (int value = 0; value < 1000; value++) {
+				tree.insert(value);
+			}
+			assertTrue(tree.unwatch(all.get(50)));
+			assertFalse(tree.unwatch(all.get(50)));
+			assertTrue(tree.watches.validate().isValid());
+			tree.insert(512); //in the ranges of watches 50 and 51
+			tree.watch(0, 0, events -> received.add(events.toString()));
+			tree.clear();
+			tree.close();
+
+			for (int i = 0; i < 100; i++) {
+				List<Integer> expected = new ArrayList<>();
+				for (int value = i * 10; value <= Math.min(999, i * 10 + 14); value++) {
+					expected.add(value);
+				}
+				if (i == 51) {
+					expected.add(512);
+				}
+				if (i != 50) {
+					expected.add(-1);
+				}
+				assertEquals(expected, seen.get(i), "watch " + i);
+			}
+			assertEquals("[clear]", received.poll(5, TimeUnit.SECONDS));
+		}
+
+		/**
+		 * Checks that events for a busy listener are batched rather than queued
+		 * one by one
+		 */
+		@Test
+		public void watchTest2() {
+			List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+			WatchableRedBlackTree<String> tree = new WatchableRedBlackTree<>();
+			tree.watch("a", "b", events -> {
+				batchSizes.add(events.size());
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+
+			for (int i = 0; i < 200; i++) {
+				tree.insert("a" + i);
+				tree.insert("c" + i);
+			}
+			tree.close();
+
+			assertEquals(200, batchSizes.stream().mapToInt(Integer::intValue).sum());
+			assertTrue(batchSizes.size() < 200, batchSizes.toString());
+			assertEquals(400, tree.size());
+		}
+
+		/**
+		 * Checks that a throwing listener keeps getting later events and that
+		 * its exceptions never reach insert, including when the inserting
+		 * thread delivers the events itself
+		 */
+		@Test
+		public void watchTest3() {
+			AtomicInteger delivered = new AtomicInteger();
+			WatchableRedBlackTree<Integer> tree = new WatchableRedBlackTree<>(1, 1);
+			Watch<Integer> failing = tree.watch(0, 1000, events -> {
+				delivered.addAndGet(events.size());
+				throw new IllegalStateException("listener failed");
+			});
+			//keeps the only delivery thread busy so the queue fills and inserts deliver themselves
+			tree.watch(0, 0, events -> {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+
+			for (int value = 0; value < 100; value++) {
+				tree.insert(value);
+			}
+			tree.close();
+			assertEquals(100, delivered.get());
+			assertTrue(failing.getFailures() > 0);
+			assertEquals("listener failed", failing.getLastFailure().getMessage());
+
+			//delivered on this thread now that the pool is shut down
+			tree.insert(500);
+			assertEquals(101, delivered.get());
+			assertEquals(101, tree.size());
+		}
+
+		/**
+		 * Checks that no event is stranded when it arrives while a delivery is
+		 * finding nothing left and ending, and that events arriving while a
+		 * listener throws an Error are still delivered
+		 */
+		@Test
+		public void watchTest4() throws InterruptedException {
+			AtomicInteger delivered = new AtomicInteger();
+			WatchableRedBlackTree<Integer> tree = new WatchableRedBlackTree<>(4, 1024);
+			tree.watch(0, Integer.MAX_VALUE, events -> {
+				int total = delivered.addAndGet(events.size());
+				//returns after a varying pause, so the next insert lands anywhere around the delivery's end
+				for (int spin = total % 100; spin > 0; spin--) {
+					Thread.onSpinWait();
+				}
+			});
+			for (int value = 0; value < 50000; value++) {
+				long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+				while (delivered.get() < value) {
+					assertTrue(System.nanoTime() < deadline, "event " + (value - 1) + " was never delivered");
+					Thread.onSpinWait();
+				}
+				tree.insert(value);
+			}
+			tree.close();
+			assertEquals(50000, delivered.get());
+
+			CountDownLatch entered = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+			List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+			WatchableRedBlackTree<Integer> failing = new WatchableRedBlackTree<>(1, 16);
+			failing.watch(0, 100, events -> {
+				if (entered.getCount() > 0) {
+					entered.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					throw new AssertionError("listener error");
+				}
+				for (Event<Integer> event : events) {
+					received.add(event.getValue());
+				}
+			});
+			failing.insert(0);
+			assertTrue(entered.await(5, TimeUnit.SECONDS));
+			failing.insert(1);
+			failing.insert(2);
+			release.countDown();
+			failing.close();
+			assertEquals(List.of(1, 2), received);
+		}
+
+		/**
+		 * Checks that buildFromSorted tells each watch about the clear and the
+		 * new values in its range
+		 */
+		@Test
+		public void watchTest5() {
+			List<String> seen = Collections.synchronizedList(new ArrayList<>());
+			WatchableRedBlackTree<Integer> tree = new WatchableRedBlackTree<>();
+			tree.insert(50);
+			tree.watch(10, 20, events -> events.forEach(event -> seen.add(event.toString())));
+			tree.buildFromSorted(List.of(5, 10, 15, 20, 25));
+			tree.close();
+
+			assertEquals(List.of("clear", "insert 10", "insert 15", "insert 20"), seen);
+			assertEquals(5, tree.size());
+			assertTrue(tree.validate().isValid());
+		}
+	}
+
+}
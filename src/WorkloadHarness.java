@@ -0,0 +1,409 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Load generator that drives a SortedCollection of Long keys with a mix of
+ * operations and records a LatencyHistogram per operation. Requests come
+ * from a key distribution (uniform, Zipfian, sequential or adversarial) or
+ * from a trace file, and are issued on a fixed schedule: request i is due
+ * at start + i / rate, and its latency is measured from that due time, not
+ * from when it actually started. A slow operation therefore also shows up in
+ * the latencies of every request queued behind it, as it would for real
+ * clients, instead of silently delaying them (coordinated omission).
+ *
+ * Trace files have one request per line, the operation name and the key
+ * separated by a space, such as "INSERT 42". Blank lines and lines starting
+ * with # are ignored.
+ */
+public class WorkloadHarness {
+
+	/**
+	 * SortedCollection operations a request can make.
+	 */
+	public enum Operation { INSERT, CONTAINS, FLOOR, CEILING }
+
+	/**
+	 * Ways of choosing the key of each request.
+	 */
+	public enum KeyDistribution {
+		// every key in the key space equally likely
+		UNIFORM,
+		// a few small keys take most of the requests, with Zipf exponent 0.99
+		ZIPFIAN,
+		// keys 0, 1, 2, ... in ascending order, turning a plain binary search tree into a chain
+		SEQUENTIAL,
+		// keys alternately from the bottom and the top of the key space, closing in on the
+		// middle, turning a plain binary search tree into a zig-zag chain
+		ADVERSARIAL
+	}
+
+	/**
+	 * One operation on one key.
+	 */
+	public static final class Request {
+		final Operation operation;
+		final long key;
+
+		public Request(Operation operation, long key) {
+			this.operation = operation;
+			this.key = key;
+		}
+
+		@Override
+		public String toString() {
+			return operation + " " + key;
+		}
+	}
+
+	// results of queries, read so the JIT cannot drop them
+	private static volatile long sink;
+
+	/**
+	 * Creates count requests whose operations are picked at random in
+	 * proportion to their weights in mix, with keys from distribution.
+	 * @param mix relative weight of each operation, missing operations are never picked
+	 * @param distribution how keys are chosen
+	 * @param keySpace keys are between 0 and keySpace - 1
+	 * @param count number of requests
+	 * @param seed seed for the random choices
+	 * @return the requests in the order they should be issued
+	 * @throws IllegalArgumentException if the weights are not positive in total
+	 * or keySpace is less than 1
+	 */
+	public static List<Request> generate(Map<Operation, Integer> mix, KeyDistribution distribution, long keySpace,
+		int count, long seed) throws IllegalArgumentException {
+		int totalWeight = 0;
+		for (int weight : mix.values()) {
+			totalWeight += weight;
+		}
+		if (totalWeight <= 0 || keySpace < 1) {
+			throw new IllegalArgumentException("Operation weights and key space must be positive");
+		}
+
+		Random random = new Random(seed);
+		LongSupplier keys = keys(distribution, keySpace, random);
+		List<Request> requests = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int pick = random.nextInt(totalWeight);
+			Operation operation = null;
+			for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+				pick -= entry.getValue();
+				if (pick < 0) {
+					operation = entry.getKey();
+					break;
+				}
+			}
+			requests.add(new Request(operation, keys.getAsLong()));
+		}
+		return requests;
+	}
+
+	/**
+	 * @return a supplier of keys between 0 and keySpace - 1 following distribution
+	 */
+	private static LongSupplier keys(KeyDistribution distribution, long keySpace, Random random) {
+		switch (distribution) {
+			case UNIFORM:
+				return () -> random.nextLong(keySpace);
+			case ZIPFIAN:
+				return zipfian(keySpace, 0.99, random);
+			case SEQUENTIAL: {
+				long[] next = { 0 };
+				return () -> next[0]++ % keySpace;
+			}
+			case ADVERSARIAL: {
+				long[] next = { 0 };
+				return () -> {
+					long i = next[0]++ % keySpace;
+					return i % 2 == 0 ? i / 2 : keySpace - 1 - i / 2;
+				};
+			}
+			default:
+				throw new IllegalArgumentException("Unknown distribution " + distribution);
+		}
+	}
+
+	/**
+	 * Zipfian key generator after Gray et al., "Quickly Generating
+	 * Billion-Record Synthetic Databases", where key k is chosen with
+	 * probability proportional to 1 / (k + 1)^theta. Setting up takes
+	 * O(keySpace) time, each key afterwards O(1).
+	 */
+	private static LongSupplier zipfian(long keySpace, double theta, Random random) {
+		double zetaN = 0;
+		for (long i = 1; i <= keySpace; i++) {
+			zetaN += 1 / Math.pow(i, theta);
+		}
+		double zeta2 = 1 + 1 / Math.pow(2, theta);
+		double alpha = 1 / (1 - theta);
+		double eta = (1 - Math.pow(2.0 / keySpace, 1 - theta)) / (1 - zeta2 / zetaN);
+		double zeta = zetaN;
+
+		return () -> {
+			double u = random.nextDouble();
+			double uz = u * zeta;
+			if (uz < 1) {
+				return 0;
+			}
+			if (uz < zeta2) {
+				return Math.min(1, keySpace - 1);
+			}
+			return Math.min(keySpace - 1, (long) (keySpace * Math.pow(eta * u - eta + 1, alpha)));
+		};
+	}
+
+	/**
+	 * Writes requests to a trace file that readTrace can replay.
+	 */
+	public static void writeTrace(Path file, List<Request> requests) throws IOException {
+		try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			for (Request request : requests) {
+				out.write(request.toString());
+				out.newLine();
+			}
+		}
+	}
+
+	/**
+	 * Reads the requests of a trace file.
+	 * @throws IOException if the file cannot be read or a line is malformed
+	 */
+	public static List<Request> readTrace(Path file) throws IOException {
+		List<Request> requests = new ArrayList<>();
+		try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] parts = line.split("\\s+");
+				try {
+					if (parts.length != 2) {
+						throw new IllegalArgumentException("expected an operation and a key");
+					}
+					requests.add(new Request(Operation.valueOf(parts[0].toUpperCase()), Long.parseLong(parts[1])));
+				} catch (IllegalArgumentException e) {
+					throw new IOException(file + " line " + lineNumber + ": " + e.getMessage(), e);
+				}
+			}
+		}
+		return requests;
+	}
+
+	/**
+	 * Issues requests against collection at a fixed rate and measures the
+	 * latency of each request from the time it was due.
+	 * @param collection the collection under test
+	 * @param requests the requests to issue, in order
+	 * @param requestsPerSecond the rate requests are due at, or 0 to issue
+	 * each request as soon as the previous one finishes
+	 * @return a histogram of latencies for each operation that was issued
+	 */
+	public static Map<Operation, LatencyHistogram> run(SortedCollection<Long> collection, List<Request> requests,
+		double requestsPerSecond) {
+		Map<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+		for (Request request : requests) {
+			histograms.computeIfAbsent(request.operation, operation -> new LatencyHistogram());
+		}
+
+		double interval = requestsPerSecond > 0 ? 1e9 / requestsPerSecond : 0;
+		long start = System.nanoTime();
+		long checksum = 0;
+
+		for (int i = 0; i < requests.size(); i++) {
+			Request request = requests.get(i);
+			long due = requestsPerSecond > 0 ? start + (long) (i * interval) : System.nanoTime();
+			long now;
+			while ((now = System.nanoTime()) < due) {
+				//park for most of a long wait, spin for the rest to wake up on time
+				if (due - now > 100_000) {
+					LockSupport.parkNanos(due - now - 50_000);
+				}
+				else {
+					Thread.onSpinWait();
+				}
+			}
+
+			Long result = null;
+			switch (request.operation) {
+				case INSERT:
+					collection.insert(request.key);
+					break;
+				case CONTAINS:
+					checksum += collection.contains(request.key) ? 1 : 0;
+					break;
+				case FLOOR:
+					result = collection.floor(request.key);
+					break;
+				case CEILING:
+					result = collection.ceiling(request.key);
+					break;
+			}
+			histograms.get(request.operation).record(System.nanoTime() - due);
+			if (result != null) {
+				checksum += result;
+			}
+		}
+
+		sink = checksum;
+		return histograms;
+	}
+
+	/**
+	 * @return one line per operation with its latency percentiles
+	 */
+	public static String report(Map<Operation, LatencyHistogram> histograms) {
+		StringBuilder report = new StringBuilder();
+		for (Map.Entry<Operation, LatencyHistogram> entry : histograms.entrySet()) {
+			report.append(String.format("  %-8s %s%n", entry.getKey(), entry.getValue()));
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Runs a mixed workload against each collection for each key
+	 * distribution, or replays a trace file against each collection, and
+	 * prints the latency percentiles.
+	 * @param trace a trace file to replay, or null to generate workloads
+	 * @param requestsPerSecond the rate requests are due at, or 0 for back to back
+	 */
+	public static void compare(Path trace, double requestsPerSecond) throws IOException {
+		Map<String, Supplier<SortedCollection<Long>>> collections = new LinkedHashMap<>();
+		collections.put("BinarySearchTree", BinarySearchTree::new);
+		collections.put("RedBlackTree", RedBlackTree::new);
+		collections.put("ScapegoatTree", ScapegoatTree::new);
+		collections.put("PackedMemoryArray", PackedMemoryArray::new);
+
+		if (trace != null) {
+			List<Request> requests = readTrace(trace);
+			for (Map.Entry<String, Supplier<SortedCollection<Long>>> entry : collections.entrySet()) {
+				System.out.println(entry.getKey() + " replaying " + trace);
+				System.out.print(report(run(entry.getValue().get(), requests, requestsPerSecond)));
+			}
+			return;
+		}
+
+		Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+		mix.put(Operation.INSERT, 50);
+		mix.put(Operation.CONTAINS, 40);
+		mix.put(Operation.FLOOR, 5);
+		mix.put(Operation.CEILING, 5);
+
+		for (KeyDistribution distribution : KeyDistribution.values()) {
+			//small enough that a degenerate BinarySearchTree's recursive insert doesn't overflow the stack
+			List<Request> requests = generate(mix, distribution, 100000, 8000, 46);
+			for (Map.Entry<String, Supplier<SortedCollection<Long>>> entry : collections.entrySet()) {
+				System.out.println(entry.getKey() + ", " + distribution + " keys");
+				System.out.print(report(run(entry.getValue().get(), requests, requestsPerSecond)));
+			}
+		}
+	}
+
+	/**
+	 * tests the key distributions and the operation mix of generated requests
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test1() {
+		Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+		mix.put(Operation.INSERT, 3);
+		mix.put(Operation.CONTAINS, 1);
+
+		List<Request> zipfian = generate(mix, KeyDistribution.ZIPFIAN, 1000, 10000, 1);
+		int inserts = 0;
+		int hottest = 0;
+		for (Request request : zipfian) {
+			inserts += request.operation == Operation.INSERT ? 1 : 0;
+			hottest += request.key == 0 ? 1 : 0;
+			if (request.key < 0 || request.key >= 1000) {
+				System.out.println("Test 1 - key out of range: " + request.key);
+				return false;
+			}
+		}
+		//about 3 in 4 requests insert, and key 0 gets about 1 / zeta(1000) of them
+		if (inserts < 7000 || inserts > 8000 || hottest < 1000) {
+			System.out.println("Test 1 - Actual inserts and hits on key 0: " + inserts + ", " + hottest);
+			return false;
+		}
+
+		List<Request> adversarial = generate(mix, KeyDistribution.ADVERSARIAL, 10, 4, 1);
+		if (adversarial.get(0).key != 0 || adversarial.get(1).key != 9 || adversarial.get(2).key != 1
+			|| adversarial.get(3).key != 8) {
+			System.out.println("Test 1 - Actual adversarial keys: " + adversarial);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * tests that a trace survives writing and reading, and that running it
+	 * applies every request and records every latency
+	 * @return true if tests pass, false otherwise
+	 */
+	public static boolean test2() {
+		Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+		mix.put(Operation.INSERT, 1);
+		mix.put(Operation.FLOOR, 1);
+		List<Request> requests = generate(mix, KeyDistribution.SEQUENTIAL, 1000000, 2000, 2);
+
+		try {
+			Path file = Files.createTempFile("trace", ".txt");
+			try {
+				writeTrace(file, requests);
+				List<Request> replayed = readTrace(file);
+				if (!replayed.toString().equals(requests.toString())) {
+					System.out.println("Test 2 - trace changed after writing and reading it");
+					return false;
+				}
+
+				RedBlackTree<Long> tree = new RedBlackTree<>();
+				Map<Operation, LatencyHistogram> histograms = run(tree, replayed, 100000);
+				long recorded = histograms.get(Operation.INSERT).getCount() + histograms.get(Operation.FLOOR).getCount();
+				if (recorded != 2000 || tree.size() != histograms.get(Operation.INSERT).getCount()) {
+					System.out.println("Test 2 - Actual recorded count and size: " + recorded + ", " + tree.size());
+					return false;
+				}
+			} finally {
+				Files.delete(file);
+			}
+		} catch (IOException e) {
+			System.out.println("Test 2 - " + e);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * calls test methods and prints results, or compares collections if
+	 * given arguments
+	 * @param args - none to run the tests; "compare" followed by an optional
+	 * rate in requests per second and an optional trace file to run compare
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length > 0 && args[0].equals("compare")) {
+			double rate = args.length > 1 ? Double.parseDouble(args[1]) : 20000;
+			compare(args.length > 2 ? Path.of(args[2]) : null, rate);
+			return;
+		}
+		System.out.println("Test 1 result: " + test1());
+		System.out.println("Test 2 result: " + test2());
+	}
+
+}